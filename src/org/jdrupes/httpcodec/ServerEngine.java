@@ -21,6 +21,8 @@ package org.jdrupes.httpcodec;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.util.Optional;
+import java.util.Queue;
+import java.util.function.Function;
 
 import org.jdrupes.httpcodec.Codec.ProtocolSwitchResult;
 
@@ -41,6 +43,7 @@ public class ServerEngine<Q extends MessageHeader, R extends MessageHeader>
 
 	private Decoder<?, ?> requestDecoder;
 	private Encoder<?, ?> responseEncoder;
+	private Buffer batchPayload;
 	
 	/**
 	 * Creates a new instance.
@@ -170,6 +173,56 @@ public class ServerEngine<Q extends MessageHeader, R extends MessageHeader>
 		return result;
 	}
 
+	/**
+	 * Encodes the given responses back-to-back into the out buffer.
+	 * This is intended for sending the responses to pipelined 
+	 * requests (such as the requests obtained from
+	 * {@link org.jdrupes.httpcodec.protocols.http.server.HttpRequestDecoder#decodeAll}) 
+	 * without having to invoke the encoder for each response.
+	 * <P>
+	 * The payload of a response with payload is obtained from the
+	 * given function and encoded completely. Responses are removed 
+	 * from the queue when they have been encoded. If the out buffer 
+	 * is full, the result indicates an overflow and the response 
+	 * at the head of the queue has only partially been encoded. 
+	 * The method must then be invoked again with the same queue 
+	 * after the out buffer has been processed. Encoding also stops 
+	 * after a response that closes the connection or switches the 
+	 * protocol.
+	 * 
+	 * @param responses the responses, must not be empty
+	 * @param payloads provides the payload for a response
+	 * @param out the buffer for the encoded data
+	 * @return the result from encoding the last response
+	 */
+	public Encoder.Result encodeAll(Queue<R> responses, 
+			Function<R, ? extends Buffer> payloads, ByteBuffer out) {
+		if (responses.isEmpty()) {
+			throw new IllegalArgumentException("No responses.");
+		}
+		Encoder.Result result = null;
+		while (!responses.isEmpty()) {
+			R response = responses.peek();
+			if (batchPayload == null) {
+				encode(response);
+				batchPayload = response.hasPayload() 
+						? payloads.apply(response) : Codec.EMPTY_IN;
+			}
+			result = encode(batchPayload, out, true);
+			if (result.isOverflow()) {
+				return result;
+			}
+			responses.poll();
+			batchPayload = null;
+			if (result.closeConnection() 
+					|| result instanceof ProtocolSwitchResult
+					&& ((ProtocolSwitchResult)result).newProtocol() != null) {
+				break;
+			}
+		}
+		return result;
+	}
+
 	/**
 	 * Returns the last fully decoded request if it exists.
 	 * 
@@ -99,5 +99,64 @@ public abstract class UpgradeProvider {
 	 */
 	public abstract Decoder<?, ?> createResponseDecoder(String protocol);
 	
+	/**
+	 * Creates a new request encoder for the protocol, taking into 
+	 * account any parameters that have been negotiated with the
+	 * `101 Switching Protocol` response. The default implementation
+	 * invokes {@link #createRequestEncoder(String)}.
+	 * 
+	 * @param protocol the protocol, which must be supported by this plugin
+	 * @param response the `101 Switching Protocol` response
+	 * @return the request encoder
+	 */
+	public Encoder<?, ?> createRequestEncoder(
+			String protocol, HttpResponse response) {
+		return createRequestEncoder(protocol);
+	}
+	
+	/**
+	 * Creates a new request decoder for the protocol, taking into 
+	 * account any parameters that have been negotiated with the
+	 * `101 Switching Protocol` response. The default implementation
+	 * invokes {@link #createRequestDecoder(String)}.
+	 * 
+	 * @param protocol the protocol, which must be supported by this plugin
+	 * @param response the `101 Switching Protocol` response
+	 * @return the request decoder
+	 */
+	public Decoder<?, ?> createRequestDecoder(
+			String protocol, HttpResponse response) {
+		return createRequestDecoder(protocol);
+	}
+	
+	/**
+	 * Creates a new response encoder for the protocol, taking into 
+	 * account any parameters that have been negotiated with the
+	 * `101 Switching Protocol` response. The default implementation
+	 * invokes {@link #createResponseEncoder(String)}.
+	 * 
+	 * @param protocol the protocol, which must be supported by this plugin
+	 * @param response the `101 Switching Protocol` response
+	 * @return the response encoder
+	 */
+	public Encoder<?, ?> createResponseEncoder(
+			String protocol, HttpResponse response) {
+		return createResponseEncoder(protocol);
+	}
+	
+	/**
+	 * Creates a new response decoder for the protocol, taking into 
+	 * account any parameters that have been negotiated with the
+	 * `101 Switching Protocol` response. The default implementation
+	 * invokes {@link #createResponseDecoder(String)}.
+	 * 
+	 * @param protocol the protocol, which must be supported by this plugin
+	 * @param response the `101 Switching Protocol` response
+	 * @return the response decoder
+	 */
+	public Decoder<?, ?> createResponseDecoder(
+			String protocol, HttpResponse response) {
+		return createResponseDecoder(protocol);
+	}
 	
 }
@@ -0,0 +1,183 @@
+/*
+ * This file is part of the JDrupes non-blocking HTTP Codec
+ * Copyright (C) 2018  Michael N. Lipp
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jdrupes.httpcodec.plugin;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The process wide registry of {@link UpgradeProvider}s.
+ * <P>
+ * The registry is built when it is used for the first time. It 
+ * contains the providers found with {@link ServiceLoader} and 
+ * the providers registered with {@link #register(UpgradeProvider)}.
+ * Registered providers take precedence over the providers found with
+ * {@link ServiceLoader}.
+ * <P>
+ * The set of providers is never modified. Registering or unregistering
+ * a provider (or reloading the registry) replaces it with a new set.
+ * The provider found for a protocol is cached, the lookup therefore
+ * only checks all providers for the first request for a protocol. 
+ * <P>
+ * In environments with dynamic deployment of services (such as OSGi),
+ * providers should be registered and unregistered explicitly when they 
+ * become available or go away. Alternatively, {@link #reload()} can 
+ * be invoked.
+ */
+public final class UpgradeProviderRegistry {
+
+	/** Limits the number of cached results if a provider accepts
+	 * arbitrary protocol names. */
+	private static final int MAX_CACHED = 64;
+	
+	private static final List<UpgradeProvider> registered 
+		= new ArrayList<>();
+	private static volatile Providers providers;
+	
+	private UpgradeProviderRegistry() {
+	}
+
+	/**
+	 * An immutable set of providers with a cache for the
+	 * lookup results.
+	 */
+	private static class Providers {
+		private final List<UpgradeProvider> loaded;
+		private final List<UpgradeProvider> all;
+		private final Map<String,UpgradeProvider> byProtocol
+			= new ConcurrentHashMap<>();
+		
+		public Providers(List<UpgradeProvider> registered,
+				List<UpgradeProvider> loaded) {
+			this.loaded = loaded;
+			List<UpgradeProvider> all = new ArrayList<>(registered);
+			all.addAll(loaded);
+			this.all = Collections.unmodifiableList(all);
+		}
+		
+		public UpgradeProvider lookup(String protocol) {
+			UpgradeProvider result = byProtocol.get(protocol);
+			if (result != null) {
+				return result;
+			}
+			for (UpgradeProvider provider: all) {
+				if (provider.supportsProtocol(protocol)) {
+					if (byProtocol.size() < MAX_CACHED) {
+						byProtocol.put(protocol, provider);
+					}
+					return provider;
+				}
+			}
+			return null;
+		}
+	}
+
+	private static Providers current() {
+		Providers result = providers;
+		if (result != null) {
+			return result;
+		}
+		synchronized (registered) {
+			if (providers == null) {
+				providers = new Providers(registered, loadServices());
+			}
+			return providers;
+		}
+	}
+
+	private static List<UpgradeProvider> loadServices() {
+		List<UpgradeProvider> loaded = new ArrayList<>();
+		for (UpgradeProvider provider
+				: ServiceLoader.load(UpgradeProvider.class)) {
+			loaded.add(provider);
+		}
+		return loaded;
+	}
+	
+	/**
+	 * Returns the provider for the given protocol.
+	 * 
+	 * @param protocol the protocol
+	 * @return the provider
+	 */
+	public static Optional<UpgradeProvider> lookup(String protocol) {
+		return Optional.ofNullable(current().lookup(protocol));
+	}
+
+	/**
+	 * Returns all providers.
+	 * 
+	 * @return the providers as unmodifiable list
+	 */
+	public static List<UpgradeProvider> providers() {
+		return current().all;
+	}
+	
+	/**
+	 * Registers a provider. 
+	 * 
+	 * @param provider the provider
+	 */
+	public static void register(UpgradeProvider provider) {
+		synchronized (registered) {
+			registered.add(0, provider);
+			rebuild();
+		}
+	}
+
+	/**
+	 * Unregisters a provider that has been registered with
+	 * {@link #register(UpgradeProvider)}.
+	 * 
+	 * @param provider the provider
+	 */
+	public static void unregister(UpgradeProvider provider) {
+		synchronized (registered) {
+			registered.remove(provider);
+			rebuild();
+		}
+	}
+
+	/**
+	 * Discards the providers found with {@link ServiceLoader}
+	 * and looks them up again.
+	 */
+	public static void reload() {
+		synchronized (registered) {
+			providers = new Providers(registered, loadServices());
+		}
+	}
+	
+	/**
+	 * Must be invoked while holding the lock on {@link #registered}.
+	 */
+	private static void rebuild() {
+		if (providers == null) {
+			// Not yet built, will be built on first usage
+			return;
+		}
+		providers = new Providers(registered, providers.loaded);
+	}
+}
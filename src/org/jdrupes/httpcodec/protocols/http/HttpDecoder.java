@@ -18,15 +18,14 @@
 
 package org.jdrupes.httpcodec.protocols.http;
 
-import java.io.UnsupportedEncodingException;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.nio.charset.CoderResult;
 import java.text.ParseException;
 import java.util.Optional;
-import java.util.Stack;
 import java.util.function.BiConsumer;
 
 import org.jdrupes.httpcodec.Decoder;
@@ -42,6 +41,7 @@ import org.jdrupes.httpcodec.types.MultiValueConverter;
 import org.jdrupes.httpcodec.types.StringList;
 import org.jdrupes.httpcodec.util.ByteBufferUtils;
 import org.jdrupes.httpcodec.util.DynamicByteArray;
+import org.jdrupes.httpcodec.util.EnumStack;
 import org.jdrupes.httpcodec.util.OptimizedCharsetDecoder;
 
 
@@ -74,10 +74,13 @@ public abstract class 	HttpDecoder<T extends HttpMessageHeader,
 	}
 
 	private long maxHeaderLength = 4194304;
-	private Stack<State> states = new Stack<>();
+	private int maxChunkExtensionLength = 4096;
+	private EnumStack<State> states = new EnumStack<>(State.class);
 	private DynamicByteArray lineBuilder = new DynamicByteArray(8192);
-	private String receivedLine;
-	private String headerLine = null;
+	private DynamicByteArray receivedLine = new DynamicByteArray(1024);
+	private DynamicByteArray headerLine = new DynamicByteArray(1024);
+	private boolean headerLinePending = false;
+	private DynamicByteArray headerBlock;
 	protected HttpProtocol protocolVersion = HttpProtocol.HTTP_1_0;
 	private long headerLength = 0;
 	private T building;
@@ -131,6 +134,27 @@ public abstract class 	HttpDecoder<T extends HttpMessageHeader,
 		return maxHeaderLength;
 	}
 
+	/**
+	 * Sets the maximum length of the chunk extensions in a chunk header
+	 * line. If the length is exceeded, a {@link HttpProtocolException}
+	 * will be thrown. The default length is 4096 bytes.
+	 * 
+	 * @param maxChunkExtensionLength
+	 *            the maxChunkExtensionLength to set
+	 */
+	public void setMaxChunkExtensionLength(int maxChunkExtensionLength) {
+		this.maxChunkExtensionLength = maxChunkExtensionLength;
+	}
+
+	/**
+	 * Returns the maximum chunk extension length.
+	 * 
+	 * @return the maxChunkExtensionLength
+	 */
+	public int maxChunkExtensionLength() {
+		return maxChunkExtensionLength;
+	}
+
 	/**
 	 * Returns the message (header) if one exists.
 	 * 
@@ -223,18 +247,14 @@ public abstract class 	HttpDecoder<T extends HttpMessageHeader,
 				if (!in.hasRemaining()) {
 					return resultFactory().newResult(false, true);
 				}
-				byte ch = in.get();
-				if (ch == '\r') {
+				boolean lineComplete = scanLine(in);
+				if (states.size() > 1 && states.get(states.size() - 2)
+						== State.CHUNK_START_RECEIVED) {
+					checkChunkLineLength(lineBuilder);
+				}
+				if (lineComplete) {
 					states.pop();
 					states.push(State.AWAIT_LINE_END);
-					break;
-				}
-				lineBuilder.append(ch);
-				// RFC 7230 3.2.5
-				if (headerLength + lineBuilder.position() > maxHeaderLength) {
-					throw new HttpProtocolException(protocolVersion,
-					        HttpStatus.BAD_REQUEST.statusCode(),
-					        "Maximum header size exceeded");
 				}
 				break;
 			}
@@ -245,13 +265,10 @@ public abstract class 	HttpDecoder<T extends HttpMessageHeader,
 				}
 				char ch = (char) in.get();
 				if (ch == '\n') {
-					try {
-						// RFC 7230 3.2.4
-						receivedLine = new String(lineBuilder.array(), 0,
-						        lineBuilder.position(), "iso-8859-1");
-					} catch (UnsupportedEncodingException e) {
-						// iso-8859-1 is guaranteed to be supported
-					}
+					// Keep the line's bytes, reuse the previous buffer
+					DynamicByteArray completed = lineBuilder;
+					lineBuilder = receivedLine;
+					receivedLine = completed;
 					lineBuilder.clear();
 					states.pop();
 					break;
@@ -262,34 +279,38 @@ public abstract class 	HttpDecoder<T extends HttpMessageHeader,
 			}
 			// Waiting for the initial request line
 			case AWAIT_MESSAGE_START:
-				if (receivedLine.isEmpty()) {
+				if (receivedLine.position() == 0) {
 					// Ignore as recommended by RFC2616/RFC7230
 					states.push(State.RECEIVE_LINE);
 					break;
 				}
-				building = newMessage(receivedLine);
+				building = newMessage(receivedLineAsString());
+				headerBlock = new DynamicByteArray(1024);
 				messageHeader = null;
 				charDecoder = null;
 				states.pop();
-				headerLine = null;
+				headerLinePending = false;
 				states.push(State.HEADER_LINE_RECEIVED);
 				states.push(State.RECEIVE_LINE);
 				break;
 
 			case HEADER_LINE_RECEIVED:
-				if (headerLine != null) {
+				if (headerLinePending) {
 					// RFC 7230 3.2.4
-					if (!receivedLine.isEmpty()
-					        && (receivedLine.charAt(0) == ' '
-					                || receivedLine.charAt(0) == '\t')) {
-						headerLine += (" " + receivedLine.substring(1));
+					if (receivedLine.position() > 0
+					        && (receivedLine.array()[0] == ' '
+					                || receivedLine.array()[0] == '\t')) {
+						headerLine.append((byte)' ');
+						headerLine.append(receivedLine.array(), 1, 
+								receivedLine.position() - 1);
 						states.push(State.RECEIVE_LINE);
 						break;
 					}
 					// Header line complete, evaluate
 					newHeaderLine();
+					headerLinePending = false;
 				}
-				if (receivedLine.isEmpty()) {
+				if (receivedLine.position() == 0) {
 					// Body starts
 					BodyMode bm = headerReceived(building);
 					adjustToBodyMode(bm);
@@ -303,7 +324,11 @@ public abstract class 	HttpDecoder<T extends HttpMessageHeader,
 					}
 					break;
 				}
-				headerLine = receivedLine;
+				// Keep as (start of) header line, reuse previous buffer
+				DynamicByteArray started = receivedLine;
+				receivedLine = headerLine;
+				headerLine = started;
+				headerLinePending = true;
 				states.push(State.RECEIVE_LINE);
 				break;
 
@@ -319,8 +344,7 @@ public abstract class 	HttpDecoder<T extends HttpMessageHeader,
 
 			case CHUNK_START_RECEIVED:
 				// We "drop" to this state when a line has been read
-				String sizeText = receivedLine.split(";")[0];
-				long chunkSize = Long.parseLong(sizeText, 16);
+				long chunkSize = parseChunkSize(receivedLine);
 				if (chunkSize == 0) {
 					states.pop();
 					states.push(State.CHUNK_TRAILER_LINE_RECEIVED);
@@ -342,7 +366,7 @@ public abstract class 	HttpDecoder<T extends HttpMessageHeader,
 				// We "drop" to this state when the CR/LF after chunk data
 				// has been read. There's nothing to do except to wait for
 				// next chunk
-				if (receivedLine.length() != 0) {
+				if (receivedLine.position() != 0) {
 					throw new HttpProtocolException(protocolVersion,
 					        HttpStatus.BAD_REQUEST.statusCode(),
 					        "No CRLF after chunk data.");
@@ -354,8 +378,7 @@ public abstract class 	HttpDecoder<T extends HttpMessageHeader,
 
 			case CHUNK_TRAILER_LINE_RECEIVED:
 				// We "drop" to this state when a line has been read
-				if (!receivedLine.isEmpty()) {
-					headerLine = receivedLine;
+				if (receivedLine.position() > 0) {
 					newTrailerLine();
 					states.push(State.RECEIVE_LINE);
 					break;
@@ -436,19 +459,189 @@ public abstract class 	HttpDecoder<T extends HttpMessageHeader,
 		}
 	}
 
-	private void newHeaderLine() throws HttpProtocolException, ParseException {
-		headerLength += headerLine.length() + 2;
+	/**
+	 * Appends all bytes from the input up to the next CR to the line
+	 * being built. The input is searched as a whole (using the backing
+	 * array if available) and the bytes found are appended with a single
+	 * bulk operation. If a CR is found, it is consumed.
+	 * 
+	 * @param in the input
+	 * @return {@code true} if the CR has been found
+	 * @throws HttpProtocolException if the maximum header size is exceeded
+	 */
+	private boolean scanLine(ByteBuffer in) throws HttpProtocolException {
+		int start = in.position();
+		int end = in.limit();
+		int pos = start;
+		if (in.hasArray()) {
+			byte[] data = in.array();
+			int offset = in.arrayOffset();
+			while (pos < end && data[offset + pos] != '\r') {
+				pos += 1;
+			}
+			lineBuilder.append(data, offset + start, pos - start);
+			in.position(pos);
+		} else {
+			while (pos < end && in.get(pos) != '\r') {
+				pos += 1;
+			}
+			lineBuilder.append(in, pos - start);
+		}
+		// RFC 7230 3.2.5
+		if (headerLength + lineBuilder.position() > maxHeaderLength) {
+			throw new HttpProtocolException(protocolVersion,
+			        HttpStatus.BAD_REQUEST.statusCode(),
+			        "Maximum header size exceeded");
+		}
+		if (pos < end) {
+			// Skip CR
+			in.get();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Parses the chunk size from the given chunk header line. The
+	 * hexadecimal digits are evaluated directly from the line's bytes.
+	 * Chunk extensions are skipped, their length has already been
+	 * checked while receiving the line.
+	 * 
+	 * @param line the line
+	 * @return the chunk size
+	 * @throws HttpProtocolException if the line is not a valid
+	 * chunk header line
+	 */
+	private long parseChunkSize(DynamicByteArray line)
+			throws HttpProtocolException {
+		byte[] bytes = line.array();
+		int length = line.position();
+		// RFC 7230 4.1
+		long size = 0;
+		int pos = 0;
+		while (pos < length) {
+			int digit = hexDigit(bytes[pos]);
+			if (digit < 0) {
+				break;
+			}
+			if (size > (Long.MAX_VALUE >>> 4)) {
+				throw new HttpProtocolException(protocolVersion,
+				        HttpStatus.BAD_REQUEST.statusCode(),
+				        "Chunk size too large.");
+			}
+			size = (size << 4) | digit;
+			pos += 1;
+		}
+		if (pos == 0) {
+			throw new HttpProtocolException(protocolVersion,
+			        HttpStatus.BAD_REQUEST.statusCode(),
+			        "Invalid chunk size.");
+		}
+		// RFC 7230 4.1.1 (BWS before extension)
+		while (pos < length && (bytes[pos] == ' ' || bytes[pos] == '\t')) {
+			pos += 1;
+		}
+		if (pos < length && bytes[pos] != ';') {
+			throw new HttpProtocolException(protocolVersion,
+			        HttpStatus.BAD_REQUEST.statusCode(),
+			        "Invalid chunk size.");
+		}
+		return size;
+	}
+
+	/**
+	 * Checks the (possibly incomplete) chunk header line. Because
+	 * the line is checked while it is being received, the buffered
+	 * data never exceeds the chunk size digits plus the maximum chunk
+	 * extension length. Leading zeros are counted as extension data
+	 * if the chunk size has more than 16 digits.
+	 * 
+	 * @param line the line
+	 * @throws HttpProtocolException if the length is exceeded
+	 */
+	private void checkChunkLineLength(DynamicByteArray line)
+			throws HttpProtocolException {
+		byte[] bytes = line.array();
+		int length = line.position();
+		int digits = 0;
+		while (digits < 16 && digits < length 
+				&& hexDigit(bytes[digits]) >= 0) {
+			digits += 1;
+		}
+		if (length - digits > maxChunkExtensionLength) {
+			throw new HttpProtocolException(protocolVersion,
+			        HttpStatus.BAD_REQUEST.statusCode(),
+			        "Maximum chunk extension length exceeded.");
+		}
+	}
+
+	private static int hexDigit(byte value) {
+		if (value >= '0' && value <= '9') {
+			return value - '0';
+		}
+		if (value >= 'a' && value <= 'f') {
+			return value - 'a' + 10;
+		}
+		if (value >= 'A' && value <= 'F') {
+			return value - 'A' + 10;
+		}
+		return -1;
+	}
+
+	private String receivedLineAsString() {
+		// RFC 7230 3.2.4
+		return new String(receivedLine.array(), 0, receivedLine.position(),
+				StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Creates a field from the given header line. Name and value 
+	 * are obtained directly from the line's bytes. Well known field
+	 * names are not copied, the constants from {@link HttpField} are
+	 * used instead. The bytes of the value are appended to the 
+	 * message's header block and converted only when the field's
+	 * value is accessed.
+	 * 
+	 * @param line the line
+	 * @return the field
+	 */
+	private HttpField<?> parseField(DynamicByteArray line)
+			throws HttpProtocolException, ParseException {
+		byte[] bytes = line.array();
+		int length = line.position();
+		headerLength += length + 2;
 		// RFC 7230 3.2
-		HttpField<?> field;
+		int nameLength;
 		try {
-			field = new HttpField<>(headerLine, Converters.STRING);
+			nameLength = HttpField.fieldNameLength(bytes, length);
 		} catch (ParseException e) {
 			throw new HttpProtocolException(protocolVersion,
 			        HttpStatus.BAD_REQUEST.statusCode(), "Invalid header");
 		}
-		if (field.name().equalsIgnoreCase(HttpField.SET_COOKIE)) {
-			field = new HttpField<CookieList>(headerLine, Converters.SET_COOKIE);
+		String name = HttpField.fieldName(bytes, 0, nameLength);
+		// RFC 7230 3.2.4
+		int start = nameLength + 1;
+		int end = length;
+		while (start < end && (bytes[start] & 0xff) <= ' ') {
+			start += 1;
 		}
+		while (end > start && (bytes[end - 1] & 0xff) <= ' ') {
+			end -= 1;
+		}
+		if (name == HttpField.SET_COOKIE) {
+			// Must be converted, multiple occurrences are merged
+			return new HttpField<CookieList>(name, 
+					Converters.SET_COOKIE.fromFieldValue(new String(bytes, 
+							start, end - start, StandardCharsets.ISO_8859_1)),
+					Converters.SET_COOKIE);
+		}
+		int offset = headerBlock.position();
+		headerBlock.append(bytes, start, end - start);
+		return HttpField.fromRawValue(name, headerBlock, offset, end - start);
+	}
+
+	private void newHeaderLine() throws HttpProtocolException, ParseException {
+		HttpField<?> field = parseField(headerLine);
 		switch (field.name()) {
 		case HttpField.CONTENT_LENGTH:
 			// RFC 7230 3.3.3 (3.)
@@ -481,15 +674,7 @@ public abstract class 	HttpDecoder<T extends HttpMessageHeader,
 	}
 
 	private void newTrailerLine() throws HttpProtocolException, ParseException {
-		headerLength += headerLine.length() + 2;
-		// RFC 7230 3.2
-		HttpField<?> field;
-		try {
-			field = new HttpField<>(headerLine, Converters.STRING);
-		} catch (ParseException e) {
-			throw new HttpProtocolException(protocolVersion,
-			        HttpStatus.BAD_REQUEST.statusCode(), "Invalid header");
-		}
+		HttpField<?> field = parseField(receivedLine);
 		// RFC 7230 4.4
 		HttpField<StringList> trailerField = messageHeader
 		        .computeIfAbsent(HttpField.TRAILER, Converters.STRING_LIST,
@@ -505,18 +690,27 @@ public abstract class 	HttpDecoder<T extends HttpMessageHeader,
 		// RFC 7230 3.2.2
 		HttpField<?> existing = header.fields().get(field.name());
 		if (existing != null) {
-			if (!(existing.converter() instanceof MultiValueConverter)
-					|| !existing.converter().equals(field.converter())) {
+			if (!(existing.converter() instanceof MultiValueConverter)) {
 				throw new HttpProtocolException(protocolVersion,
 				        HttpStatus.BAD_REQUEST.statusCode(),
 				        "Multiple occurences of field " + field.name());
 			}
 			@SuppressWarnings("unchecked")
-			BiConsumer<Iterable<Object>, Object> adder 
-				= ((MultiValueConverter<Iterable<Object>, Object>)
-						existing.converter()).valueAdder();
-			@SuppressWarnings("unchecked")
-			Iterable<Object> source = (Iterable<Object>)field.value();
+			MultiValueConverter<Iterable<Object>, Object> converter
+				= (MultiValueConverter<Iterable<Object>, Object>)
+					existing.converter();
+			BiConsumer<Iterable<Object>, Object> adder = converter.valueAdder();
+			// Received fields are usually unconverted, the existing
+			// field may have been added implicitly (e.g. "Connection"
+			// when "Upgrade" has been set).
+			Iterable<Object> source;
+			if (converter.equals(field.converter())) {
+				@SuppressWarnings("unchecked")
+				Iterable<Object> value = (Iterable<Object>)field.value();
+				source = value;
+			} else {
+				source = converter.fromFieldValue(field.asFieldValue());
+			}
 			@SuppressWarnings("unchecked")
 			Iterable<Object> target = (Iterable<Object>)existing.value();
 			source.forEach(item -> adder.accept(target, item));
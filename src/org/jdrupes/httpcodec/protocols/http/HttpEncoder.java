@@ -28,9 +28,9 @@ import java.nio.CharBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.CharsetEncoder;
 import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
 import java.util.Iterator;
 import java.util.Optional;
-import java.util.Stack;
 
 import org.jdrupes.httpcodec.Codec;
 import org.jdrupes.httpcodec.Decoder;
@@ -43,6 +43,7 @@ import org.jdrupes.httpcodec.types.MediaType;
 import org.jdrupes.httpcodec.types.StringList;
 import org.jdrupes.httpcodec.util.ByteBufferOutputStream;
 import org.jdrupes.httpcodec.util.ByteBufferUtils;
+import org.jdrupes.httpcodec.util.EnumStack;
 
 /**
  * Implements an encoder for HTTP. The class can be used as base class for both
@@ -64,11 +65,16 @@ public abstract class HttpEncoder<T extends HttpMessageHeader,
 		STREAM_BODY, FLUSH_ENCODER
 	}
 
-	private Stack<State> states = new Stack<>();
+	private static final byte[] CRLF 
+		= "\r\n".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] LAST_CHUNK
+		= "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+	
+	private EnumStack<State> states = new EnumStack<>(State.class);
 	private boolean closeAfterBody = false;
 	private ByteBufferOutputStream outStream;
-	private Writer writer;
 	private Iterator<HttpField<?>> headerIter = null;
+	private HttpFieldBlock fieldBlock = null;
 	private int pendingLimit = 1024 * 1024;
 	private long leftToStream;
 	private ByteBufferOutputStream collectedBodyData;
@@ -82,11 +88,6 @@ public abstract class HttpEncoder<T extends HttpMessageHeader,
 	 */
 	public HttpEncoder() {
 		outStream = new ByteBufferOutputStream();
-		try {
-			writer = new OutputStreamWriter(outStream, "ascii");
-		} catch (UnsupportedEncodingException e) {
-			// Cannot happen (specified to be supported)
-		}
 		states.push(State.INITIAL);
 	}
 
@@ -151,13 +152,15 @@ public abstract class HttpEncoder<T extends HttpMessageHeader,
 	 * @param messageHeader
 	 *            the message header to encode (see
 	 *            {@link #encode(HttpMessageHeader)}
-	 * @param writer
-	 *            the Writer to use for writing
+	 * @param out
+	 *            the stream to write to, use
+	 *            {@link ByteBufferOutputStream#writeAscii(CharSequence)}
+	 *            for writing text
 	 * @throws IOException
 	 *             if an I/O error occurs
 	 */
-	protected abstract void startMessage(T messageHeader, Writer writer) 
-			throws IOException;
+	protected abstract void startMessage(T messageHeader, 
+			ByteBufferOutputStream out) throws IOException;
 
 	/**
 	 * Set a new HTTP message that is to be encoded.
@@ -292,7 +295,7 @@ public abstract class HttpEncoder<T extends HttpMessageHeader,
 	
 			case FINISH_CHUNK:
 				try {
-					outStream.write("\r\n".getBytes("ascii"));
+					outStream.write(CRLF);
 					states.pop();
 				} catch (IOException e) {
 					// Formally thrown by write
@@ -301,7 +304,7 @@ public abstract class HttpEncoder<T extends HttpMessageHeader,
 				
 			case FINISH_CHUNKED:
 				try {
-					outStream.write("0\r\n\r\n".getBytes("ascii"));
+					outStream.write(LAST_CHUNK);
 					states.pop();
 				} catch (IOException e) {
 					// Formally thrown by write
@@ -370,9 +373,9 @@ public abstract class HttpEncoder<T extends HttpMessageHeader,
 
 		// Write request or status line
 		try {
-			startMessage(messageHeader, writer);
+			startMessage(messageHeader, outStream);
 		} catch (IOException e) {
-			// Formally thrown by writer, cannot happen.
+			// Formally thrown by stream, cannot happen.
 		}
 		states.pop();
 		// We'll eventually fall back to this state
@@ -437,6 +440,11 @@ public abstract class HttpEncoder<T extends HttpMessageHeader,
 	 * this is invoked only once. Therefore no attempt has been made to avoid
 	 * the usage of temporary buffers in the header header stream (there may be
 	 * a maximum overflow of one partial header).
+	 * <P>
+	 * The fields are written as bytes directly to the stream (see
+	 * {@link HttpField#writeHeaderField(ByteBufferOutputStream)}).
+	 * If the message has an intact {@link HttpFieldBlock}, the block
+	 * is copied first and its fields are skipped when iterating.
 	 * 
 	 * @return {@code true} if all headers could be written to the out
 	 * buffer (nothing pending)
@@ -445,24 +453,31 @@ public abstract class HttpEncoder<T extends HttpMessageHeader,
 		try {
 			if (headerIter == null) {
 				headerIter = messageHeader.fields().values().iterator();
+				fieldBlock = messageHeader.fieldBlock()
+						.filter(block -> block.isIntactIn(messageHeader))
+						.orElse(null);
+				if (fieldBlock != null) {
+					fieldBlock.writeTo(outStream);
+				}
 			}
 			while (true) {
 				if (!headerIter.hasNext()) {
-					writer.write("\r\n");
-					writer.flush();
+					outStream.write(CRLF);
 					states.pop();
 					return outStream.remaining() >= 0;
 				}
-				HttpField<?> header = headerIter.next();
-				writer.write(header.asHeaderField());
-				writer.write("\r\n");
-				writer.flush();
+				HttpField<?> field = headerIter.next();
+				if (fieldBlock != null && fieldBlock.contains(field)) {
+					// Already written as part of the block
+					continue;
+				}
+				field.writeHeaderField(outStream);
 				if (outStream.remaining() <= 0) {
 					break;
 				}
 			}
 		} catch (IOException e) {
-			// Formally thrown by writer, cannot happen.
+			// Formally thrown by stream, cannot happen.
 		}
 		return false;
 	}
@@ -576,10 +591,9 @@ public abstract class HttpEncoder<T extends HttpMessageHeader,
 				} else {
 					chunkData = (ByteBuffer)in;
 				}
-				outStream.write(
-				        Long.toHexString(chunkData.remaining())
-				                .getBytes("ascii"));
-				outStream.write("\r\n".getBytes("ascii"));
+				outStream.writeAscii(
+				        Long.toHexString(chunkData.remaining()));
+				outStream.write(CRLF);
 				states.push(State.FINISH_CHUNK);
 				states.push(State.STREAM_CHUNK);
 				return resultFactory().newResult(
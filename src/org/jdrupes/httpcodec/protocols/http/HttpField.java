@@ -18,10 +18,14 @@
 
 package org.jdrupes.httpcodec.protocols.http;
 
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.Map;
 import java.util.TreeMap;
-import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.StreamSupport;
@@ -31,6 +35,8 @@ import static org.jdrupes.httpcodec.protocols.http.HttpConstants.*;
 import org.jdrupes.httpcodec.types.Converter;
 import org.jdrupes.httpcodec.types.Converters;
 import org.jdrupes.httpcodec.types.MultiValueConverter;
+import org.jdrupes.httpcodec.util.ByteBufferOutputStream;
+import org.jdrupes.httpcodec.util.DynamicByteArray;
 
 /**
  * A base class for all kinds of header field values.
@@ -175,9 +181,80 @@ public class HttpField<T> {
 		fieldNameMap.put(WWW_AUTHENTICATE, WWW_AUTHENTICATE);
 	}
 	
+	// Well known field names, indexed by length, for lookups from bytes
+	private static String[][] fieldNamesByLength;
+	
+	static {
+		int maxLength = 0;
+		for (String fieldName: fieldNameMap.keySet()) {
+			maxLength = Math.max(maxLength, fieldName.length());
+		}
+		fieldNamesByLength = new String[maxLength + 1][];
+		for (String fieldName: fieldNameMap.keySet()) {
+			String[] sameLength = fieldNamesByLength[fieldName.length()];
+			if (sameLength == null) {
+				sameLength = new String[] { fieldName };
+			} else {
+				sameLength = Arrays.copyOf(sameLength, sameLength.length + 1);
+				sameLength[sameLength.length - 1] = fieldName;
+			}
+			fieldNamesByLength[fieldName.length()] = sameLength;
+		}
+	}
+	
+	// Pre-encoded well known field names, for writing headers
+	private static Map<String, byte[]> fieldNameBytes 
+		= new IdentityHashMap<>();
+	private static final byte[] FIELD_SEPARATOR 
+		= ": ".getBytes(StandardCharsets.US_ASCII);
+	private static final byte[] LINE_END 
+		= "\r\n".getBytes(StandardCharsets.US_ASCII);
+	
+	static {
+		for (String fieldName: fieldNameMap.values()) {
+			fieldNameBytes.put(fieldName, 
+					fieldName.getBytes(StandardCharsets.US_ASCII));
+		}
+	}
+	
+	private static boolean[] tokenChars = new boolean[128];
+	
+	static {
+		for (char c: TOKEN_CHARS.toCharArray()) {
+			tokenChars[c] = true;
+		}
+	}
+	
 	private final String name;
 	private T value;
 	private Converter<T> converter;
+	// Not yet converted value, see fromRawValue
+	private DynamicByteArray rawBlock;
+	private int rawOffset;
+	private int rawLength;
+	// Serialized header line, see currentDate
+	private byte[] serialized;
+	
+	/**
+	 * The current date with its serialized representation, shared 
+	 * by all "Date" fields created during the same second.
+	 */
+	private static class CurrentDate {
+		public final long second;
+		public final Instant instant;
+		public final byte[] headerLine;
+		
+		public CurrentDate(long second) {
+			this.second = second;
+			instant = Instant.ofEpochSecond(second);
+			headerLine = (DATE + ": " 
+					+ Converters.DATE_TIME.asFieldValue(instant) + "\r\n")
+					.getBytes(StandardCharsets.US_ASCII);
+		}
+	}
+	
+	private static volatile CurrentDate currentDate = new CurrentDate(
+			System.currentTimeMillis() / 1000);
 	
 	/**
 	 * Creates a new representation of a header field with the 
@@ -206,13 +283,149 @@ public class HttpField<T> {
 	public HttpField(String headerLine, Converter<T> converter) 
 			throws ParseException {
 		this.converter = converter;
-		Matcher hlp = headerLinePatter.matcher(headerLine);
-		if (!hlp.matches()) {
+		int colon = headerLine.indexOf(':');
+		if (colon <= 0) {
 			throw new ParseException("Invalid header: ", 0);
 		}
-		this.name = fieldNameMap.getOrDefault(hlp.group(1), hlp.group(1));
+		for (int i = 0; i < colon; i++) {
+			char ch = headerLine.charAt(i);
+			if (ch >= tokenChars.length || !tokenChars[ch]) {
+				throw new ParseException("Invalid header: ", i);
+			}
+		}
+		String fieldName = headerLine.substring(0, colon);
+		this.name = fieldNameMap.getOrDefault(fieldName, fieldName);
 		// RFC 7230 3.2.4
-		this.value = converter.fromFieldValue(hlp.group(2).trim());
+		int start = colon + 1;
+		int end = headerLine.length();
+		while (start < end && headerLine.charAt(start) <= ' ') {
+			start += 1;
+		}
+		while (end > start && headerLine.charAt(end - 1) <= ' ') {
+			end -= 1;
+		}
+		this.value = converter.fromFieldValue(headerLine.substring(start, end));
+	}
+
+	private HttpField(String name, Converter<T> converter, 
+			DynamicByteArray rawBlock, int rawOffset, int rawLength) {
+		this.name = name;
+		this.converter = converter;
+		this.rawBlock = rawBlock;
+		this.rawOffset = rawOffset;
+		this.rawLength = rawLength;
+	}
+	
+	/**
+	 * Creates a new string field with a value that is kept as bytes
+	 * (ISO-8859-1 encoded, already trimmed) until it is accessed for the 
+	 * first time. The bytes are expected to remain unchanged in the 
+	 * given block. This allows a decoder to keep the values of all fields 
+	 * of a message in a single block and to avoid converting the 
+	 * values of fields that are never used.
+	 * 
+	 * Because the conversion is deferred, a value that cannot be
+	 * unquoted by {@link Converters#STRING} is not reported as an 
+	 * error. Rather, the trimmed text is used as value.
+	 * 
+	 * @param name the (normalized) field name
+	 * @param block the block with the value's bytes
+	 * @param offset the offset of the value in the block
+	 * @param length the length of the value
+	 * @return the field
+	 */
+	static HttpField<String> fromRawValue(String name, 
+			DynamicByteArray block, int offset, int length) {
+		return new HttpField<>(
+				name, Converters.STRING, block, offset, length);
+	}
+	
+	/**
+	 * Creates a new "Date" field with the current time. The value has
+	 * a resolution of one second, as has its representation in a
+	 * header. The representation is formatted only once per second
+	 * and shared by all fields created during that second (by all 
+	 * encoders and threads), so setting the "Date" field of every 
+	 * response is cheap.
+	 * 
+	 * @return the field
+	 */
+	public static HttpField<Instant> currentDate() {
+		long now = System.currentTimeMillis() / 1000;
+		CurrentDate current = currentDate;
+		if (current.second != now) {
+			// Racing threads compute the same result
+			current = new CurrentDate(now);
+			currentDate = current;
+		}
+		HttpField<Instant> field = new HttpField<>(
+				DATE, current.instant, Converters.DATE_TIME);
+		field.serialized = current.headerLine;
+		return field;
+	}
+	
+	/**
+	 * Returns the length of the field name at the start of the given
+	 * header line, i.e. the position of the colon that terminates it.
+	 * The header line is expected to be ISO-8859-1 encoded.
+	 * 
+	 * @param line the header line
+	 * @param length the length of the header line
+	 * @return the length of the name
+	 * @throws ParseException if the line does not start with a
+	 * field name followed by a colon
+	 */
+	static int fieldNameLength(byte[] line, int length) 
+			throws ParseException {
+		for (int i = 0; i < length; i++) {
+			byte ch = line[i];
+			if (ch == ':') {
+				if (i == 0) {
+					break;
+				}
+				return i;
+			}
+			// Negative (i.e. > 127) is not a token char
+			if (ch < 0 || !tokenChars[ch]) {
+				break;
+			}
+		}
+		throw new ParseException("Invalid header: ", 0);
+	}
+	
+	/**
+	 * Returns the field name from the given ISO-8859-1 encoded bytes.
+	 * If the name is the name of a field with a constant definition in 
+	 * this class, the constant is returned, i.e. no new string is
+	 * created.
+	 * 
+	 * @param data the bytes
+	 * @param offset the offset of the name
+	 * @param length the length of the name
+	 * @return the field name
+	 */
+	static String fieldName(byte[] data, int offset, int length) {
+		if (length < fieldNamesByLength.length 
+				&& fieldNamesByLength[length] != null) {
+			candidates:
+			for (String candidate: fieldNamesByLength[length]) {
+				for (int i = 0; i < length; i++) {
+					int ch = data[offset + i];
+					if (ch >= 'a' && ch <= 'z') {
+						ch -= 'a' - 'A';
+					}
+					int cch = candidate.charAt(i);
+					if (cch >= 'a' && cch <= 'z') {
+						cch -= 'a' - 'A';
+					}
+					if (ch != cch) {
+						continue candidates;
+					}
+				}
+				return candidate;
+			}
+		}
+		return new String(data, offset, length, StandardCharsets.ISO_8859_1);
 	}
 
 	/**
@@ -315,6 +528,20 @@ public class HttpField<T> {
 	 * @return the field's value
 	 */
 	public T value() {
+		if (rawBlock != null) {
+			String text = new String(rawBlock.array(), rawOffset, rawLength,
+					StandardCharsets.ISO_8859_1);
+			rawBlock = null;
+			try {
+				@SuppressWarnings("unchecked")
+				T converted = (T)Converters.STRING.fromFieldValue(text);
+				value = converted;
+			} catch (ParseException e) {
+				@SuppressWarnings("unchecked")
+				T unconverted = (T)text;
+				value = unconverted;
+			}
+		}
 		return value;
 	}
 	
@@ -335,6 +562,8 @@ public class HttpField<T> {
 	 */
 	public HttpField<T> setValue(T value) {
 		this.value = value;
+		rawBlock = null;
+		serialized = null;
 		return this;
 	}
 	
@@ -344,7 +573,7 @@ public class HttpField<T> {
 	 * @return the field value as string
 	 */
 	public String asFieldValue() {
-		return converter.asFieldValue(value);
+		return converter.asFieldValue(value());
 	}
 	
 	/**
@@ -371,6 +600,51 @@ public class HttpField<T> {
 				.collect(Collectors.joining("\r\n"));
 	}
 	
+	/**
+	 * Writes this header field as it appears in an HTTP message
+	 * (including the terminating CR/LF) to the given stream. The result
+	 * is the same as writing {@link #asHeaderField()} followed by CR/LF,
+	 * but no intermediate strings are created for the field's name
+	 * and the separators.
+	 * 
+	 * @param out the stream
+	 * @throws IOException if an I/O error occurs
+	 */
+	void writeHeaderField(ByteBufferOutputStream out) throws IOException {
+		if (serialized != null) {
+			out.write(serialized);
+			return;
+		}
+		if (!(converter instanceof MultiValueConverter)
+				|| !((MultiValueConverter<?,?>)converter).separateValues()) {
+			writeFieldLine(out, asFieldValue());
+			return;
+		}
+		// Convert list of items to seperate fields
+		@SuppressWarnings("unchecked")
+		MultiValueConverter<Iterable<Object>, Object> seqConverter
+			= (MultiValueConverter<Iterable<Object>, Object>)converter;
+		Converter<Object> itemConverter	= seqConverter.valueConverter();
+		@SuppressWarnings("unchecked")
+		Iterable<Object> source = (Iterable<Object>)value();
+		for (Object item: source) {
+			writeFieldLine(out, itemConverter.asFieldValue(item));
+		}
+	}
+	
+	private void writeFieldLine(ByteBufferOutputStream out, String value)
+			throws IOException {
+		byte[] nameBytes = fieldNameBytes.get(name);
+		if (nameBytes != null) {
+			out.write(nameBytes);
+		} else {
+			out.writeAscii(name);
+		}
+		out.write(FIELD_SEPARATOR);
+		out.writeAscii(value);
+		out.write(LINE_END);
+	}
+	
 	/* (non-Javadoc)
 	 * @see java.lang.Object#toString()
 	 */
@@ -0,0 +1,144 @@
+/*
+ * This file is part of the JDrupes non-blocking HTTP Codec
+ * Copyright (C) 2018  Michael N. Lipp
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jdrupes.httpcodec.protocols.http;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.jdrupes.httpcodec.util.ByteBufferOutputStream;
+
+/**
+ * An immutable block of header fields that is serialized only once.
+ * <P>
+ * Many messages share a set of identical header fields (e.g. "Server",
+ * "Cache-Control" or security related fields). A block is created from
+ * a template header and can then be added to any number of messages
+ * with {@link HttpMessageHeader#setFieldBlock(HttpFieldBlock)}.
+ * The fields become part of the message header like any other field,
+ * but when the message is encoded, the {@link HttpEncoder} copies the
+ * block's pre-serialized bytes instead of converting the fields' values
+ * again. Fields that are set for an individual message are appended.
+ * <P>
+ * If a field from the block is replaced or removed in a message, the
+ * encoder falls back to serializing all fields individually. The values
+ * of the fields must not be modified after the block has been created.
+ * Fields that control the framing of the message or the connection
+ * ("Content-Length", "Transfer-Encoding", "Connection", "Upgrade")
+ * are adjusted by the codecs and may therefore not be part of a block.
+ */
+public class HttpFieldBlock {
+
+	private static final List<String> EXCLUDED = Arrays.asList(
+			HttpField.CONTENT_LENGTH, HttpField.TRANSFER_ENCODING,
+			HttpField.CONNECTION, HttpField.UPGRADE);
+
+	private final HttpField<?>[] fields;
+	private final byte[] bytes;
+
+	/**
+	 * Creates a new block with the fields from the given template.
+	 *
+	 * @param template the template
+	 * @throws IllegalArgumentException if the template contains
+	 * fields that may not be part of a block
+	 */
+	public HttpFieldBlock(HttpMessageHeader template) {
+		fields = template.fields().values().toArray(new HttpField<?>[0]);
+		ByteBufferOutputStream out = new ByteBufferOutputStream();
+		try {
+			for (HttpField<?> field: fields) {
+				for (String excluded: EXCLUDED) {
+					if (excluded.equalsIgnoreCase(field.name())) {
+						throw new IllegalArgumentException("Field "
+								+ field.name() + " may not be part of a block.");
+					}
+				}
+				field.writeHeaderField(out);
+			}
+		} catch (IOException e) {
+			// Formally thrown by stream, cannot happen.
+		}
+		ByteBuffer serialized = ByteBuffer.allocate((int)out.bytesWritten());
+		out.assignBuffer(serialized);
+		bytes = serialized.array();
+	}
+
+	/**
+	 * Returns the fields of this block.
+	 *
+	 * @return the fields
+	 */
+	public List<HttpField<?>> fields() {
+		return Collections.unmodifiableList(Arrays.asList(fields));
+	}
+
+	/**
+	 * Returns the length of the serialized block.
+	 *
+	 * @return the length
+	 */
+	public int length() {
+		return bytes.length;
+	}
+
+	/**
+	 * Checks if the header still contains all fields from the block
+	 * unchanged.
+	 *
+	 * @param header the header
+	 * @return the result
+	 */
+	boolean isIntactIn(HttpMessageHeader header) {
+		for (HttpField<?> field: fields) {
+			if (header.fields().get(field.name()) != field) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks if the given field is one of the fields of this block.
+	 *
+	 * @param field the field
+	 * @return the result
+	 */
+	boolean contains(HttpField<?> field) {
+		for (HttpField<?> blockField: fields) {
+			if (blockField == field) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Writes the serialized block (including the CR/LF of the last field)
+	 * to the given stream.
+	 *
+	 * @param out the stream
+	 * @throws IOException if an I/O error occurs
+	 */
+	void writeTo(ByteBufferOutputStream out) throws IOException {
+		out.write(bytes);
+	}
+}
@@ -0,0 +1,306 @@
+/*
+ * This file is part of the JDrupes non-blocking HTTP Codec
+ * Copyright (C) 2018  Michael N. Lipp
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jdrupes.httpcodec.protocols.http;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A map from field names to fields that is specialized for the
+ * usage in {@link HttpMessageHeader}.
+ *
+ * Keys are compared ignoring the case of ASCII letters (field names are
+ * tokens and therefore restricted to ASCII characters). The map uses
+ * open addressing with linear probing. The (case-insensitive) hash of
+ * each key is stored with the entry, so entries never have to be
+ * rehashed. When looking up one of the constants defined in
+ * {@link HttpField}, the key is usually found by an identity comparison
+ * because the decoders use the constants as names for the well known
+ * fields.
+ *
+ * Entries are iterated in insertion order.
+ */
+class HttpFieldMap extends AbstractMap<String, HttpField<?>> {
+
+	private static final int FREE = 0;
+	private static final int DELETED = -1;
+
+	// Hash table, holds entry index + 1 or FREE or DELETED
+	private int[] slots;
+	// Entries in insertion order, removed entries have a null key
+	private String[] keys;
+	private HttpField<?>[] values;
+	private int[] hashes;
+	private int used;
+	private int size;
+	private int deleted;
+	private int modCount;
+	private Set<Entry<String, HttpField<?>>> entrySet;
+
+	/**
+	 * Creates a new map.
+	 */
+	public HttpFieldMap() {
+		slots = new int[32];
+		keys = new String[16];
+		values = new HttpField<?>[16];
+		hashes = new int[16];
+	}
+
+	private static int hash(String key) {
+		int hash = 0;
+		for (int i = 0; i < key.length(); i++) {
+			char ch = key.charAt(i);
+			if (ch >= 'A' && ch <= 'Z') {
+				ch += 'a' - 'A';
+			}
+			hash = 31 * hash + ch;
+		}
+		return hash ^ (hash >>> 16);
+	}
+
+	private static boolean sameKey(String key1, String key2) {
+		if (key1 == key2) {
+			return true;
+		}
+		if (key1.length() != key2.length()) {
+			return false;
+		}
+		for (int i = 0; i < key1.length(); i++) {
+			char ch1 = key1.charAt(i);
+			char ch2 = key2.charAt(i);
+			if (ch1 == ch2) {
+				continue;
+			}
+			if (ch1 >= 'A' && ch1 <= 'Z') {
+				ch1 += 'a' - 'A';
+			}
+			if (ch2 >= 'A' && ch2 <= 'Z') {
+				ch2 += 'a' - 'A';
+			}
+			if (ch1 != ch2) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the slot that holds the given key or -1.
+	 */
+	private int findSlot(String key, int hash) {
+		int mask = slots.length - 1;
+		for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+			int entry = slots[slot];
+			if (entry == FREE) {
+				return -1;
+			}
+			if (entry != DELETED && hashes[entry - 1] == hash
+					&& sameKey(keys[entry - 1], key)) {
+				return slot;
+			}
+		}
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		if (!(key instanceof String)) {
+			return false;
+		}
+		String name = (String)key;
+		return findSlot(name, hash(name)) >= 0;
+	}
+
+	@Override
+	public HttpField<?> get(Object key) {
+		if (!(key instanceof String)) {
+			return null;
+		}
+		String name = (String)key;
+		int slot = findSlot(name, hash(name));
+		if (slot < 0) {
+			return null;
+		}
+		return values[slots[slot] - 1];
+	}
+
+	/**
+	 * Associates the key with the value. If the map already contains
+	 * a key that differs only in case, the existing key is kept (as
+	 * with a {@link java.util.TreeMap} that uses
+	 * {@link String#CASE_INSENSITIVE_ORDER}) and the entry keeps its
+	 * position in the iteration order.
+	 */
+	@Override
+	public HttpField<?> put(String key, HttpField<?> value) {
+		int hash = hash(key);
+		int slot = findSlot(key, hash);
+		if (slot >= 0) {
+			int index = slots[slot] - 1;
+			HttpField<?> old = values[index];
+			values[index] = value;
+			return old;
+		}
+		if (used == keys.length) {
+			if (deleted > used / 2) {
+				compact();
+			} else {
+				int newLength = keys.length * 2;
+				keys = Arrays.copyOf(keys, newLength);
+				values = Arrays.copyOf(values, newLength);
+				hashes = Arrays.copyOf(hashes, newLength);
+				rebuildSlots(newLength * 2);
+			}
+		}
+		keys[used] = key;
+		values[used] = value;
+		hashes[used] = hash;
+		used += 1;
+		insertSlot(hash, used);
+		size += 1;
+		modCount += 1;
+		return null;
+	}
+
+	private void insertSlot(int hash, int entry) {
+		int mask = slots.length - 1;
+		int slot = hash & mask;
+		while (slots[slot] != FREE && slots[slot] != DELETED) {
+			slot = (slot + 1) & mask;
+		}
+		slots[slot] = entry;
+	}
+
+	private void rebuildSlots(int length) {
+		slots = new int[length];
+		for (int i = 0; i < used; i++) {
+			if (keys[i] != null) {
+				insertSlot(hashes[i], i + 1);
+			}
+		}
+	}
+
+	private void compact() {
+		int target = 0;
+		for (int i = 0; i < used; i++) {
+			if (keys[i] == null) {
+				continue;
+			}
+			keys[target] = keys[i];
+			values[target] = values[i];
+			hashes[target] = hashes[i];
+			target += 1;
+		}
+		Arrays.fill(keys, target, used, null);
+		Arrays.fill(values, target, used, null);
+		used = target;
+		deleted = 0;
+		rebuildSlots(slots.length);
+	}
+
+	@Override
+	public HttpField<?> remove(Object key) {
+		if (!(key instanceof String)) {
+			return null;
+		}
+		String name = (String)key;
+		int slot = findSlot(name, hash(name));
+		if (slot < 0) {
+			return null;
+		}
+		int index = slots[slot] - 1;
+		HttpField<?> old = values[index];
+		slots[slot] = DELETED;
+		keys[index] = null;
+		values[index] = null;
+		size -= 1;
+		deleted += 1;
+		modCount += 1;
+		return old;
+	}
+
+	@Override
+	public void clear() {
+		Arrays.fill(slots, FREE);
+		Arrays.fill(keys, 0, used, null);
+		Arrays.fill(values, 0, used, null);
+		used = 0;
+		size = 0;
+		deleted = 0;
+		modCount += 1;
+	}
+
+	@Override
+	public Set<Entry<String, HttpField<?>>> entrySet() {
+		if (entrySet == null) {
+			entrySet = new AbstractSet<Entry<String, HttpField<?>>>() {
+
+				@Override
+				public Iterator<Entry<String, HttpField<?>>> iterator() {
+					return new EntryIterator();
+				}
+
+				@Override
+				public int size() {
+					return size;
+				}
+			};
+		}
+		return entrySet;
+	}
+
+	private class EntryIterator
+		implements Iterator<Entry<String, HttpField<?>>> {
+
+		private int next = 0;
+		private final int expectedModCount = modCount;
+
+		@Override
+		public boolean hasNext() {
+			if (modCount != expectedModCount) {
+				throw new ConcurrentModificationException();
+			}
+			while (next < used && keys[next] == null) {
+				next += 1;
+			}
+			return next < used;
+		}
+
+		@Override
+		public Entry<String, HttpField<?>> next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Entry<String, HttpField<?>> entry = new SimpleImmutableEntry<>(
+					keys[next], values[next]);
+			next += 1;
+			return entry;
+		}
+	}
+}
@@ -22,7 +22,6 @@ import java.text.ParseException;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Optional;
-import java.util.TreeMap;
 import java.util.function.Supplier;
 
 import org.jdrupes.httpcodec.MessageHeader;
@@ -44,6 +43,7 @@ import org.jdrupes.httpcodec.types.StringList;
  * 	+Map<String,HttpField<?>> fields()
  * 	+HttpMessageHeader setField(HttpField<?> value)
  * 	+HttpMessageHeader setField(String name, T value)
+ * 	+HttpMessageHeader setFieldBlock(HttpFieldBlock block)
  * 	+HttpMessageHeader clearHeaders()
  * 	+HttpMessageHeader removeField(String name)
  * 	+Optional<HttpField<T>> findField(String name, Converter<T> converter)
@@ -70,8 +70,10 @@ import org.jdrupes.httpcodec.types.StringList;
 public abstract class HttpMessageHeader implements MessageHeader {
 
 	private HttpProtocol httpProtocol;
-	private Map<String,HttpField<?>> headers 
-		= new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+	private Map<String,HttpField<?>> headers = new HttpFieldMap();
+	private Map<String,HttpField<?>> headersView 
+		= Collections.unmodifiableMap(headers);
+	private HttpFieldBlock fieldBlock;
 	private boolean hasPayload;
 
 	/**
@@ -95,12 +97,14 @@ public abstract class HttpMessageHeader implements MessageHeader {
 	}
 
 	/**
-	 * Returns all header fields as unmodifiable map.
+	 * Returns all header fields as unmodifiable map. Keys are
+	 * matched ignoring the case of letters, and fields are iterated
+	 * in the order in which they have been added.
 	 * 
 	 * @return the headers
 	 */
 	public Map<String, HttpField<?>> fields() {
-		return Collections.unmodifiableMap(headers);
+		return headersView;
 	}
 	
 	/**
@@ -136,6 +140,33 @@ public abstract class HttpMessageHeader implements MessageHeader {
 		return this;
 	}
 	
+	/**
+	 * Adds the fields from the given block to the message. Existing
+	 * fields with the same names are replaced. As long as the fields from
+	 * the block are neither replaced nor removed afterwards, the
+	 * encoder writes them by copying the block's pre-serialized bytes.
+	 * 
+	 * @param block the block
+	 * @return the message header for easy chaining
+	 */
+	public HttpMessageHeader setFieldBlock(HttpFieldBlock block) {
+		for (HttpField<?> field: block.fields()) {
+			headers.put(field.name(), field);
+		}
+		fieldBlock = block;
+		return this;
+	}
+
+	/**
+	 * Returns the block of fields set with 
+	 * {@link #setFieldBlock(HttpFieldBlock)}.
+	 * 
+	 * @return the block
+	 */
+	public Optional<HttpFieldBlock> fieldBlock() {
+		return Optional.ofNullable(fieldBlock);
+	}
+	
 	/**
 	 * Clear all headers.
 	 * 
@@ -143,6 +174,7 @@ public abstract class HttpMessageHeader implements MessageHeader {
 	 */
 	public HttpMessageHeader clearHeaders() {
 		headers.clear();
+		fieldBlock = null;
 		return this;
 	}
 	
@@ -165,7 +197,9 @@ public abstract class HttpMessageHeader implements MessageHeader {
 	 * made to retrieve such a string field with this method,
 	 * it is automatically converted to the type indicated by the converter.
 	 * The conversion is permanent, i.e. the field instance is replaced
-	 * by a properly typed instance.
+	 * by a properly typed instance. (The decoders keep the received
+	 * bytes of such fields and create the provisional `String` value
+	 * only when the field is accessed for the first time.)
 	 * 
 	 * If the conversion fails, the field is considered ill-formatted 
 	 * and handled as if it didn't exist.
@@ -188,16 +222,8 @@ public abstract class HttpMessageHeader implements MessageHeader {
 		}
 		Object value = field.value();
 		Class<?> valueType = value.getClass();
-		Class<?> expectedType = null;
-		try {
-			expectedType = converter.getClass().getMethod(
-				"fromFieldValue", String.class).getReturnType();
-		} catch (NoSuchMethodException e) {
-			// Known to exists, but make find bugs happy
-			throw new IllegalStateException();
-		}
 		// Match already?
-		if (expectedType.isAssignableFrom(valueType)) {
+		if (converter.valueType().isAssignableFrom(valueType)) {
 			@SuppressWarnings("unchecked")
 			HttpField<T> result = (HttpField<T>)field;
 			return Optional.of(result);
@@ -19,14 +19,12 @@
 package org.jdrupes.httpcodec.protocols.http.client;
 
 import java.io.IOException;
-import java.io.Writer;
 import java.net.URI;
 import java.nio.Buffer;
 import java.util.Optional;
-import java.util.ServiceLoader;
-import java.util.stream.StreamSupport;
 
 import org.jdrupes.httpcodec.plugin.UpgradeProvider;
+import org.jdrupes.httpcodec.plugin.UpgradeProviderRegistry;
 import org.jdrupes.httpcodec.protocols.http.HttpConstants.HttpProtocol;
 import org.jdrupes.httpcodec.protocols.http.HttpEncoder;
 import org.jdrupes.httpcodec.protocols.http.HttpField;
@@ -34,6 +32,7 @@ import org.jdrupes.httpcodec.protocols.http.HttpRequest;
 import org.jdrupes.httpcodec.protocols.http.HttpResponse;
 import org.jdrupes.httpcodec.types.Converters;
 import org.jdrupes.httpcodec.types.StringList;
+import org.jdrupes.httpcodec.util.ByteBufferOutputStream;
 
 /**
  * An encoder for HTTP requests that accepts a header and optional
@@ -101,12 +100,8 @@ public class HttpRequestEncoder
 					"Upgrade header field must have a value.");
 		}
 		String protocol = field.value().get(0);
-		// Load every time to support dynamic deployment of additional
-		// services in an OSGi environment.
-		Optional<UpgradeProvider> protocolPlugin = StreamSupport.stream(
-				ServiceLoader.load(UpgradeProvider.class).spliterator(), false)
-				.filter(p -> p.supportsProtocol(protocol))
-				.findFirst();
+		Optional<UpgradeProvider> protocolPlugin 
+			= UpgradeProviderRegistry.lookup(protocol);
 		if (!protocolPlugin.isPresent()) {
 			// Not supported, maybe transparent to HTTP 
 			return;
@@ -115,17 +110,17 @@ public class HttpRequestEncoder
 	}
 	
 	/* (non-Javadoc)
-	 * @see Encoder#startMessage(MessageHeader, java.io.Writer)
+	 * @see HttpEncoder#startMessage(HttpMessageHeader, ByteBufferOutputStream)
 	 */
 	@Override
-	protected void startMessage(HttpRequest messageHeader, Writer writer)
-	        throws IOException {
-		writer.write(messageHeader.method());
-		writer.write(" ");
-		writer.write(messageHeader.requestUri().toString());
-		writer.write(" ");
-		writer.write(messageHeader.protocol().toString());
-		writer.write("\r\n");
+	protected void startMessage(HttpRequest messageHeader, 
+			ByteBufferOutputStream out) throws IOException {
+		out.writeAscii(messageHeader.method());
+		out.write(' ');
+		out.writeAscii(messageHeader.requestUri().toString());
+		out.write(' ');
+		out.writeAscii(messageHeader.protocol().toString());
+		out.writeAscii("\r\n");
 	}
 	
 	/**
@@ -22,16 +22,15 @@ import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.time.Instant;
 import java.util.Optional;
-import java.util.ServiceLoader;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.stream.StreamSupport;
 
 import org.jdrupes.httpcodec.Codec;
 import org.jdrupes.httpcodec.Decoder;
 import org.jdrupes.httpcodec.Encoder;
 import org.jdrupes.httpcodec.ProtocolException;
 import org.jdrupes.httpcodec.plugin.UpgradeProvider;
+import org.jdrupes.httpcodec.plugin.UpgradeProviderRegistry;
 
 import static org.jdrupes.httpcodec.protocols.http.HttpConstants.*;
 import org.jdrupes.httpcodec.protocols.http.HttpConstants.HttpStatus;
@@ -183,13 +182,8 @@ public class HttpResponseDecoder
 						"Upgrade header field missing in response");
 			}
 			switchingTo = protocol.get();
-			// Load every time to support dynamic deployment of additional
-			// services in an OSGi environment.
-			protocolPlugin = StreamSupport.stream(
-					ServiceLoader.load(UpgradeProvider.class)
-					.spliterator(), false)
-					.filter(p -> p.supportsProtocol(protocol.get()))
-					.findFirst().orElseThrow(() -> new ProtocolException(
+			protocolPlugin = UpgradeProviderRegistry.lookup(protocol.get())
+					.orElseThrow(() -> new ProtocolException(
 							"Upgrade to protocol " + protocol.get() 
 							+ " not supported."));
 			switchingTo = protocol.get();
@@ -241,8 +235,10 @@ public class HttpResponseDecoder
 			return resultFactory().newResult(false, false, 
 					result.closeConnection(), result.isHeaderCompleted(),
 					switchingTo, 
-					protocolPlugin.createRequestEncoder(switchingTo), 
-					protocolPlugin.createResponseDecoder(switchingTo));
+					protocolPlugin.createRequestEncoder(
+							switchingTo, header().get()), 
+					protocolPlugin.createResponseDecoder(
+							switchingTo, header().get()));
 		}
 		return super.messageComplete(result);
 	}
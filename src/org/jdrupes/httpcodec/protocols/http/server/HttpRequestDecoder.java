@@ -106,6 +106,38 @@ public class HttpRequestDecoder
 		}
 	}
 
+	/**
+	 * Decodes all requests without payload that are available in 
+	 * the in buffer. This avoids invoking {@link #decode} for
+	 * each request if requests are pipelined (RFC 7230, 6.3.2). 
+	 * <P>
+	 * The decoded requests are appended to the given list.
+	 * Decoding stops when the in buffer has been exhausted, when
+	 * a request with payload has been decoded, when an error has
+	 * been detected or when the connection is to be closed
+	 * after the last decoded request. The returned result is the 
+	 * result from decoding the last request. It indicates an overflow
+	 * if the last request has a payload. Its payload must be 
+	 * decoded by invoking {@link #decode} with an out buffer.
+	 * 
+	 * @param in the data to decode
+	 * @param requests the list to which the decoded requests are added
+	 * @return the result
+	 */
+	public Result decodeAll(ByteBuffer in, List<HttpRequest> requests) {
+		while (true) {
+			Result result = decode(in, null, false);
+			if (result.isHeaderCompleted()) {
+				requests.add(header().get());
+			}
+			if (result.response().isPresent() || result.isOverflow()
+					|| result.isUnderflow() || !in.hasRemaining() 
+					|| isClosed()) {
+				return result;
+			}
+		}
+	}
+
 	/**
 	 * Checks whether the first line of a message is a valid request.
 	 * If so, create a new request message object with basic information, else
@@ -19,19 +19,17 @@
 package org.jdrupes.httpcodec.protocols.http.server;
 
 import java.io.IOException;
-import java.io.Writer;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.time.Instant;
 import java.util.List;
 import java.util.Optional;
-import java.util.ServiceLoader;
-import java.util.stream.StreamSupport;
 
 import org.jdrupes.httpcodec.Codec;
 import org.jdrupes.httpcodec.Decoder;
 import org.jdrupes.httpcodec.Encoder;
 import org.jdrupes.httpcodec.plugin.UpgradeProvider;
+import org.jdrupes.httpcodec.plugin.UpgradeProviderRegistry;
 
 import static org.jdrupes.httpcodec.protocols.http.HttpConstants.*;
 
@@ -42,6 +40,7 @@ import org.jdrupes.httpcodec.protocols.http.HttpRequest;
 import org.jdrupes.httpcodec.protocols.http.HttpResponse;
 import org.jdrupes.httpcodec.types.Converters;
 import org.jdrupes.httpcodec.types.Directive;
+import org.jdrupes.httpcodec.util.ByteBufferOutputStream;
 
 /**
  * An encoder for HTTP responses that accepts a header and optional
@@ -57,7 +56,9 @@ import org.jdrupes.httpcodec.types.Directive;
  * 
  * The encoder automatically adds a `Date` header as specified
  * in [RFC 7231, Section 7.1.1.2](https://tools.ietf.org/html/rfc7231#section-7.1.1.2).
- * Any existing `Date` header will be overwritten. 
+ * Any existing `Date` header will be overwritten. The field is
+ * obtained from {@link HttpField#currentDate()}, i.e. its
+ * representation is formatted only once per second.
  * 
  * ### Expires ###
  * 
@@ -116,7 +117,7 @@ public class HttpResponseEncoder extends HttpEncoder<HttpResponse, HttpRequest>
 		}
 		
 		// Make sure we have an up-to-date Date, RFC 7231 7.1.1.2
-		messageHeader.setField(HttpField.DATE, Instant.now());
+		messageHeader.setField(HttpField.currentDate());
 
 		// ensure backward compatibility
 		if (messageHeader.protocol().compareTo(HttpProtocol.HTTP_1_1) < 0) {
@@ -154,8 +155,10 @@ public class HttpResponseEncoder extends HttpEncoder<HttpResponse, HttpRequest>
 			// Last invocation of encode
 			return resultFactory().newResult(false, false, 
 					result.closeConnection(), switchingTo, 
-					protocolPlugin.createRequestDecoder(switchingTo), 
-					protocolPlugin.createResponseEncoder(switchingTo));
+					protocolPlugin.createRequestDecoder(
+							switchingTo, header().get()), 
+					protocolPlugin.createResponseEncoder(
+							switchingTo, header().get()));
 		}
 		return result;
 	}
@@ -204,13 +207,8 @@ public class HttpResponseEncoder extends HttpEncoder<HttpResponse, HttpRequest>
 				.setHasPayload(false).clearHeaders();
 			return null;
 		}
-		// Load every time to support dynamic deployment of additional
-		// services in an OSGi environment.
-		protocolPlugin = StreamSupport.stream(
-				ServiceLoader.load(UpgradeProvider.class)
-				.spliterator(), false)
-				.filter(p -> p.supportsProtocol(protocol.get()))
-				.findFirst().orElse(null);
+		protocolPlugin = UpgradeProviderRegistry.lookup(protocol.get())
+				.orElse(null);
 		if (protocolPlugin == null) {
 			response.setStatus(HttpStatus.BAD_REQUEST)
 				.setHasPayload(false).clearHeaders();
@@ -226,17 +224,17 @@ public class HttpResponseEncoder extends HttpEncoder<HttpResponse, HttpRequest>
 	}
 
 	/* (non-Javadoc)
-	 * @see org.jdrupes.httpcodec.internal.Encoder#startMessage(java.io.Writer)
+	 * @see HttpEncoder#startMessage(HttpMessageHeader, ByteBufferOutputStream)
 	 */
 	@Override
-	protected void startMessage(HttpResponse response, Writer writer)
-	        throws IOException {
-		writer.write(response.protocol().toString());
-		writer.write(" ");
-		writer.write(Integer.toString(response.statusCode()));
-		writer.write(" ");
-		writer.write(response.reasonPhrase());
-		writer.write("\r\n");
+	protected void startMessage(HttpResponse response, 
+			ByteBufferOutputStream out) throws IOException {
+		out.writeAscii(response.protocol().toString());
+		out.write(' ');
+		out.writeAscii(Integer.toString(response.statusCode()));
+		out.write(' ');
+		out.writeAscii(response.reasonPhrase());
+		out.writeAscii("\r\n");
 	}
 
 	/**
@@ -0,0 +1,190 @@
+/*
+ * This file is part of the JDrupes non-blocking HTTP Codec
+ * Copyright (C) 2018  Michael N. Lipp
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jdrupes.httpcodec.protocols.http2;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.function.BiConsumer;
+
+import org.jdrupes.httpcodec.ProtocolException;
+
+/**
+ * Decodes header blocks as specified in 
+ * [RFC 7541](https://tools.ietf.org/html/rfc7541) (HPACK).
+ * <P>
+ * A decoder maintains the dynamic table of a connection. All 
+ * header blocks received on the connection must therefore be
+ * passed to the same decoder in the order in which they have 
+ * been received.
+ */
+public class HpackDecoder {
+
+	private HpackTable table;
+	private long maxTableSize;
+	private StringBuilder chars = new StringBuilder();
+
+	/**
+	 * Creates a new decoder.
+	 * 
+	 * @param maxTableSize the maximum size of the dynamic table,
+	 * i.e. the value of `SETTINGS_HEADER_TABLE_SIZE` sent to the peer
+	 */
+	public HpackDecoder(long maxTableSize) {
+		this.maxTableSize = maxTableSize;
+		table = new HpackTable(maxTableSize);
+	}
+
+	/**
+	 * Sets the maximum size of the dynamic table. Must be invoked
+	 * when the peer has acknowledged a change of 
+	 * `SETTINGS_HEADER_TABLE_SIZE`.
+	 * 
+	 * @param maxTableSize the maximum size
+	 */
+	public void setMaxTableSize(long maxTableSize) {
+		this.maxTableSize = maxTableSize;
+		if (table.maxSize() > maxTableSize) {
+			table.setMaxSize(maxTableSize);
+		}
+	}
+	
+	/**
+	 * Returns the maximum size of the dynamic table.
+	 * 
+	 * @return the size
+	 */
+	public long maxTableSize() {
+		return maxTableSize;
+	}
+	
+	/**
+	 * Decodes a complete header block, passing the fields to 
+	 * the consumer.
+	 * 
+	 * @param block the block
+	 * @param consumer the consumer for the fields
+	 * @throws ProtocolException if the block cannot be decoded
+	 * (a compression error)
+	 */
+	public void decode(ByteBuffer block, BiConsumer<String, String> consumer)
+			throws ProtocolException {
+		boolean fieldsDecoded = false;
+		try {
+			while (block.hasRemaining()) {
+				int octet = block.get(block.position()) & 0xff;
+				if ((octet & 0x80) != 0) {
+					// RFC 7541, 6.1
+					int index = decodeInt(block, 7);
+					String name = table.name(index);
+					if (name == null) {
+						throw new ProtocolException(
+								"Invalid index " + index + ".");
+					}
+					consumer.accept(name, table.value(index));
+				} else if ((octet & 0xc0) == 0x40) {
+					// RFC 7541, 6.2.1
+					String name = decodeName(block, 6);
+					String value = decodeString(block);
+					table.add(name, value);
+					consumer.accept(name, value);
+				} else if ((octet & 0xe0) == 0x20) {
+					// RFC 7541, 6.3
+					if (fieldsDecoded) {
+						throw new ProtocolException(
+								"Table size update after field.");
+					}
+					int size = decodeInt(block, 5);
+					if (size > maxTableSize) {
+						throw new ProtocolException(
+								"Table size update exceeds limit.");
+					}
+					table.setMaxSize(size);
+					continue;
+				} else {
+					// RFC 7541, 6.2.2 and 6.2.3
+					String name = decodeName(block, 4);
+					consumer.accept(name, decodeString(block));
+				}
+				fieldsDecoded = true;
+			}
+		} catch (IndexOutOfBoundsException | BufferUnderflowException e) {
+			throw new ProtocolException("Incomplete header block.");
+		}
+	}
+
+	/**
+	 * Decodes an integer with the given prefix length
+	 * (RFC 7541, 5.1).
+	 */
+	private static int decodeInt(ByteBuffer in, int prefix)
+			throws ProtocolException {
+		int mask = (1 << prefix) - 1;
+		int value = in.get() & mask;
+		if (value < mask) {
+			return value;
+		}
+		int shift = 0;
+		int octet;
+		do {
+			octet = in.get() & 0xff;
+			if (shift > 21) {
+				// Would exceed 2^28, more than enough for any purpose
+				throw new ProtocolException("Integer too large.");
+			}
+			value += (octet & 0x7f) << shift;
+			shift += 7;
+		} while ((octet & 0x80) != 0);
+		return value;
+	}
+
+	private String decodeName(ByteBuffer in, int prefix) 
+			throws ProtocolException {
+		int index = decodeInt(in, prefix);
+		if (index == 0) {
+			return decodeString(in);
+		}
+		String name = table.name(index);
+		if (name == null) {
+			throw new ProtocolException("Invalid index " + index + ".");
+		}
+		return name;
+	}
+	
+	/**
+	 * Decodes a string literal (RFC 7541, 5.2). The octets are
+	 * mapped to characters using ISO-8859-1.
+	 */
+	private String decodeString(ByteBuffer in) throws ProtocolException {
+		boolean huffman = (in.get(in.position()) & 0x80) != 0;
+		int length = decodeInt(in, 7);
+		if (length > in.remaining()) {
+			throw new ProtocolException("Incomplete header block.");
+		}
+		chars.setLength(0);
+		if (huffman) {
+			Huffman.decode(in, length, chars);
+		} else {
+			for (int i = 0; i < length; i++) {
+				chars.append((char)(in.get() & 0xff));
+			}
+		}
+		return chars.toString();
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * This file is part of the JDrupes non-blocking HTTP Codec
+ * Copyright (C) 2018  Michael N. Lipp
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jdrupes.httpcodec.protocols.http2;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Encodes header fields as specified in 
+ * [RFC 7541](https://tools.ietf.org/html/rfc7541) (HPACK).
+ * <P>
+ * Fields are added to the dynamic table unless they are marked as
+ * sensitive or are too large to be useful in the table. Strings are 
+ * Huffman encoded if this reduces their size.
+ * <P>
+ * An encoder maintains the dynamic table of a connection. All 
+ * header blocks sent on the connection must therefore be encoded
+ * by the same encoder in the order in which they are sent.
+ */
+public class HpackEncoder {
+
+	private HpackTable table;
+	private long pendingSizeUpdate = -1;
+	private long smallestSize;
+	
+	/**
+	 * Creates a new encoder.
+	 * 
+	 * @param maxTableSize the maximum size of the dynamic table
+	 */
+	public HpackEncoder(long maxTableSize) {
+		table = new HpackTable(maxTableSize);
+	}
+
+	/**
+	 * Sets the maximum size of the dynamic table. Must be invoked
+	 * when the peer has sent a new value for 
+	 * `SETTINGS_HEADER_TABLE_SIZE`. The change is signaled to the
+	 * peer at the beginning of the next header block.
+	 * 
+	 * @param maxTableSize the maximum size
+	 */
+	public void setMaxTableSize(long maxTableSize) {
+		if (maxTableSize == table.maxSize() && pendingSizeUpdate < 0) {
+			return;
+		}
+		if (pendingSizeUpdate < 0 || maxTableSize < smallestSize) {
+			smallestSize = maxTableSize;
+		}
+		table.setMaxSize(maxTableSize);
+		pendingSizeUpdate = maxTableSize;
+	}
+
+	/**
+	 * Returns the maximum size of the dynamic table.
+	 * 
+	 * @return the size
+	 */
+	public long maxTableSize() {
+		return table.maxSize();
+	}
+	
+	/**
+	 * Encodes a header field. The name must be in lower case.
+	 * 
+	 * @param name the name
+	 * @param value the value
+	 * @param sensitive if set, the field is encoded as 
+	 * "never indexed" literal (RFC 7541, 7.1.3)
+	 * @param out the output
+	 * @throws IOException if thrown by the output stream
+	 */
+	public void encode(String name, String value, boolean sensitive, 
+			OutputStream out) throws IOException {
+		if (pendingSizeUpdate >= 0) {
+			// RFC 7541, 6.3 and 4.2 (signal smallest size first)
+			if (smallestSize < pendingSizeUpdate) {
+				encodeInt(out, 0x20, 5, smallestSize);
+			}
+			encodeInt(out, 0x20, 5, pendingSizeUpdate);
+			pendingSizeUpdate = -1;
+		}
+		int index = table.find(name, value);
+		if (index > 0) {
+			// RFC 7541, 6.1
+			encodeInt(out, 0x80, 7, index);
+			return;
+		}
+		int nameIndex = -index;
+		if (sensitive) {
+			// RFC 7541, 6.2.3
+			encodeInt(out, 0x10, 4, nameIndex);
+		} else if (HpackTable.entrySize(name, value) 
+				> table.maxSize() / 2) {
+			// Would replace too many entries, RFC 7541, 6.2.2
+			encodeInt(out, 0x00, 4, nameIndex);
+		} else {
+			// RFC 7541, 6.2.1
+			encodeInt(out, 0x40, 6, nameIndex);
+			table.add(name, value);
+		}
+		if (nameIndex == 0) {
+			encodeString(out, name);
+		}
+		encodeString(out, value);
+	}
+
+	/**
+	 * Encodes an integer with the given prefix length
+	 * (RFC 7541, 5.1).
+	 */
+	private static void encodeInt(OutputStream out, int pattern,
+			int prefix, long value) throws IOException {
+		int mask = (1 << prefix) - 1;
+		if (value < mask) {
+			out.write(pattern | (int)value);
+			return;
+		}
+		out.write(pattern | mask);
+		value -= mask;
+		while (value >= 0x80) {
+			out.write((int)(value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.write((int)value);
+	}
+
+	/**
+	 * Encodes a string literal (RFC 7541, 5.2). Characters are 
+	 * treated as octets.
+	 */
+	private static void encodeString(OutputStream out, String value)
+			throws IOException {
+		int huffmanLength = Huffman.encodedLength(value);
+		if (huffmanLength < value.length()) {
+			encodeInt(out, 0x80, 7, huffmanLength);
+			Huffman.encode(value, out);
+			return;
+		}
+		encodeInt(out, 0x00, 7, value.length());
+		for (int i = 0; i < value.length(); i++) {
+			out.write(value.charAt(i));
+		}
+	}
+}
@@ -0,0 +1,251 @@
+/*
+ * This file is part of the JDrupes non-blocking HTTP Codec
+ * Copyright (C) 2018  Michael N. Lipp
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jdrupes.httpcodec.protocols.http2;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The HPACK index address space, i.e. the static table and a dynamic 
+ * table as specified in 
+ * [RFC 7541, 2.3](https://tools.ietf.org/html/rfc7541#section-2.3).
+ * The dynamic table is implemented as ring buffer.
+ */
+class HpackTable {
+
+	/** The number of entries in the static table. */
+	static final int STATIC_SIZE = 61;
+	/** The overhead added to the size of an entry. */
+	static final int ENTRY_OVERHEAD = 32;
+
+	static final String[] STATIC_NAMES = {
+		":authority", ":method", ":method", ":path", ":path", ":scheme",
+		":scheme", ":status", ":status", ":status", ":status", ":status",
+		":status", ":status", "accept-charset", "accept-encoding",
+		"accept-language", "accept-ranges", "accept",
+		"access-control-allow-origin", "age", "allow", "authorization",
+		"cache-control", "content-disposition", "content-encoding",
+		"content-language", "content-length", "content-location",
+		"content-range", "content-type", "cookie", "date", "etag", "expect",
+		"expires", "from", "host", "if-match", "if-modified-since",
+		"if-none-match", "if-range", "if-unmodified-since", "last-modified",
+		"link", "location", "max-forwards", "proxy-authenticate",
+		"proxy-authorization", "range", "referer", "refresh", "retry-after",
+		"server", "set-cookie", "strict-transport-security",
+		"transfer-encoding", "user-agent", "vary", "via", "www-authenticate"
+	};
+	
+	static final String[] STATIC_VALUES = {
+		"", "GET", "POST", "/", "/index.html", "http", "https", "200", "204",
+		"206", "304", "400", "404", "500", "", "gzip, deflate"
+	};
+
+	/** Maps names to the first static entry with the name. */
+	private static final Map<String,Integer> STATIC_INDEX = new HashMap<>();
+
+	static {
+		for (int i = STATIC_SIZE; i > 0; i--) {
+			STATIC_INDEX.put(STATIC_NAMES[i - 1], i);
+		}
+	}
+
+	private String[] names = new String[16];
+	private String[] values = new String[16];
+	/** The position of the newest entry. */
+	private int head = 0;
+	private int length = 0;
+	private long size = 0;
+	private long maxSize;
+
+	/**
+	 * Creates a new table.
+	 * 
+	 * @param maxSize the maximum size of the dynamic table
+	 */
+	HpackTable(long maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Returns the number of entries in the dynamic table.
+	 * 
+	 * @return the number
+	 */
+	int dynamicLength() {
+		return length;
+	}
+	
+	/**
+	 * Returns the size of the dynamic table.
+	 * 
+	 * @return the size
+	 */
+	long size() {
+		return size;
+	}
+	
+	/**
+	 * Returns the maximum size of the dynamic table.
+	 * 
+	 * @return the size
+	 */
+	long maxSize() {
+		return maxSize;
+	}
+	
+	/**
+	 * Sets the maximum size of the dynamic table, evicting
+	 * entries as necessary.
+	 * 
+	 * @param maxSize the size
+	 */
+	void setMaxSize(long maxSize) {
+		this.maxSize = maxSize;
+		evict(0);
+	}
+	
+	/**
+	 * Returns the name of the entry with the given index.
+	 * 
+	 * @param index the index (starting with 1)
+	 * @return the name or `null` if the index is invalid
+	 */
+	String name(int index) {
+		if (index <= 0) {
+			return null;
+		}
+		if (index <= STATIC_SIZE) {
+			return STATIC_NAMES[index - 1];
+		}
+		index -= STATIC_SIZE + 1;
+		if (index >= length) {
+			return null;
+		}
+		return names[(head - index) & (names.length - 1)];
+	}
+
+	/**
+	 * Returns the value of the entry with the given index.
+	 * 
+	 * @param index the index (starting with 1, must be valid)
+	 * @return the value
+	 */
+	String value(int index) {
+		if (index <= STATIC_SIZE) {
+			return index <= STATIC_VALUES.length 
+					? STATIC_VALUES[index - 1] : "";
+		}
+		index -= STATIC_SIZE + 1;
+		return values[(head - index) & (values.length - 1)];
+	}
+
+	/**
+	 * Searches for an entry. Entries in the static table are found
+	 * with a lookup, entries in the dynamic table (which is usually
+	 * small) with a linear search.
+	 * 
+	 * @param name the name
+	 * @param value the value
+	 * @return the index of an entry with the given name and value,
+	 * or the negated index of an entry with the given name, or 0
+	 */
+	int find(String name, String value) {
+		int nameIndex = 0;
+		Integer staticIndex = STATIC_INDEX.get(name);
+		if (staticIndex != null) {
+			for (int i = staticIndex; i <= STATIC_SIZE
+					&& STATIC_NAMES[i - 1].equals(name); i++) {
+				if (value(i).equals(value)) {
+					return i;
+				}
+			}
+			nameIndex = staticIndex;
+		}
+		for (int i = 0; i < length; i++) {
+			int pos = (head - i) & (names.length - 1);
+			if (names[pos].equals(name)) {
+				if (values[pos].equals(value)) {
+					return STATIC_SIZE + 1 + i;
+				}
+				if (nameIndex == 0) {
+					nameIndex = STATIC_SIZE + 1 + i;
+				}
+			}
+		}
+		return -nameIndex;
+	}
+
+	/**
+	 * Adds an entry to the dynamic table, evicting entries as necessary.
+	 * 
+	 * @param name the name
+	 * @param value the value
+	 */
+	void add(String name, String value) {
+		long entrySize = entrySize(name, value);
+		evict(entrySize);
+		if (entrySize > maxSize) {
+			// RFC 7541, 4.4, the table is emptied
+			return;
+		}
+		if (length == names.length) {
+			grow();
+		}
+		head = (head + 1) & (names.length - 1);
+		names[head] = name;
+		values[head] = value;
+		length += 1;
+		size += entrySize;
+	}
+
+	/**
+	 * Returns the size of an entry.
+	 * 
+	 * @param name the name
+	 * @param value the value
+	 * @return the size
+	 */
+	static long entrySize(String name, String value) {
+		return name.length() + value.length() + ENTRY_OVERHEAD;
+	}
+	
+	private void evict(long required) {
+		while (length > 0 && size + required > maxSize) {
+			int oldest = (head - length + 1) & (names.length - 1);
+			size -= entrySize(names[oldest], values[oldest]);
+			names[oldest] = null;
+			values[oldest] = null;
+			length -= 1;
+		}
+	}
+	
+	private void grow() {
+		String[] newNames = new String[names.length * 2];
+		String[] newValues = new String[values.length * 2];
+		for (int i = 0; i < length; i++) {
+			int from = (head - i) & (names.length - 1);
+			newNames[length - 1 - i] = names[from];
+			newValues[length - 1 - i] = values[from];
+		}
+		names = newNames;
+		values = newValues;
+		head = length - 1;
+	}
+}
@@ -0,0 +1,91 @@
+/*
+ * This file is part of the JDrupes non-blocking HTTP Codec
+ * Copyright (C) 2018  Michael N. Lipp
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jdrupes.httpcodec.protocols.http2;
+
+import java.util.Optional;
+
+import org.jdrupes.httpcodec.Codec;
+import org.jdrupes.httpcodec.protocols.http.HttpRequest;
+
+/**
+ * The base class for the HTTP/2 decoder and encoder. The decoder and
+ * the encoder that handle the same connection share the connection's
+ * state (streams, settings, flow-control windows and header 
+ * compression contexts). It is linked when the codecs are paired
+ * with each other.
+ */
+public abstract class Http2Codec implements Codec {
+
+	private Http2Connection connection;
+
+	/**
+	 * Creates a new codec for a connection that starts with the
+	 * connection preface.
+	 * 
+	 * @param client `true` if the codec is used on the client side
+	 */
+	protected Http2Codec(boolean client) {
+		connection = new Http2Connection(client);
+	}
+	
+	/**
+	 * Creates a new codec for a connection that has been upgraded 
+	 * from HTTP/1.1. The response to the request that caused the 
+	 * upgrade is sent on stream 1.
+	 * 
+	 * @param client `true` if the codec is used on the client side
+	 * @param upgraded the request that caused the upgrade
+	 */
+	protected Http2Codec(boolean client, HttpRequest upgraded) {
+		connection = new Http2Connection(client, upgraded);
+	}
+
+	/**
+	 * Makes this codec use the connection state of the other codec.
+	 * 
+	 * @param other the other codec
+	 */
+	protected void linkConnection(Http2Codec other) {
+		connection = other.connection;
+	}
+	
+	Http2Connection connection() {
+		return connection;
+	}
+
+	/**
+	 * Returns `true` if the codec is used on the client side.
+	 * 
+	 * @return the result
+	 */
+	public boolean isClient() {
+		return connection.isClient();
+	}
+	
+	/**
+	 * Returns the stream with the given id if it is not closed.
+	 * 
+	 * @param id the id
+	 * @return the stream
+	 */
+	public Optional<Http2Stream> stream(int id) {
+		return Optional.ofNullable(connection.stream(id));
+	}
+}
@@ -0,0 +1,395 @@
+/*
+ * This file is part of the JDrupes non-blocking HTTP Codec
+ * Copyright (C) 2018  Michael N. Lipp
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jdrupes.httpcodec.protocols.http2;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jdrupes.httpcodec.protocols.http.HttpRequest;
+import org.jdrupes.httpcodec.protocols.http2.Http2Constants.ErrorCode;
+
+import static org.jdrupes.httpcodec.protocols.http2.Http2Constants.*;
+
+/**
+ * The state shared by an {@link Http2Decoder} and an {@link Http2Encoder}
+ * that handle the same connection: the streams, the settings of
+ * both endpoints, the connection level flow-control windows and the
+ * header compression contexts.
+ */
+class Http2Connection {
+
+	/** The maximum number of concurrent streams that we allow. */
+	static final int MAX_CONCURRENT_STREAMS = 100;
+	
+	private boolean client;
+	private Map<Integer,Http2Stream> streams = new HashMap<>();
+	private int highestRemoteId;
+	private int nextLocalId;
+	private boolean goAwaySent;
+	private boolean goAwayReceived;
+	
+	// Peer settings
+	private long peerInitialWindow = DEFAULT_WINDOW_SIZE;
+	private int peerMaxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+	private long peerMaxConcurrentStreams = Long.MAX_VALUE;
+	
+	// Connection windows
+	private long sendWindow = DEFAULT_WINDOW_SIZE;
+	private long receiveWindow = DEFAULT_WINDOW_SIZE;
+	private long unacknowledged;
+
+	private HpackEncoder hpackEncoder 
+		= new HpackEncoder(DEFAULT_HEADER_TABLE_SIZE);
+	private HpackDecoder hpackDecoder 
+		= new HpackDecoder(DEFAULT_HEADER_TABLE_SIZE);
+	
+	/**
+	 * Creates the state for a new connection.
+	 * 
+	 * @param client `true` if this is the client side of the connection
+	 */
+	Http2Connection(boolean client) {
+		this.client = client;
+		nextLocalId = client ? 1 : 2;
+	}
+
+	/**
+	 * Creates the state for a connection that has been upgraded
+	 * from HTTP/1.1 (RFC 7540, 3.2). The request that caused 
+	 * the upgrade implicitly uses stream 1.
+	 * 
+	 * @param client `true` if this is the client side of the connection
+	 * @param request the request that caused the upgrade, may be 
+	 * `null` on the client side
+	 */
+	Http2Connection(boolean client, HttpRequest request) {
+		this(client);
+		Http2Stream stream = newStream(1);
+		if (client) {
+			stream.sent(true);
+			stream.setSentHeader(request);
+			return;
+		}
+		stream.received(true);
+		stream.setReceivedHeader(request, true);
+		if (request != null) {
+			request.findStringValue(Http2ProtocolProvider.HTTP2_SETTINGS)
+				.map(Http2Connection::decodeSettings)
+				.ifPresent(this::applyPeer);
+		}
+	}
+
+	boolean isClient() {
+		return client;
+	}
+	
+	/**
+	 * Returns the settings to be sent in the connection preface.
+	 * 
+	 * @return the settings
+	 */
+	Http2SettingsFrame initialSettings() {
+		Http2SettingsFrame settings = new Http2SettingsFrame(false);
+		if (client) {
+			settings.set(SETTINGS_ENABLE_PUSH, 0);
+		} else {
+			settings.set(SETTINGS_MAX_CONCURRENT_STREAMS, 
+					MAX_CONCURRENT_STREAMS);
+		}
+		return settings;
+	}
+
+	/**
+	 * Applies the settings received from the peer.
+	 * 
+	 * @param settings the settings
+	 * @return the error if a setting has an invalid value, else `null`
+	 */
+	ErrorCode applyPeer(Http2SettingsFrame settings) {
+		for (Map.Entry<Integer, Long> entry: settings.parameters().entrySet()) {
+			long value = entry.getValue();
+			switch (entry.getKey()) {
+			case SETTINGS_HEADER_TABLE_SIZE:
+				hpackEncoder.setMaxTableSize(
+						Math.min(value, DEFAULT_HEADER_TABLE_SIZE));
+				break;
+			case SETTINGS_ENABLE_PUSH:
+				if (value > 1 || client && value != 0) {
+					return ErrorCode.PROTOCOL_ERROR;
+				}
+				break;
+			case SETTINGS_MAX_CONCURRENT_STREAMS:
+				peerMaxConcurrentStreams = value;
+				break;
+			case SETTINGS_INITIAL_WINDOW_SIZE:
+				// RFC 7540, 6.9.2
+				if (value > MAX_WINDOW_SIZE) {
+					return ErrorCode.FLOW_CONTROL_ERROR;
+				}
+				long delta = value - peerInitialWindow;
+				peerInitialWindow = value;
+				for (Http2Stream stream: streams.values()) {
+					if (!stream.addToSendWindow(delta)) {
+						return ErrorCode.FLOW_CONTROL_ERROR;
+					}
+				}
+				break;
+			case SETTINGS_MAX_FRAME_SIZE:
+				if (value < DEFAULT_MAX_FRAME_SIZE
+						|| value > MAX_MAX_FRAME_SIZE) {
+					return ErrorCode.PROTOCOL_ERROR;
+				}
+				peerMaxFrameSize = (int)value;
+				break;
+			default:
+				// RFC 7540, 6.5.2: unknown settings are ignored
+				break;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the stream with the given id.
+	 * 
+	 * @param id the id
+	 * @return the stream or `null`
+	 */
+	Http2Stream stream(int id) {
+		return streams.get(id);
+	}
+
+	/**
+	 * Creates a new stream and registers it.
+	 * 
+	 * @param id the id
+	 * @return the stream
+	 */
+	Http2Stream newStream(int id) {
+		Http2Stream stream = new Http2Stream(
+				id, peerInitialWindow, DEFAULT_WINDOW_SIZE);
+		streams.put(id, stream);
+		if (isRemoteInitiated(id)) {
+			highestRemoteId = Math.max(highestRemoteId, id);
+		} else {
+			nextLocalId = Math.max(nextLocalId, id + 2);
+		}
+		return stream;
+	}
+
+	/**
+	 * Removes the stream if it has been closed.
+	 * 
+	 * @param stream the stream
+	 */
+	void closeIfDone(Http2Stream stream) {
+		if (stream.state() == Http2Stream.State.CLOSED) {
+			streams.remove(stream.id());
+		}
+	}
+	
+	/**
+	 * Returns the number of streams that are not closed.
+	 * 
+	 * @return the number
+	 */
+	int activeStreams() {
+		return streams.size();
+	}
+	
+	/**
+	 * Checks whether the given id has been initiated by the peer.
+	 * 
+	 * @param id the id
+	 * @return the result
+	 */
+	boolean isRemoteInitiated(int id) {
+		return (id % 2 == 1) != client;
+	}
+
+	/**
+	 * Checks whether a stream with the given id is in state "idle", 
+	 * i.e. has never been used.
+	 * 
+	 * @param id the id
+	 * @return the result
+	 */
+	boolean isIdle(int id) {
+		if (streams.containsKey(id)) {
+			return false;
+		}
+		return isRemoteInitiated(id) ? id > highestRemoteId 
+				: id >= nextLocalId;
+	}
+	
+	int highestRemoteId() {
+		return highestRemoteId;
+	}
+	
+	int nextLocalId() {
+		return nextLocalId;
+	}
+	
+	long peerMaxConcurrentStreams() {
+		return peerMaxConcurrentStreams;
+	}
+	
+	int peerMaxFrameSize() {
+		return peerMaxFrameSize;
+	}
+
+	long sendWindow() {
+		return sendWindow;
+	}
+
+	/**
+	 * Adds to the connection's send window.
+	 * 
+	 * @return `false` if the window exceeds the maximum size
+	 */
+	boolean addToSendWindow(long delta) {
+		sendWindow += delta;
+		return sendWindow <= MAX_WINDOW_SIZE;
+	}
+
+	void consumeSendWindow(long bytes) {
+		sendWindow -= bytes;
+	}
+
+	/**
+	 * Accounts for received data.
+	 * 
+	 * @return `false` if the window has been exceeded
+	 */
+	boolean consumeReceiveWindow(long bytes) {
+		receiveWindow -= bytes;
+		return receiveWindow >= 0;
+	}
+
+	/**
+	 * Records consumed data. Returns the window size increment 
+	 * to be sent to the peer if it has become worthwhile.
+	 * 
+	 * @param bytes the number of bytes consumed
+	 * @return the increment or 0
+	 */
+	int consumed(long bytes) {
+		unacknowledged += bytes;
+		if (unacknowledged < DEFAULT_WINDOW_SIZE / 2) {
+			return 0;
+		}
+		int increment = (int)unacknowledged;
+		receiveWindow += unacknowledged;
+		unacknowledged = 0;
+		return increment;
+	}
+	
+	boolean isGoAwaySent() {
+		return goAwaySent;
+	}
+
+	void setGoAwaySent() {
+		goAwaySent = true;
+	}
+
+	boolean isGoAwayReceived() {
+		return goAwayReceived;
+	}
+
+	void setGoAwayReceived() {
+		goAwayReceived = true;
+	}
+
+	HpackEncoder hpackEncoder() {
+		return hpackEncoder;
+	}
+	
+	HpackDecoder hpackDecoder() {
+		return hpackDecoder;
+	}
+
+	/**
+	 * Returns the payload of a SETTINGS frame with the given 
+	 * settings.
+	 * 
+	 * @param settings the settings
+	 * @return the payload
+	 */
+	static byte[] settingsPayload(Http2SettingsFrame settings) {
+		ByteBuffer payload 
+			= ByteBuffer.allocate(settings.parameters().size() * 6);
+		for (Map.Entry<Integer, Long> entry: settings.parameters().entrySet()) {
+			payload.putShort((short)(int)entry.getKey());
+			payload.putInt((int)(long)entry.getValue());
+		}
+		return payload.array();
+	}
+
+	/**
+	 * Parses the payload of a SETTINGS frame.
+	 * 
+	 * @param payload the payload
+	 * @param settings the frame to which the settings are added
+	 * @return the frame
+	 */
+	static Http2SettingsFrame parseSettings(
+			ByteBuffer payload, Http2SettingsFrame settings) {
+		while (payload.remaining() >= 6) {
+			int identifier = payload.getShort() & 0xffff;
+			settings.set(identifier, payload.getInt() & 0xffffffffL);
+		}
+		return settings;
+	}
+
+	/**
+	 * Returns the value for the "HTTP2-Settings" header field 
+	 * (RFC 7540, 3.2.1).
+	 * 
+	 * @param settings the settings
+	 * @return the value
+	 */
+	static String encodeSettings(Http2SettingsFrame settings) {
+		return Base64.getUrlEncoder().withoutPadding()
+				.encodeToString(settingsPayload(settings));
+	}
+
+	/**
+	 * Decodes the value of an "HTTP2-Settings" header field 
+	 * (RFC 7540, 3.2.1).
+	 * 
+	 * @param value the value
+	 * @return the settings or `null` if the value is invalid
+	 */
+	static Http2SettingsFrame decodeSettings(String value) {
+		byte[] payload;
+		try {
+			payload = Base64.getUrlDecoder().decode(value.trim());
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+		if (payload.length % 6 != 0) {
+			return null;
+		}
+		return parseSettings(
+				ByteBuffer.wrap(payload), new Http2SettingsFrame(false));
+	}
+}
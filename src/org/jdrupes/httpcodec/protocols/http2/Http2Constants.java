@@ -0,0 +1,111 @@
+/*
+ * This file is part of the JDrupes non-blocking HTTP Codec
+ * Copyright (C) 2018  Michael N. Lipp
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jdrupes.httpcodec.protocols.http2;
+
+/**
+ * Common HTTP/2 constants as defined in 
+ * [RFC 7540](https://tools.ietf.org/html/rfc7540).
+ */
+public interface Http2Constants {
+
+	/** The client connection preface (RFC 7540, 3.5). */
+	String CONNECTION_PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n";
+	
+	/** The size of a frame header. */
+	int FRAME_HEADER_SIZE = 9;
+	
+	// Frame types (RFC 7540, 6)
+	int DATA = 0x0;
+	int HEADERS = 0x1;
+	int PRIORITY = 0x2;
+	int RST_STREAM = 0x3;
+	int SETTINGS = 0x4;
+	int PUSH_PROMISE = 0x5;
+	int PING = 0x6;
+	int GOAWAY = 0x7;
+	int WINDOW_UPDATE = 0x8;
+	int CONTINUATION = 0x9;
+
+	// Flags
+	int FLAG_END_STREAM = 0x1;
+	int FLAG_ACK = 0x1;
+	int FLAG_END_HEADERS = 0x4;
+	int FLAG_PADDED = 0x8;
+	int FLAG_PRIORITY = 0x20;
+	
+	// Settings (RFC 7540, 6.5.2)
+	int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+	int SETTINGS_ENABLE_PUSH = 0x2;
+	int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+	int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+	int SETTINGS_MAX_FRAME_SIZE = 0x5;
+	int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+	// Defaults and limits
+	int DEFAULT_HEADER_TABLE_SIZE = 4096;
+	int DEFAULT_WINDOW_SIZE = 65535;
+	int DEFAULT_MAX_FRAME_SIZE = 16384;
+	int MAX_MAX_FRAME_SIZE = 16777215;
+	int MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+	
+	/**
+	 * The error codes (RFC 7540, 7).
+	 */
+	public static enum ErrorCode {
+		NO_ERROR(0x0), PROTOCOL_ERROR(0x1), INTERNAL_ERROR(0x2),
+		FLOW_CONTROL_ERROR(0x3), SETTINGS_TIMEOUT(0x4), STREAM_CLOSED(0x5),
+		FRAME_SIZE_ERROR(0x6), REFUSED_STREAM(0x7), CANCEL(0x8),
+		COMPRESSION_ERROR(0x9), CONNECT_ERROR(0xa), 
+		ENHANCE_YOUR_CALM(0xb), INADEQUATE_SECURITY(0xc), 
+		HTTP_1_1_REQUIRED(0xd);
+		
+		private int code;
+		
+		ErrorCode(int code) {
+			this.code = code;
+		}
+		
+		/**
+		 * Returns the code.
+		 * 
+		 * @return the code
+		 */
+		public int code() {
+			return code;
+		}
+		
+		/**
+		 * Returns the error code with the given value. Unknown
+		 * values are mapped to {@link #INTERNAL_ERROR} 
+		 * (RFC 7540, 7).
+		 * 
+		 * @param code the value
+		 * @return the error code
+		 */
+		public static ErrorCode fromCode(long code) {
+			for (ErrorCode value: values()) {
+				if (value.code == code) {
+					return value;
+				}
+			}
+			return INTERNAL_ERROR;
+		}
+	}
+}
@@ -0,0 +1,70 @@
+/*
+ * This file is part of the JDrupes non-blocking HTTP Codec
+ * Copyright (C) 2018  Michael N. Lipp
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jdrupes.httpcodec.protocols.http2;
+
+/**
+ * Represents the header of a `DATA` frame. 
+ * <P>
+ * When received, the frame header is reported before the data
+ * of the frame. When passed to the encoder, the frame selects the
+ * stream for the data passed to the subsequent invocations of 
+ * {@link Http2Encoder#encode(java.nio.Buffer, java.nio.ByteBuffer, boolean)}.
+ */
+public class Http2DataFrame extends Http2Frame {
+
+	private boolean endStream;
+	
+	/**
+	 * Creates a new frame that selects the stream for sending data.
+	 * 
+	 * @param streamId the stream id
+	 */
+	public Http2DataFrame(int streamId) {
+		this(streamId, false);
+	}
+
+	/**
+	 * Creates a new frame.
+	 * 
+	 * @param streamId the stream id
+	 * @param endStream set if the stream ends with this frame
+	 */
+	Http2DataFrame(int streamId, boolean endStream) {
+		super(streamId);
+		this.endStream = endStream;
+	}
+
+	/**
+	 * Returns `true` if the stream ends with this frame.
+	 * 
+	 * @return the result
+	 */
+	public boolean isEndStream() {
+		return endStream;
+	}
+	
+	/* (non-Javadoc)
+	 * @see Http2Frame#hasPayload()
+	 */
+	@Override
+	public boolean hasPayload() {
+		return true;
+	}
+}
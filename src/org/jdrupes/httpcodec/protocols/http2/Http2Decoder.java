@@ -0,0 +1,920 @@
+/*
+ * This file is part of the JDrupes non-blocking HTTP Codec
+ * Copyright (C) 2018  Michael N. Lipp
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jdrupes.httpcodec.protocols.http2;
+
+import java.net.HttpCookie;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.jdrupes.httpcodec.Decoder;
+import org.jdrupes.httpcodec.Encoder;
+import org.jdrupes.httpcodec.ProtocolException;
+import org.jdrupes.httpcodec.protocols.http.HttpField;
+import org.jdrupes.httpcodec.protocols.http.HttpMessageHeader;
+import org.jdrupes.httpcodec.protocols.http.HttpRequest;
+import org.jdrupes.httpcodec.protocols.http.HttpResponse;
+import org.jdrupes.httpcodec.protocols.http.HttpConstants.HttpProtocol;
+import org.jdrupes.httpcodec.protocols.http.HttpConstants.HttpStatus;
+import org.jdrupes.httpcodec.protocols.http2.Http2Constants.ErrorCode;
+import org.jdrupes.httpcodec.types.Converters;
+import org.jdrupes.httpcodec.types.CookieList;
+import org.jdrupes.httpcodec.util.ByteBufferUtils;
+
+import static org.jdrupes.httpcodec.protocols.http2.Http2Constants.*;
+
+/**
+ * The HTTP/2 decoder. 
+ * <P>
+ * The decoder reports every frame that it has received as header.
+ * Header blocks (HEADERS frames and their CONTINUATION frames) are 
+ * decompressed and reported as {@link Http2HeadersFrame}s with an
+ * {@link HttpRequest} (server side) or an {@link HttpResponse} 
+ * (client side) as message header. Because the message header 
+ * classes are shared with HTTP/1.x, the message headers' protocol
+ * is reported as HTTP/1.1.
+ * <P>
+ * The payload of a DATA frame is written to the out buffer
+ * which must therefore be a {@link ByteBuffer}. The decoder returns
+ * after the end of each DATA frame, so a single invocation never
+ * copies the data of different streams to the out buffer.
+ * <P>
+ * Frames that must be sent in response to received frames
+ * (SETTINGS and PING acknowledgements, WINDOW_UPDATE frames that 
+ * replenish the flow-control windows and RST_STREAM or GOAWAY frames
+ * that report errors) are returned as responses. If an invocation
+ * results in several responses, the surplus responses are returned
+ * by the subsequent invocations. As long as there are pending 
+ * responses, the result doesn't indicate an underflow, even if the
+ * in buffer has been exhausted. 
+ */
+public class Http2Decoder extends Http2Codec
+	implements Decoder<Http2Frame, Http2Frame> {
+
+	private static enum State { PREFACE, FRAME_HEADER, FRAME_PAYLOAD, 
+		DATA_PAD_LENGTH, DATA, DATA_PADDING, FAILED }
+
+	private static final int MAX_HEADER_BLOCK_SIZE = 65536;
+	private static final byte[] PREFACE_BYTES 
+		= CONNECTION_PREFACE.getBytes(StandardCharsets.ISO_8859_1);
+
+	private static Result.Factory resultFactory = new Result.Factory();
+	
+	private State state;
+	private int prefaceMatched;
+	private boolean settingsExpected = true;
+	private ByteBuffer frameHeader = ByteBuffer.allocate(FRAME_HEADER_SIZE);
+	private int frameLength;
+	private int frameType;
+	private int frameFlags;
+	private int frameStreamId;
+	private ByteBuffer payload;
+	private long bytesRemaining;
+	private int padLength;
+	private Http2Stream dataStream;
+	private ByteBuffer headerBlock;
+	private int blockStreamId;
+	private boolean blockEndStream;
+	private Http2Frame receivedFrame;
+	private Http2Frame reportedFrame;
+	private Deque<Http2Frame> responses = new ArrayDeque<>();
+
+	/**
+	 * Creates a new decoder for a connection that starts with
+	 * the connection preface. This is the constructor to use for
+	 * connections with "prior knowledge" 
+	 * ([RFC 7540, 3.4](https://tools.ietf.org/html/rfc7540#section-3.4)).
+	 * A server engine for such connections is created with
+	 * {@code new ServerEngine<>(new Http2Decoder(false), 
+	 * new Http2Encoder(false))}.
+	 * 
+	 * @param client `true` if the decoder is used on the client side
+	 */
+	public Http2Decoder(boolean client) {
+		super(client);
+		state = client ? State.FRAME_HEADER : State.PREFACE;
+	}
+
+	/**
+	 * Creates a new decoder for a connection that has been 
+	 * upgraded from HTTP/1.1. The upgrade request is considered
+	 * to have been sent (or received) on stream 1.
+	 * 
+	 * @param client `true` if the decoder is used on the client side
+	 * @param upgraded the request that caused the upgrade
+	 */
+	public Http2Decoder(boolean client, HttpRequest upgraded) {
+		super(client, upgraded);
+		state = client ? State.FRAME_HEADER : State.PREFACE;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.jdrupes.httpcodec.Decoder#setPeerEncoder(org.jdrupes.httpcodec.Encoder)
+	 */
+	@Override
+	public Decoder<Http2Frame, Http2Frame> setPeerEncoder(
+			Encoder<Http2Frame, Http2Frame> encoder) {
+		linkConnection((Http2Codec)encoder);
+		return this;
+	}
+
+	/**
+	 * Returns the result factory for this codec.
+	 * 
+	 * @return the factory
+	 */
+	protected Result.Factory resultFactory() {
+		return resultFactory;
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.jdrupes.httpcodec.Decoder#decoding()
+	 */
+	@Override
+	public Class<Http2Frame> decoding() {
+		return Http2Frame.class;
+	}
+
+	/**
+	 * Returns the last frame received.
+	 * 
+	 * @return the frame
+	 */
+	@Override
+	public Optional<Http2Frame> header() {
+		return Optional.ofNullable(receivedFrame);
+	}
+
+	private Result createResult(boolean overflow, boolean underflow,
+			boolean closeConnection, Http2Frame response, 
+			boolean responseOnly) {
+		boolean headerCompleted = false;
+		if (receivedFrame != null && receivedFrame != reportedFrame) {
+			reportedFrame = receivedFrame;
+			headerCompleted = true;
+		}
+		return resultFactory().newResult(overflow, underflow, 
+				closeConnection, headerCompleted, response, responseOnly);
+	}
+
+	private Result createResult(ByteBuffer in, boolean overflow, 
+			boolean responseOnly) {
+		return createResult(overflow, !overflow && !in.hasRemaining()
+				&& responses.size() <= 1, false, responses.poll(), 
+				responseOnly);
+	}
+
+	private Result createResult(ByteBuffer in, boolean overflow) {
+		return createResult(in, overflow, false);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.jdrupes.httpcodec.Decoder#decode(java.nio.ByteBuffer, java.nio.Buffer, boolean)
+	 */
+	@Override
+	public Decoder.Result<Http2Frame> decode(ByteBuffer in, Buffer out, 
+			boolean endOfInput) {
+		if (out != null && !(out instanceof ByteBuffer)) {
+			throw new IllegalArgumentException(
+					"Only ByteBuffers are allowed.");
+		}
+		if (!responses.isEmpty()) {
+			return createResult(in, false);
+		}
+		Result result = null;
+		while (true) {
+			switch (state) {
+			case FAILED:
+				// Data is no longer processed
+				in.position(in.limit());
+				return createResult(false, false, true, null, false);
+				
+			case PREFACE:
+				while (in.hasRemaining() 
+						&& prefaceMatched < PREFACE_BYTES.length) {
+					if (in.get() != PREFACE_BYTES[prefaceMatched++]) {
+						return connectionError(ErrorCode.PROTOCOL_ERROR,
+								"Invalid connection preface.");
+					}
+				}
+				if (prefaceMatched < PREFACE_BYTES.length) {
+					return createResult(in, false);
+				}
+				state = State.FRAME_HEADER;
+				break;
+				
+			case FRAME_HEADER:
+				ByteBufferUtils.putAsMuchAsPossible(frameHeader, in);
+				if (frameHeader.hasRemaining()) {
+					return createResult(in, false);
+				}
+				frameHeader.flip();
+				result = frameStarted(in);
+				frameHeader.clear();
+				if (result != null) {
+					return result;
+				}
+				break;
+				
+			case FRAME_PAYLOAD:
+				ByteBufferUtils.putAsMuchAsPossible(payload, in);
+				if (payload.hasRemaining()) {
+					return createResult(in, false);
+				}
+				payload.flip();
+				state = State.FRAME_HEADER;
+				result = frameComplete(in);
+				if (result != null) {
+					return result;
+				}
+				break;
+				
+			case DATA_PAD_LENGTH:
+				if (!in.hasRemaining()) {
+					return createResult(in, false);
+				}
+				padLength = in.get() & 0xff;
+				if (padLength >= frameLength) {
+					return connectionError(ErrorCode.PROTOCOL_ERROR,
+							"Invalid padding.");
+				}
+				bytesRemaining = frameLength - 1 - padLength;
+				state = State.DATA;
+				break;
+				
+			case DATA:
+				if (bytesRemaining == 0) {
+					bytesRemaining = padLength;
+					state = State.DATA_PADDING;
+					break;
+				}
+				if (!in.hasRemaining()) {
+					return createResult(in, false);
+				}
+				if (dataStream == null) {
+					// Discarded
+					int skip = (int)Math.min(in.remaining(), bytesRemaining);
+					in.position(in.position() + skip);
+					bytesRemaining -= skip;
+					break;
+				}
+				ByteBuffer data = (ByteBuffer)out;
+				if (data == null || !data.hasRemaining()) {
+					return createResult(in, true);
+				}
+				int copied = data.position();
+				ByteBufferUtils.putAsMuchAsPossible(
+						data, in, (int)bytesRemaining);
+				bytesRemaining -= data.position() - copied;
+				break;
+				
+			case DATA_PADDING:
+				int skip = (int)Math.min(in.remaining(), bytesRemaining);
+				in.position(in.position() + skip);
+				bytesRemaining -= skip;
+				if (bytesRemaining > 0) {
+					return createResult(in, false);
+				}
+				state = State.FRAME_HEADER;
+				return dataComplete(in);
+			}
+		}
+	}
+
+	private Result frameStarted(ByteBuffer in) {
+		frameLength = (frameHeader.get() & 0xff) << 16 
+				| frameHeader.getShort() & 0xffff;
+		frameType = frameHeader.get() & 0xff;
+		frameFlags = frameHeader.get() & 0xff;
+		frameStreamId = frameHeader.getInt() & 0x7fffffff;
+		// We don't change SETTINGS_MAX_FRAME_SIZE, RFC 7540, 4.2
+		if (frameLength > DEFAULT_MAX_FRAME_SIZE) {
+			return connectionError(ErrorCode.FRAME_SIZE_ERROR,
+					"Frame too large.");
+		}
+		// RFC 7540, 3.5
+		if (settingsExpected) {
+			if (frameType != SETTINGS || (frameFlags & FLAG_ACK) != 0) {
+				return connectionError(ErrorCode.PROTOCOL_ERROR,
+						"Expected SETTINGS frame.");
+			}
+			settingsExpected = false;
+		}
+		// RFC 7540, 6.2
+		if (headerBlock != null && (frameType != CONTINUATION 
+				|| frameStreamId != blockStreamId)) {
+			return connectionError(ErrorCode.PROTOCOL_ERROR,
+					"Expected CONTINUATION frame.");
+		}
+		if (frameType == DATA) {
+			return dataStarted(in);
+		}
+		if (payload == null || payload.capacity() < frameLength) {
+			payload = ByteBuffer.allocate(
+					Math.max(frameLength, FRAME_HEADER_SIZE * 8));
+		}
+		payload.clear();
+		payload.limit(frameLength);
+		state = State.FRAME_PAYLOAD;
+		return null;
+	}
+
+	private Result dataStarted(ByteBuffer in) {
+		Http2Connection conn = connection();
+		// RFC 7540, 6.1
+		if (frameStreamId == 0 || conn.isIdle(frameStreamId)) {
+			return connectionError(ErrorCode.PROTOCOL_ERROR,
+					"DATA frame on invalid stream.");
+		}
+		if (!conn.consumeReceiveWindow(frameLength)) {
+			return connectionError(ErrorCode.FLOW_CONTROL_ERROR,
+					"Connection window exceeded.");
+		}
+		if ((frameFlags & FLAG_PADDED) != 0) {
+			if (frameLength == 0) {
+				return connectionError(ErrorCode.FRAME_SIZE_ERROR,
+						"Missing pad length.");
+			}
+			state = State.DATA_PAD_LENGTH;
+			bytesRemaining = 0;
+		} else {
+			state = State.DATA;
+			bytesRemaining = frameLength;
+		}
+		padLength = 0;
+		dataStream = null;
+		Http2Stream stream = conn.stream(frameStreamId);
+		if (stream == null || !stream.canReceive()) {
+			streamError(frameStreamId, ErrorCode.STREAM_CLOSED);
+			return null;
+		}
+		if (!stream.consumeReceiveWindow(frameLength)) {
+			streamError(frameStreamId, ErrorCode.FLOW_CONTROL_ERROR);
+			return null;
+		}
+		dataStream = stream;
+		receivedFrame = new Http2DataFrame(frameStreamId,
+				(frameFlags & FLAG_END_STREAM) != 0);
+		return null;
+	}
+
+	private Result dataComplete(ByteBuffer in) {
+		Http2Connection conn = connection();
+		// RFC 7540, 6.9.1, padding counts as well
+		int increment = conn.consumed(frameLength);
+		if (increment > 0) {
+			responses.add(new Http2WindowUpdateFrame(0, increment));
+		}
+		if (dataStream != null) {
+			if ((frameFlags & FLAG_END_STREAM) != 0) {
+				dataStream.received(true);
+				conn.closeIfDone(dataStream);
+			} else {
+				increment = dataStream.consumed(
+						frameLength, DEFAULT_WINDOW_SIZE);
+				if (increment > 0) {
+					responses.add(new Http2WindowUpdateFrame(
+							dataStream.id(), increment));
+				}
+			}
+			dataStream = null;
+		}
+		return createResult(in, false);
+	}
+	
+	private Result frameComplete(ByteBuffer in) {
+		Http2Connection conn = connection();
+		switch (frameType) {
+		case HEADERS:
+			return headersReceived(in);
+			
+		case CONTINUATION:
+			if (headerBlock == null) {
+				return connectionError(ErrorCode.PROTOCOL_ERROR,
+						"Unexpected CONTINUATION frame.");
+			}
+			return fragmentReceived(in);
+			
+		case PRIORITY:
+			// RFC 7540, 6.3 (priorities are not supported)
+			if (frameStreamId == 0) {
+				return connectionError(ErrorCode.PROTOCOL_ERROR,
+						"PRIORITY frame without stream.");
+			}
+			if (frameLength != 5) {
+				streamError(frameStreamId, ErrorCode.FRAME_SIZE_ERROR);
+				return createResult(in, false, true);
+			}
+			return null;
+			
+		case RST_STREAM:
+			// RFC 7540, 6.4
+			if (frameStreamId == 0 || conn.isIdle(frameStreamId)) {
+				return connectionError(ErrorCode.PROTOCOL_ERROR,
+						"RST_STREAM frame on invalid stream.");
+			}
+			if (frameLength != 4) {
+				return connectionError(ErrorCode.FRAME_SIZE_ERROR,
+						"Invalid RST_STREAM frame.");
+			}
+			Http2Stream stream = conn.stream(frameStreamId);
+			if (stream != null) {
+				stream.reset();
+				conn.closeIfDone(stream);
+			}
+			receivedFrame = new Http2RstStreamFrame(frameStreamId,
+					ErrorCode.fromCode(payload.getInt() & 0xffffffffL));
+			return createResult(in, false);
+			
+		case SETTINGS:
+			return settingsReceived(in);
+			
+		case PUSH_PROMISE:
+			// Push is disabled by the client and never sent by a client
+			return connectionError(ErrorCode.PROTOCOL_ERROR,
+					"Unexpected PUSH_PROMISE frame.");
+			
+		case PING:
+			// RFC 7540, 6.7
+			if (frameStreamId != 0) {
+				return connectionError(ErrorCode.PROTOCOL_ERROR,
+						"PING frame with stream.");
+			}
+			if (frameLength != 8) {
+				return connectionError(ErrorCode.FRAME_SIZE_ERROR,
+						"Invalid PING frame.");
+			}
+			long opaqueData = payload.getLong();
+			boolean ack = (frameFlags & FLAG_ACK) != 0;
+			if (!ack) {
+				responses.add(new Http2PingFrame(opaqueData, true));
+			}
+			receivedFrame = new Http2PingFrame(opaqueData, ack);
+			return createResult(in, false);
+			
+		case GOAWAY:
+			// RFC 7540, 6.8
+			if (frameStreamId != 0) {
+				return connectionError(ErrorCode.PROTOCOL_ERROR,
+						"GOAWAY frame with stream.");
+			}
+			if (frameLength < 8) {
+				return connectionError(ErrorCode.FRAME_SIZE_ERROR,
+						"Invalid GOAWAY frame.");
+			}
+			int lastStreamId = payload.getInt() & 0x7fffffff;
+			ErrorCode errorCode 
+				= ErrorCode.fromCode(payload.getInt() & 0xffffffffL);
+			String debugData = new String(payload.array(), 
+					payload.position(), payload.remaining(), 
+					StandardCharsets.UTF_8);
+			conn.setGoAwayReceived();
+			receivedFrame = new Http2GoAwayFrame(
+					lastStreamId, errorCode, debugData);
+			return createResult(in, false);
+			
+		case WINDOW_UPDATE:
+			return windowUpdateReceived(in);
+			
+		default:
+			// RFC 7540, 4.1: unknown types are ignored
+			return null;
+		}
+	}
+
+	private Result settingsReceived(ByteBuffer in) {
+		// RFC 7540, 6.5
+		if (frameStreamId != 0) {
+			return connectionError(ErrorCode.PROTOCOL_ERROR,
+					"SETTINGS frame with stream.");
+		}
+		if ((frameFlags & FLAG_ACK) != 0) {
+			if (frameLength != 0) {
+				return connectionError(ErrorCode.FRAME_SIZE_ERROR,
+						"SETTINGS acknowledgement with payload.");
+			}
+			receivedFrame = new Http2SettingsFrame(true);
+			return createResult(in, false);
+		}
+		if (frameLength % 6 != 0) {
+			return connectionError(ErrorCode.FRAME_SIZE_ERROR,
+					"Invalid SETTINGS frame.");
+		}
+		Http2SettingsFrame settings = Http2Connection.parseSettings(
+				payload, new Http2SettingsFrame(false));
+		ErrorCode error = connection().applyPeer(settings);
+		if (error != null) {
+			return connectionError(error, "Invalid setting.");
+		}
+		responses.add(new Http2SettingsFrame(true));
+		receivedFrame = settings;
+		return createResult(in, false);
+	}
+
+	private Result windowUpdateReceived(ByteBuffer in) {
+		// RFC 7540, 6.9
+		Http2Connection conn = connection();
+		if (frameLength != 4) {
+			return connectionError(ErrorCode.FRAME_SIZE_ERROR,
+					"Invalid WINDOW_UPDATE frame.");
+		}
+		int increment = payload.getInt() & 0x7fffffff;
+		if (frameStreamId == 0) {
+			if (increment == 0) {
+				return connectionError(ErrorCode.PROTOCOL_ERROR,
+						"Invalid window size increment.");
+			}
+			if (!conn.addToSendWindow(increment)) {
+				return connectionError(ErrorCode.FLOW_CONTROL_ERROR,
+						"Window size exceeded.");
+			}
+		} else {
+			if (conn.isIdle(frameStreamId)) {
+				return connectionError(ErrorCode.PROTOCOL_ERROR,
+						"WINDOW_UPDATE frame on idle stream.");
+			}
+			Http2Stream stream = conn.stream(frameStreamId);
+			if (increment == 0) {
+				streamError(frameStreamId, ErrorCode.PROTOCOL_ERROR);
+				return createResult(in, false, true);
+			}
+			if (stream != null && !stream.addToSendWindow(increment)) {
+				streamError(frameStreamId, ErrorCode.FLOW_CONTROL_ERROR);
+				return createResult(in, false, true);
+			}
+		}
+		receivedFrame = new Http2WindowUpdateFrame(frameStreamId, increment);
+		return createResult(in, false);
+	}
+	
+	private Result headersReceived(ByteBuffer in) {
+		// RFC 7540, 6.2
+		if (frameStreamId == 0) {
+			return connectionError(ErrorCode.PROTOCOL_ERROR,
+					"HEADERS frame without stream.");
+		}
+		int padding = 0;
+		if ((frameFlags & FLAG_PADDED) != 0) {
+			if (!payload.hasRemaining()) {
+				return connectionError(ErrorCode.FRAME_SIZE_ERROR,
+						"Missing pad length.");
+			}
+			padding = payload.get() & 0xff;
+		}
+		if ((frameFlags & FLAG_PRIORITY) != 0) {
+			if (payload.remaining() < 5) {
+				return connectionError(ErrorCode.FRAME_SIZE_ERROR,
+						"Missing priority.");
+			}
+			payload.position(payload.position() + 5);
+		}
+		if (padding > payload.remaining()) {
+			return connectionError(ErrorCode.PROTOCOL_ERROR,
+					"Invalid padding.");
+		}
+		payload.limit(payload.limit() - padding);
+		blockStreamId = frameStreamId;
+		blockEndStream = (frameFlags & FLAG_END_STREAM) != 0;
+		headerBlock = ByteBuffer.allocate(payload.remaining());
+		return fragmentReceived(in);
+	}
+
+	private Result fragmentReceived(ByteBuffer in) {
+		if (headerBlock.remaining() < payload.remaining()) {
+			int required = headerBlock.position() + payload.remaining();
+			if (required > MAX_HEADER_BLOCK_SIZE) {
+				headerBlock = null;
+				return connectionError(ErrorCode.ENHANCE_YOUR_CALM,
+						"Header block too large.");
+			}
+			ByteBuffer larger = ByteBuffer.allocate(
+					Math.min(Math.max(required, 
+							headerBlock.capacity() * 2), 
+							MAX_HEADER_BLOCK_SIZE));
+			headerBlock.flip();
+			larger.put(headerBlock);
+			headerBlock = larger;
+		}
+		headerBlock.put(payload);
+		if ((frameFlags & FLAG_END_HEADERS) == 0) {
+			return null;
+		}
+		ByteBuffer block = headerBlock;
+		headerBlock = null;
+		block.flip();
+		return headerBlockComplete(in, block);
+	}
+
+	private Result headerBlockComplete(ByteBuffer in, ByteBuffer block) {
+		Http2Connection conn = connection();
+		FieldCollector fields = new FieldCollector();
+		try {
+			// Must always be decoded to keep the table in sync
+			conn.hpackDecoder().decode(block, fields::add);
+		} catch (ProtocolException e) {
+			return connectionError(ErrorCode.COMPRESSION_ERROR, 
+					e.getMessage());
+		}
+		int streamId = blockStreamId;
+		Http2Stream stream = conn.stream(streamId);
+		if (stream == null) {
+			if (isClient() || !conn.isIdle(streamId)) {
+				// RFC 7540, 5.1.1 (and push is disabled)
+				if (conn.isIdle(streamId)) {
+					return connectionError(ErrorCode.PROTOCOL_ERROR,
+							"HEADERS frame on invalid stream.");
+				}
+				streamError(streamId, ErrorCode.STREAM_CLOSED);
+				return createResult(in, false, true);
+			}
+			if (!conn.isRemoteInitiated(streamId)) {
+				return connectionError(ErrorCode.PROTOCOL_ERROR,
+						"HEADERS frame on invalid stream.");
+			}
+			stream = conn.newStream(streamId);
+			if (conn.activeStreams() 
+					> Http2Connection.MAX_CONCURRENT_STREAMS) {
+				// RFC 7540, 5.1.2
+				streamError(streamId, ErrorCode.REFUSED_STREAM);
+				return createResult(in, false, true);
+			}
+		}
+		if (!stream.canReceive()) {
+			streamError(streamId, ErrorCode.STREAM_CLOSED);
+			return createResult(in, false, true);
+		}
+		boolean endStream = blockEndStream;
+		HttpMessageHeader header;
+		boolean trailers = isClient() ? stream.isFinalHeaderReceived()
+				: stream.receivedHeader().isPresent();
+		try {
+			if (trailers) {
+				// RFC 7540, 8.1
+				if (!endStream || !fields.pseudo.isEmpty()) {
+					throw new ParseException("Invalid trailers.", 0);
+				}
+				header = stream.receivedHeader().get();
+			} else if (isClient()) {
+				header = newResponse(fields, stream, endStream);
+			} else {
+				header = newRequest(fields, endStream);
+			}
+			fields.applyTo(header);
+		} catch (ParseException | URISyntaxException e) {
+			// RFC 7540, 8.1.2.6
+			streamError(streamId, ErrorCode.PROTOCOL_ERROR);
+			return createResult(in, false, true);
+		}
+		if (!trailers) {
+			stream.setReceivedHeader(header, !(header instanceof HttpResponse
+					&& ((HttpResponse)header).statusCode() / 100 == 1));
+		}
+		stream.received(endStream);
+		conn.closeIfDone(stream);
+		receivedFrame = new Http2HeadersFrame(
+				streamId, header, endStream, trailers);
+		return createResult(in, false);
+	}
+
+	private HttpRequest newRequest(FieldCollector fields, boolean endStream) 
+			throws ParseException, URISyntaxException {
+		// RFC 7540, 8.1.2.3
+		for (String name: fields.pseudo.keySet()) {
+			if (!name.equals(":method") && !name.equals(":scheme")
+					&& !name.equals(":authority") && !name.equals(":path")) {
+				throw new ParseException("Invalid pseudo-header field.", 0);
+			}
+		}
+		String method = fields.pseudo.get(":method");
+		String path = fields.pseudo.get(":path");
+		if (method == null || path == null || path.isEmpty()
+				|| fields.pseudo.get(":scheme") == null) {
+			throw new ParseException("Missing pseudo-header field.", 0);
+		}
+		URI uri = "*".equals(path) ? HttpRequest.ASTERISK_REQUEST
+				: new URI(path);
+		HttpRequest request = new HttpRequest(
+				method, uri, HttpProtocol.HTTP_1_1, !endStream);
+		String authority = fields.pseudo.get(":authority");
+		if (authority != null) {
+			URI parsed = new URI("http://" + authority);
+			request.setHostAndPort(parsed.getHost(), parsed.getPort());
+			fields.regular.putIfAbsent("host", authority);
+		}
+		HttpResponse response = (new HttpResponse(HttpProtocol.HTTP_1_1,
+				HttpStatus.NOT_IMPLEMENTED, false)).setRequest(request); 
+		return request.setResponse(response);
+	}
+
+	private HttpResponse newResponse(FieldCollector fields, 
+			Http2Stream stream, boolean endStream) throws ParseException {
+		// RFC 7540, 8.1.2.4
+		String status = fields.pseudo.get(":status");
+		if (status == null || fields.pseudo.size() > 1) {
+			throw new ParseException("Invalid pseudo-header fields.", 0);
+		}
+		int statusCode;
+		try {
+			statusCode = Integer.parseInt(status);
+		} catch (NumberFormatException e) {
+			throw new ParseException("Invalid status.", 0);
+		}
+		if (statusCode / 100 == 1 && endStream) {
+			throw new ParseException("Informational response ends stream.",
+					0);
+		}
+		String reasonPhrase = "";
+		for (HttpStatus value: HttpStatus.values()) {
+			if (value.statusCode() == statusCode) {
+				reasonPhrase = value.reasonPhrase();
+				break;
+			}
+		}
+		HttpResponse response = new HttpResponse(HttpProtocol.HTTP_1_1, 
+				statusCode, reasonPhrase, !endStream);
+		stream.sentHeader().filter(h -> h instanceof HttpRequest)
+			.ifPresent(h -> response.setRequest((HttpRequest)h));
+		return response;
+	}
+	
+	private void streamError(int streamId, ErrorCode errorCode) {
+		Http2Connection conn = connection();
+		Http2Stream stream = conn.stream(streamId);
+		if (stream != null) {
+			stream.reset();
+			conn.closeIfDone(stream);
+		}
+		responses.add(new Http2RstStreamFrame(streamId, errorCode));
+	}
+
+	private Result connectionError(ErrorCode errorCode, String message) {
+		state = State.FAILED;
+		responses.clear();
+		return createResult(false, false, true, new Http2GoAwayFrame(
+				connection().highestRemoteId(), errorCode, message), true);
+	}
+	
+	/**
+	 * Collects the fields from a header block and checks 
+	 * them (RFC 7540, 8.1.2).
+	 */
+	private static class FieldCollector {
+		private Map<String,String> pseudo = new HashMap<>();
+		private Map<String,String> regular = new LinkedHashMap<>();
+		private List<String> setCookies = new ArrayList<>();
+		private String malformed;
+		
+		public void add(String name, String value) {
+			if (malformed != null) {
+				return;
+			}
+			if (name.startsWith(":")) {
+				if (!regular.isEmpty() || !setCookies.isEmpty()) {
+					malformed = "Pseudo-header field after regular field.";
+				} else if (pseudo.put(name, value) != null) {
+					malformed = "Repeated pseudo-header field.";
+				}
+				return;
+			}
+			for (int i = 0; i < name.length(); i++) {
+				char ch = name.charAt(i);
+				if (ch >= 'A' && ch <= 'Z') {
+					malformed = "Upper case field name.";
+					return;
+				}
+			}
+			switch (name) {
+			case "connection":
+			case "keep-alive":
+			case "proxy-connection":
+			case "transfer-encoding":
+			case "upgrade":
+				// RFC 7540, 8.1.2.2
+				malformed = "Connection-specific field.";
+				return;
+			case "te":
+				if (!value.equals("trailers")) {
+					malformed = "Invalid TE field.";
+					return;
+				}
+				break;
+			case "set-cookie":
+				setCookies.add(value);
+				return;
+			default:
+				break;
+			}
+			// RFC 7540, 8.1.2.5 and RFC 7230, 3.2.2
+			regular.merge(name, value, (existing, added) -> existing 
+					+ (name.equals("cookie") ? "; " : ", ") + added);
+		}
+		
+		public void applyTo(HttpMessageHeader header) throws ParseException {
+			if (malformed != null) {
+				throw new ParseException(malformed, 0);
+			}
+			for (Map.Entry<String, String> entry: regular.entrySet()) {
+				// Like the HTTP/1.x decoders, provide the unquoted
+				// text if possible.
+				String value = entry.getValue();
+				try {
+					value = Converters.STRING.fromFieldValue(value);
+				} catch (ParseException e) {
+					// Use trimmed text
+				}
+				header.setField(new HttpField<>(
+						entry.getKey(), value, Converters.STRING));
+			}
+			if (setCookies.isEmpty()) {
+				return;
+			}
+			CookieList cookies = new CookieList();
+			for (String value: setCookies) {
+				for (HttpCookie cookie: Converters.SET_COOKIE
+						.fromFieldValue(value)) {
+					cookies.add(cookie);
+				}
+			}
+			header.setField(new HttpField<>(
+					HttpField.SET_COOKIE, cookies, Converters.SET_COOKIE));
+		}
+	}
+	
+	/**
+	 * Results from {@link Http2Decoder} add no additional
+	 * information to {@link org.jdrupes.httpcodec.Decoder.Result}. This
+	 * class just provides a factory for creating concrete results.
+	 * 
+	 * The class is declared abstract to promote the usage of the factory
+	 * method.
+	 */
+	public abstract static class Result
+		extends Decoder.Result<Http2Frame> {
+
+		protected Result(boolean overflow, boolean underflow,
+		        boolean closeConnection, boolean headerCompleted,
+		        Http2Frame response, boolean responseOnly) {
+			super(overflow, underflow, closeConnection, headerCompleted, 
+					response, responseOnly);
+		}
+
+		protected static class Factory 
+			extends Decoder.Result.Factory<Http2Frame> {
+			
+			/**
+			 * Create a new result.
+			 * 
+			 * @param overflow
+			 *            {@code true} if the data didn't fit in the out buffer
+			 * @param underflow
+			 *            {@code true} if more data is expected
+			 * @param closeConnection
+			 *            {@code true} if the connection should be closed
+			 * @param headerCompleted
+			 *            {@code true} if the header has completely been decoded
+			 * @param response
+			 *            a frame to send in response to the received frame
+			 * @param responseOnly
+			 *            if the result includes a response this flag indicates
+			 *            that no further processing besides sending the
+			 *            response is required
+			 * @return the result
+			 */
+			public Result newResult(boolean overflow, boolean underflow, 
+					boolean closeConnection, boolean headerCompleted, 
+					Http2Frame response, boolean responseOnly) {
+				return new Result(overflow, underflow, closeConnection,
+						headerCompleted, response, responseOnly) {
+				};
+			}
+		}
+	}
+}
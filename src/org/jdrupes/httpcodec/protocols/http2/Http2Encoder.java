@@ -0,0 +1,490 @@
+/*
+ * This file is part of the JDrupes non-blocking HTTP Codec
+ * Copyright (C) 2018  Michael N. Lipp
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jdrupes.httpcodec.protocols.http2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.Optional;
+
+import org.jdrupes.httpcodec.Codec;
+import org.jdrupes.httpcodec.Decoder;
+import org.jdrupes.httpcodec.Encoder;
+import org.jdrupes.httpcodec.protocols.http.HttpField;
+import org.jdrupes.httpcodec.protocols.http.HttpMessageHeader;
+import org.jdrupes.httpcodec.protocols.http.HttpRequest;
+import org.jdrupes.httpcodec.protocols.http.HttpResponse;
+import org.jdrupes.httpcodec.protocols.http2.Http2Constants.ErrorCode;
+import org.jdrupes.httpcodec.types.Converter;
+import org.jdrupes.httpcodec.types.MultiValueConverter;
+import org.jdrupes.httpcodec.util.ByteBufferUtils;
+
+import static org.jdrupes.httpcodec.protocols.http2.Http2Constants.*;
+
+/**
+ * The HTTP/2 encoder.
+ * <P>
+ * The connection preface (on the client side) and the initial 
+ * SETTINGS frame are sent before the first frame passed to
+ * {@link #encode(Http2Frame)}. Frames other than DATA frames are
+ * serialized when passed to {@link #encode(Http2Frame)} and written
+ * to the out buffer by the subsequent invocations of 
+ * {@link #encode(Buffer, ByteBuffer, boolean)}. HEADERS frames 
+ * are split into CONTINUATION frames if the header block exceeds the
+ * peer's maximum frame size.
+ * <P>
+ * Data passed to {@link #encode(Buffer, ByteBuffer, boolean)} is sent
+ * in DATA frames on the stream of the last {@link Http2HeadersFrame}
+ * with a payload or the stream selected with an 
+ * {@link Http2DataFrame}. The size of the DATA frames is limited by 
+ * the flow-control windows (RFC 7540, 5.2). If the windows are 
+ * exhausted, the encoder returns a result that indicates neither
+ * an overflow nor an underflow while the in buffer still
+ * has remaining data. Encoding must be resumed after a
+ * WINDOW_UPDATE frame has been received.
+ * <P>
+ * An invocation with an empty in buffer while there are serialized 
+ * frames waiting to be sent only flushes these frames. This allows
+ * responses to be sent (such as PING acknowledgements) without 
+ * ending the DATA frames of a stream.
+ */
+public class Http2Encoder extends Http2Codec
+	implements Encoder<Http2Frame, Http2Frame> {
+
+	private static final byte[] PREFACE_BYTES 
+		= CONNECTION_PREFACE.getBytes(StandardCharsets.ISO_8859_1);
+
+	private static Result.Factory resultFactory = new Result.Factory();
+
+	private boolean started;
+	private Deque<ByteBuffer> pending = new ArrayDeque<>();
+	private Http2Frame messageHeader;
+	private Http2Stream dataStream;
+	private boolean closeConnection;
+	
+	/**
+	 * Creates a new encoder for a connection that starts with
+	 * the connection preface.
+	 * 
+	 * @param client `true` if the encoder is used on the client side
+	 */
+	public Http2Encoder(boolean client) {
+		super(client);
+	}
+
+	/**
+	 * Creates a new encoder for a connection that has been 
+	 * upgraded from HTTP/1.1. The upgrade request is considered
+	 * to have been sent (or received) on stream 1.
+	 * 
+	 * @param client `true` if the encoder is used on the client side
+	 * @param upgraded the request that caused the upgrade
+	 */
+	public Http2Encoder(boolean client, HttpRequest upgraded) {
+		super(client, upgraded);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.jdrupes.httpcodec.Encoder#setPeerDecoder(org.jdrupes.httpcodec.Decoder)
+	 */
+	@Override
+	public Encoder<Http2Frame, Http2Frame> setPeerDecoder(
+			Decoder<Http2Frame, Http2Frame> decoder) {
+		linkConnection((Http2Codec)decoder);
+		return this;
+	}
+
+	/**
+	 * Returns the result factory for this codec.
+	 * 
+	 * @return the factory
+	 */
+	protected Result.Factory resultFactory() {
+		return resultFactory;
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.jdrupes.httpcodec.Encoder#encoding()
+	 */
+	@Override
+	public Class<Http2Frame> encoding() {
+		return Http2Frame.class;
+	}
+
+	/**
+	 * Returns the last frame passed to {@link #encode(Http2Frame)}.
+	 * 
+	 * @return the frame
+	 */
+	@Override
+	public Optional<Http2Frame> header() {
+		return Optional.ofNullable(messageHeader);
+	}
+
+	/**
+	 * Returns the id to be used for the next stream initiated
+	 * by this endpoint.
+	 * 
+	 * @return the id
+	 */
+	public int nextStreamId() {
+		return connection().nextLocalId();
+	}
+	
+	/**
+	 * Serializes the given frame. Non-acknowledging SETTINGS frames 
+	 * cannot be passed to this method, the settings are sent
+	 * by the encoder automatically.
+	 * 
+	 * @param frame the frame
+	 * @throws IllegalArgumentException if a frame cannot be sent
+	 * @throws IllegalStateException if the frame's stream does 
+	 * not allow sending frames
+	 */
+	@Override
+	public void encode(Http2Frame frame) {
+		start();
+		messageHeader = frame;
+		Http2Connection conn = connection();
+		if (frame instanceof Http2HeadersFrame) {
+			encodeHeaders((Http2HeadersFrame)frame);
+		} else if (frame instanceof Http2DataFrame) {
+			Http2Stream stream = conn.stream(frame.streamId());
+			if (stream == null || !stream.canSend()) {
+				throw new IllegalStateException(
+						"Stream " + frame.streamId() + " is closed.");
+			}
+			dataStream = stream;
+		} else if (frame instanceof Http2SettingsFrame) {
+			if (!((Http2SettingsFrame)frame).isAck()) {
+				throw new IllegalArgumentException(
+						"Settings are sent automatically.");
+			}
+			pending.add(serialize(SETTINGS, FLAG_ACK, 0, new byte[0]));
+		} else if (frame instanceof Http2PingFrame) {
+			Http2PingFrame ping = (Http2PingFrame)frame;
+			pending.add(serialize(PING, ping.isAck() ? FLAG_ACK : 0, 0,
+					ByteBuffer.allocate(8).putLong(ping.opaqueData())
+					.array()));
+		} else if (frame instanceof Http2GoAwayFrame) {
+			Http2GoAwayFrame goAway = (Http2GoAwayFrame)frame;
+			byte[] debugData = goAway.debugData() == null ? new byte[0]
+					: goAway.debugData().getBytes(StandardCharsets.UTF_8);
+			pending.add(serialize(GOAWAY, 0, 0, 
+					ByteBuffer.allocate(8 + debugData.length)
+					.putInt(goAway.lastStreamId())
+					.putInt(goAway.errorCode().code()).put(debugData)
+					.array()));
+			conn.setGoAwaySent();
+			closeConnection = goAway.errorCode() != ErrorCode.NO_ERROR;
+		} else if (frame instanceof Http2RstStreamFrame) {
+			Http2RstStreamFrame reset = (Http2RstStreamFrame)frame;
+			pending.add(serialize(RST_STREAM, 0, frame.streamId(), 
+					ByteBuffer.allocate(4)
+					.putInt(reset.errorCode().code()).array()));
+			Http2Stream stream = conn.stream(frame.streamId());
+			if (stream != null) {
+				stream.reset();
+				conn.closeIfDone(stream);
+			}
+		} else if (frame instanceof Http2WindowUpdateFrame) {
+			pending.add(serialize(WINDOW_UPDATE, 0, frame.streamId(), 
+					ByteBuffer.allocate(4).putInt(
+					((Http2WindowUpdateFrame)frame).increment()).array()));
+		} else {
+			throw new IllegalArgumentException("Unsupported frame.");
+		}
+	}
+
+	private void start() {
+		if (started) {
+			return;
+		}
+		started = true;
+		// RFC 7540, 3.5
+		if (isClient()) {
+			pending.add(ByteBuffer.wrap(PREFACE_BYTES));
+		}
+		pending.add(serialize(SETTINGS, 0, 0, Http2Connection
+				.settingsPayload(connection().initialSettings())));
+	}
+
+	private void encodeHeaders(Http2HeadersFrame frame) {
+		Http2Connection conn = connection();
+		int streamId = frame.streamId();
+		Http2Stream stream = conn.stream(streamId);
+		if (stream == null) {
+			if (streamId == 0 || conn.isRemoteInitiated(streamId)
+					|| !conn.isIdle(streamId)) {
+				throw new IllegalStateException(
+						"Stream " + streamId + " cannot be opened.");
+			}
+			stream = conn.newStream(streamId);
+		}
+		if (!stream.canSend()) {
+			throw new IllegalStateException(
+					"Stream " + streamId + " is closed.");
+		}
+		HttpMessageHeader header = frame.messageHeader();
+		byte[] block = headerBlock(header, frame.isTrailers());
+		int maxFrameSize = conn.peerMaxFrameSize();
+		int offset = 0;
+		int type = HEADERS;
+		do {
+			int length = Math.min(block.length - offset, maxFrameSize);
+			int flags = 0;
+			if (type == HEADERS && frame.isEndStream()) {
+				flags |= FLAG_END_STREAM;
+			}
+			if (offset + length == block.length) {
+				flags |= FLAG_END_HEADERS;
+			}
+			pending.add(serialize(type, flags, streamId, block, 
+					offset, length));
+			offset += length;
+			type = CONTINUATION;
+		} while (offset < block.length);
+		if (!frame.isTrailers()) {
+			stream.setSentHeader(header);
+		}
+		stream.sent(frame.isEndStream());
+		conn.closeIfDone(stream);
+		dataStream = frame.isEndStream() ? null : stream;
+	}
+
+	private byte[] headerBlock(HttpMessageHeader header, boolean trailers) {
+		HpackEncoder hpack = connection().hpackEncoder();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			if (!trailers) {
+				// RFC 7540, 8.1.2.3 and 8.1.2.4
+				if (header instanceof HttpResponse) {
+					hpack.encode(":status", Integer.toString(
+							((HttpResponse)header).statusCode()), false, out);
+				} else {
+					HttpRequest request = (HttpRequest)header;
+					URI uri = request.requestUri();
+					hpack.encode(":method", request.method(), false, out);
+					hpack.encode(":scheme", uri.getScheme() == null 
+							? "http" : uri.getScheme(), false, out);
+					String authority = request.findStringValue(
+							HttpField.HOST).orElse(uri.getHost() == null 
+							? null : uri.getHost() + (uri.getPort() < 0 ? "" 
+							: (":" + uri.getPort())));
+					if (authority != null) {
+						hpack.encode(":authority", authority, false, out);
+					}
+					hpack.encode(":path", pathOf(uri), false, out);
+				}
+			}
+			for (HttpField<?> field: header.fields().values()) {
+				String name = field.name().toLowerCase(Locale.ROOT);
+				switch (name) {
+				case "connection":
+				case "keep-alive":
+				case "proxy-connection":
+				case "transfer-encoding":
+				case "upgrade":
+				case "host":
+				case "http2-settings":
+					// RFC 7540, 8.1.2.2
+					continue;
+				default:
+					break;
+				}
+				boolean sensitive = name.equals("authorization")
+						|| name.equals("proxy-authorization");
+				Converter<?> converter = field.converter();
+				if (converter instanceof MultiValueConverter
+						&& ((MultiValueConverter<?,?>)converter)
+						.separateValues()) {
+					// Like HttpField.asHeaderField, send items separately
+					@SuppressWarnings("unchecked")
+					MultiValueConverter<Iterable<Object>, Object> seqConverter
+						= (MultiValueConverter<Iterable<Object>, Object>)
+							converter;
+					@SuppressWarnings("unchecked")
+					Iterable<Object> items = (Iterable<Object>)field.value();
+					for (Object item: items) {
+						hpack.encode(name, seqConverter.valueConverter()
+								.asFieldValue(item), sensitive, out);
+					}
+					continue;
+				}
+				hpack.encode(name, field.asFieldValue(), sensitive, out);
+			}
+		} catch (IOException e) {
+			// Formally thrown by stream, cannot happen.
+		}
+		return out.toByteArray();
+	}
+	
+	private static String pathOf(URI uri) {
+		if (uri == HttpRequest.ASTERISK_REQUEST) {
+			return "*";
+		}
+		String path = uri.getRawPath();
+		if (path == null || path.isEmpty()) {
+			path = "/";
+		}
+		if (uri.getRawQuery() != null) {
+			path += "?" + uri.getRawQuery();
+		}
+		return path;
+	}
+	
+	private static ByteBuffer serialize(int type, int flags, int streamId,
+			byte[] payload) {
+		return serialize(type, flags, streamId, payload, 0, payload.length);
+	}
+	
+	private static ByteBuffer serialize(int type, int flags, int streamId,
+			byte[] payload, int offset, int length) {
+		ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER_SIZE + length);
+		putFrameHeader(frame, length, type, flags, streamId);
+		frame.put(payload, offset, length);
+		frame.flip();
+		return frame;
+	}
+
+	private static void putFrameHeader(ByteBuffer out, int length, int type,
+			int flags, int streamId) {
+		out.put((byte)(length >> 16));
+		out.putShort((short)length);
+		out.put((byte)type);
+		out.put((byte)flags);
+		out.putInt(streamId);
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.jdrupes.httpcodec.Encoder#encode(java.nio.Buffer, java.nio.ByteBuffer, boolean)
+	 */
+	@Override
+	public Result encode(Buffer in, ByteBuffer out, boolean endOfInput) {
+		if (!(in instanceof ByteBuffer)) {
+			throw new IllegalArgumentException(
+					"Only ByteBuffers are allowed.");
+		}
+		ByteBuffer data = (ByteBuffer)in;
+		start();
+		boolean flushOnly = !pending.isEmpty() && !data.hasRemaining();
+		while (!pending.isEmpty()) {
+			ByteBuffer frame = pending.peek();
+			ByteBufferUtils.putAsMuchAsPossible(out, frame);
+			if (frame.hasRemaining()) {
+				return resultFactory().newResult(true, false, false);
+			}
+			pending.poll();
+		}
+		if (closeConnection) {
+			return resultFactory().newResult(false, false, true);
+		}
+		if (flushOnly || dataStream == null) {
+			return resultFactory().newResult(false, 
+					dataStream != null && dataStream.canSend(), false);
+		}
+		return encodeData(data, out, endOfInput);
+	}
+
+	private Result encodeData(ByteBuffer data, ByteBuffer out, 
+			boolean endOfInput) {
+		Http2Connection conn = connection();
+		while (true) {
+			if (!dataStream.canSend()) {
+				// Reset by peer, data is discarded
+				data.position(data.limit());
+				dataStream = null;
+				return resultFactory().newResult(false, false, false);
+			}
+			long window = Math.min(conn.sendWindow(), 
+					dataStream.sendWindow());
+			int available = (int)Math.min(data.remaining(), 
+					Math.min(window, conn.peerMaxFrameSize()));
+			if (available <= 0 && (!endOfInput || data.hasRemaining())) {
+				// Either more data is needed or we have to wait for
+				// a WINDOW_UPDATE
+				return resultFactory().newResult(
+						false, !data.hasRemaining(), false);
+			}
+			if (out.remaining() <= FRAME_HEADER_SIZE) {
+				return resultFactory().newResult(true, false, false);
+			}
+			int length = Math.min(available, 
+					out.remaining() - FRAME_HEADER_SIZE);
+			boolean endStream = endOfInput && length == data.remaining();
+			putFrameHeader(out, length, DATA, 
+					endStream ? FLAG_END_STREAM : 0, dataStream.id());
+			ByteBufferUtils.putAsMuchAsPossible(out, data, length);
+			conn.consumeSendWindow(length);
+			dataStream.consumeSendWindow(length);
+			if (endStream) {
+				dataStream.sent(true);
+				conn.closeIfDone(dataStream);
+				dataStream = null;
+				return resultFactory().newResult(false, false, false);
+			}
+		}
+	}
+	
+	/**
+	 * Results from {@link Http2Encoder} add no additional
+	 * information to {@link org.jdrupes.httpcodec.Codec.Result}. This
+	 * class just provides a factory for creating concrete results.
+	 * 
+	 * The class is declared abstract to promote the usage of the factory
+	 * method.
+	 */
+	public abstract static class Result extends Codec.Result {
+	
+		protected Result(boolean overflow, boolean underflow,
+		        boolean closeConnection) {
+			super(overflow, underflow, closeConnection);
+		}
+
+		/**
+		 * A factory for creating new Results.
+		 */
+		protected static class Factory extends Codec.Result.Factory {
+
+			/**
+			 * Create new result.
+			 * 
+			 * @param overflow
+			 *            {@code true} if the data didn't fit in the out buffer
+			 * @param underflow
+			 *            {@code true} if more data is expected
+			 * @param closeConnection
+			 *            {@code true} if the connection should be closed
+			 * @return the result
+			 */
+			public Result newResult(boolean overflow, boolean underflow,
+			        boolean closeConnection) {
+				return new Result(overflow, underflow, closeConnection) {
+				};
+			}
+		}
+	}
+}
@@ -0,0 +1,69 @@
+/*
+ * This file is part of the JDrupes non-blocking HTTP Codec
+ * Copyright (C) 2018  Michael N. Lipp
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jdrupes.httpcodec.protocols.http2;
+
+import org.jdrupes.httpcodec.MessageHeader;
+
+/**
+ * The base class for all HTTP/2 frame headers.
+ * <P>
+ * Besides the frame types defined by HTTP/2, this API knows the 
+ * "header" frame {@link Http2HeadersFrame}, which represents a 
+ * complete header block, i.e. a `HEADERS` frame and its 
+ * `CONTINUATION` frames.
+ */
+public abstract class Http2Frame implements MessageHeader {
+
+	private int streamId;
+
+	/**
+	 * Creates a new frame.
+	 * 
+	 * @param streamId the stream id
+	 */
+	protected Http2Frame(int streamId) {
+		this.streamId = streamId;
+	}
+
+	/**
+	 * Returns the stream id.
+	 * 
+	 * @return the stream id (0 for frames that apply to the connection)
+	 */
+	public int streamId() {
+		return streamId;
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.jdrupes.httpcodec.MessageHeader#hasPayload()
+	 */
+	@Override
+	public boolean hasPayload() {
+		return false;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.jdrupes.httpcodec.MessageHeader#isFinal()
+	 */
+	@Override
+	public boolean isFinal() {
+		return false;
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * This file is part of the JDrupes non-blocking HTTP Codec
+ * Copyright (C) 2018  Michael N. Lipp
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jdrupes.httpcodec.protocols.http2;
+
+import org.jdrupes.httpcodec.protocols.http2.Http2Constants.ErrorCode;
+
+/**
+ * Represents a `GOAWAY` frame (RFC 7540, 6.8).
+ */
+public class Http2GoAwayFrame extends Http2Frame {
+
+	private int lastStreamId;
+	private ErrorCode errorCode;
+	private String debugData;
+	
+	/**
+	 * Creates a new frame.
+	 * 
+	 * @param lastStreamId the id of the last stream that has been
+	 * (or might be) processed
+	 * @param errorCode the error code
+	 * @param debugData additional information, may be `null`
+	 */
+	public Http2GoAwayFrame(int lastStreamId, ErrorCode errorCode, 
+			String debugData) {
+		super(0);
+		this.lastStreamId = lastStreamId;
+		this.errorCode = errorCode;
+		this.debugData = debugData == null ? "" : debugData;
+	}
+
+	/**
+	 * Returns the id of the last stream that has been processed.
+	 * 
+	 * @return the id
+	 */
+	public int lastStreamId() {
+		return lastStreamId;
+	}
+
+	/**
+	 * Returns the error code.
+	 * 
+	 * @return the error code
+	 */
+	public ErrorCode errorCode() {
+		return errorCode;
+	}
+
+	/**
+	 * Returns the additional information.
+	 * 
+	 * @return the information
+	 */
+	public String debugData() {
+		return debugData;
+	}
+	
+	/* (non-Javadoc)
+	 * @see Http2Frame#isFinal()
+	 */
+	@Override
+	public boolean isFinal() {
+		return true;
+	}
+}
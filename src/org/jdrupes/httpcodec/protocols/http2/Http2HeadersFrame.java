@@ -0,0 +1,101 @@
+/*
+ * This file is part of the JDrupes non-blocking HTTP Codec
+ * Copyright (C) 2018  Michael N. Lipp
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jdrupes.httpcodec.protocols.http2;
+
+import org.jdrupes.httpcodec.protocols.http.HttpMessageHeader;
+
+/**
+ * Represents a complete header block, i.e. a `HEADERS` frame and
+ * the `CONTINUATION` frames that follow it. The fields are made 
+ * available as (or taken from) an {@link HttpMessageHeader}, i.e. an
+ * {@link org.jdrupes.httpcodec.protocols.http.HttpRequest} or an
+ * {@link org.jdrupes.httpcodec.protocols.http.HttpResponse}.
+ */
+public class Http2HeadersFrame extends Http2Frame {
+
+	private HttpMessageHeader messageHeader;
+	private boolean endStream;
+	private boolean trailers;
+	
+	/**
+	 * Creates a new frame for sending the given message header. 
+	 * The stream is ended with this frame if the message header
+	 * has no payload.
+	 * 
+	 * @param streamId the stream id
+	 * @param messageHeader the message header
+	 */
+	public Http2HeadersFrame(int streamId, HttpMessageHeader messageHeader) {
+		this(streamId, messageHeader, !messageHeader.hasPayload(), false);
+	}
+
+	/**
+	 * Creates a new frame.
+	 * 
+	 * @param streamId the stream id
+	 * @param messageHeader the message header
+	 * @param endStream set if the stream ends with this frame
+	 * @param trailers set if the block contains trailing fields
+	 */
+	Http2HeadersFrame(int streamId, HttpMessageHeader messageHeader,
+			boolean endStream, boolean trailers) {
+		super(streamId);
+		this.messageHeader = messageHeader;
+		this.endStream = endStream;
+		this.trailers = trailers;
+	}
+
+	/**
+	 * Returns the message header.
+	 * 
+	 * @return the message header
+	 */
+	public HttpMessageHeader messageHeader() {
+		return messageHeader;
+	}
+
+	/**
+	 * Returns `true` if the stream ends with this frame.
+	 * 
+	 * @return the result
+	 */
+	public boolean isEndStream() {
+		return endStream;
+	}
+
+	/**
+	 * Returns `true` if the block contains trailing fields. The 
+	 * trailing fields are added to the message header received 
+	 * before.
+	 * 
+	 * @return the result
+	 */
+	public boolean isTrailers() {
+		return trailers;
+	}
+	
+	/* (non-Javadoc)
+	 * @see Http2Frame#hasPayload()
+	 */
+	@Override
+	public boolean hasPayload() {
+		return !endStream;
+	}
+}
@@ -0,0 +1,59 @@
+/*
+ * This file is part of the JDrupes non-blocking HTTP Codec
+ * Copyright (C) 2018  Michael N. Lipp
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jdrupes.httpcodec.protocols.http2;
+
+/**
+ * Represents a `PING` frame (RFC 7540, 6.7).
+ */
+public class Http2PingFrame extends Http2Frame {
+
+	private long opaqueData;
+	private boolean ack;
+	
+	/**
+	 * Creates a new frame.
+	 * 
+	 * @param opaqueData the data
+	 * @param ack set if this frame is a response
+	 */
+	public Http2PingFrame(long opaqueData, boolean ack) {
+		super(0);
+		this.opaqueData = opaqueData;
+		this.ack = ack;
+	}
+
+	/**
+	 * Returns the data.
+	 * 
+	 * @return the data
+	 */
+	public long opaqueData() {
+		return opaqueData;
+	}
+
+	/**
+	 * Returns `true` if this frame is a response.
+	 * 
+	 * @return the result
+	 */
+	public boolean isAck() {
+		return ack;
+	}
+}
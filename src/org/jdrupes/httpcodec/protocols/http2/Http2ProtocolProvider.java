@@ -0,0 +1,163 @@
+/*
+ * This file is part of the JDrupes non-blocking HTTP Codec
+ * Copyright (C) 2018  Michael N. Lipp
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jdrupes.httpcodec.protocols.http2;
+
+import java.util.Optional;
+
+import org.jdrupes.httpcodec.Decoder;
+import org.jdrupes.httpcodec.Encoder;
+import org.jdrupes.httpcodec.ProtocolException;
+import org.jdrupes.httpcodec.plugin.UpgradeProvider;
+import org.jdrupes.httpcodec.protocols.http.HttpConstants.HttpStatus;
+import org.jdrupes.httpcodec.protocols.http.HttpField;
+import org.jdrupes.httpcodec.protocols.http.HttpRequest;
+import org.jdrupes.httpcodec.protocols.http.HttpResponse;
+import org.jdrupes.httpcodec.types.Converters;
+import org.jdrupes.httpcodec.types.StringList;
+
+/**
+ * A protocol provider for HTTP/2 over cleartext TCP ("h2c", 
+ * see [RFC 7540, 3.2](https://tools.ietf.org/html/rfc7540#section-3.2)).
+ * <P>
+ * The request that causes the upgrade is considered to have been 
+ * sent on stream 1. The server must therefore send the response
+ * to this request on stream 1 using the {@link Http2Encoder} that
+ * is created when the protocol is switched.
+ */
+public class Http2ProtocolProvider extends UpgradeProvider {
+
+	/** The name of the header field with the client's settings. */
+	public static final String HTTP2_SETTINGS = "HTTP2-Settings";
+	
+	/* (non-Javadoc)
+	 * @see ProtocolProvider#supportsProtocol(java.lang.String)
+	 */
+	@Override
+	public boolean supportsProtocol(String protocol) {
+		return protocol.equalsIgnoreCase("h2c");
+	}
+
+	/* (non-Javadoc)
+	 * @see org.jdrupes.httpcodec.plugin.UpgradeProvider#augmentInitialRequest
+	 */
+	@Override
+	public void augmentInitialRequest(HttpRequest request) {
+		// RFC 7540, 3.2.1
+		request.setField(new HttpField<String>(HTTP2_SETTINGS, 
+				Http2Connection.encodeSettings(
+						new Http2Connection(true).initialSettings()),
+				Converters.UNQUOTED_STRING));
+		request.computeIfAbsent(HttpField.CONNECTION,
+				Converters.STRING_LIST, StringList::new)
+			.value().appendIfNotContained(HTTP2_SETTINGS);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.jdrupes.httpcodec.plugin.UpgradeProvider#checkSwitchingResponse
+	 */
+	@Override
+	public void checkSwitchingResponse(HttpRequest request, 
+			HttpResponse response) throws ProtocolException {
+		// Nothing to check, RFC 7540, 3.2
+	}
+
+	/* (non-Javadoc)
+	 * @see ProtocolProvider#augmentInitialResponse
+	 */
+	@Override
+	public void augmentInitialResponse(HttpResponse response) {
+		// RFC 7540, 3.2.1
+		Optional<Http2SettingsFrame> settings = response.request()
+			.flatMap(r -> r.findStringValue(HTTP2_SETTINGS))
+			.map(Http2Connection::decodeSettings);
+		if (!settings.isPresent()) {
+			response.setStatus(HttpStatus.BAD_REQUEST)
+				.setHasPayload(false).clearHeaders();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see ProtocolProvider#createRequestEncoder()
+	 */
+	@Override
+	public Encoder<?, ?> createRequestEncoder(String protocol) {
+		return new Http2Encoder(true);
+	}
+
+	/* (non-Javadoc)
+	 * @see ProtocolProvider#createRequestDecoder()
+	 */
+	@Override
+	public Decoder<?, ?> createRequestDecoder(String protocol) {
+		return new Http2Decoder(false);
+	}
+
+	/* (non-Javadoc)
+	 * @see ProtocolProvider#createResponseEncoder()
+	 */
+	@Override
+	public Encoder<?, ?> createResponseEncoder(String protocol) {
+		return new Http2Encoder(false);
+	}
+
+	/* (non-Javadoc)
+	 * @see ProtocolProvider#createResponseDecoder()
+	 */
+	@Override
+	public Decoder<?, ?> createResponseDecoder(String protocol) {
+		return new Http2Decoder(true);
+	}
+
+	/* (non-Javadoc)
+	 * @see ProtocolProvider#createRequestEncoder(String, HttpResponse)
+	 */
+	@Override
+	public Encoder<?, ?> createRequestEncoder(
+			String protocol, HttpResponse response) {
+		return new Http2Encoder(true, response.request().orElse(null));
+	}
+
+	/* (non-Javadoc)
+	 * @see ProtocolProvider#createRequestDecoder(String, HttpResponse)
+	 */
+	@Override
+	public Decoder<?, ?> createRequestDecoder(
+			String protocol, HttpResponse response) {
+		return new Http2Decoder(false, response.request().orElse(null));
+	}
+
+	/* (non-Javadoc)
+	 * @see ProtocolProvider#createResponseEncoder(String, HttpResponse)
+	 */
+	@Override
+	public Encoder<?, ?> createResponseEncoder(
+			String protocol, HttpResponse response) {
+		return new Http2Encoder(false, response.request().orElse(null));
+	}
+
+	/* (non-Javadoc)
+	 * @see ProtocolProvider#createResponseDecoder(String, HttpResponse)
+	 */
+	@Override
+	public Decoder<?, ?> createResponseDecoder(
+			String protocol, HttpResponse response) {
+		return new Http2Decoder(true, response.request().orElse(null));
+	}
+}
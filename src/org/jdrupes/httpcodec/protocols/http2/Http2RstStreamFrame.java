@@ -0,0 +1,50 @@
+/*
+ * This file is part of the JDrupes non-blocking HTTP Codec
+ * Copyright (C) 2018  Michael N. Lipp
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jdrupes.httpcodec.protocols.http2;
+
+import org.jdrupes.httpcodec.protocols.http2.Http2Constants.ErrorCode;
+
+/**
+ * Represents a `RST_STREAM` frame (RFC 7540, 6.4).
+ */
+public class Http2RstStreamFrame extends Http2Frame {
+
+	private ErrorCode errorCode;
+	
+	/**
+	 * Creates a new frame.
+	 * 
+	 * @param streamId the stream id
+	 * @param errorCode the error code
+	 */
+	public Http2RstStreamFrame(int streamId, ErrorCode errorCode) {
+		super(streamId);
+		this.errorCode = errorCode;
+	}
+
+	/**
+	 * Returns the error code.
+	 * 
+	 * @return the error code
+	 */
+	public ErrorCode errorCode() {
+		return errorCode;
+	}
+}
@@ -0,0 +1,73 @@
+/*
+ * This file is part of the JDrupes non-blocking HTTP Codec
+ * Copyright (C) 2018  Michael N. Lipp
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jdrupes.httpcodec.protocols.http2;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Represents a `SETTINGS` frame (RFC 7540, 6.5).
+ */
+public class Http2SettingsFrame extends Http2Frame {
+
+	private boolean ack;
+	private Map<Integer,Long> parameters = new LinkedHashMap<>();
+	
+	/**
+	 * Creates a new frame.
+	 * 
+	 * @param ack set if this frame acknowledges the peer's settings
+	 */
+	public Http2SettingsFrame(boolean ack) {
+		super(0);
+		this.ack = ack;
+	}
+
+	/**
+	 * Returns `true` if this frame acknowledges the peer's settings.
+	 * 
+	 * @return the result
+	 */
+	public boolean isAck() {
+		return ack;
+	}
+	
+	/**
+	 * Sets a parameter.
+	 * 
+	 * @param identifier the identifier
+	 * @param value the value
+	 * @return the frame for easy chaining
+	 */
+	public Http2SettingsFrame set(int identifier, long value) {
+		parameters.put(identifier, value);
+		return this;
+	}
+	
+	/**
+	 * Returns the parameters.
+	 * 
+	 * @return the parameters as unmodifiable map
+	 */
+	public Map<Integer,Long> parameters() {
+		return Collections.unmodifiableMap(parameters);
+	}
+}
@@ -0,0 +1,248 @@
+/*
+ * This file is part of the JDrupes non-blocking HTTP Codec
+ * Copyright (C) 2018  Michael N. Lipp
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jdrupes.httpcodec.protocols.http2;
+
+import java.util.Optional;
+
+import org.jdrupes.httpcodec.protocols.http.HttpMessageHeader;
+
+/**
+ * The state of a stream (RFC 7540, 5.1) and its flow-control 
+ * windows (RFC 7540, 5.2). The states related to server push
+ * are not used because server push is not supported.
+ */
+public class Http2Stream {
+
+	/**
+	 * The states of a stream.
+	 */
+	public enum State { IDLE, OPEN, HALF_CLOSED_LOCAL, HALF_CLOSED_REMOTE,
+		CLOSED }
+	
+	private int id;
+	private State state = State.IDLE;
+	private long sendWindow;
+	private long receiveWindow;
+	private long unacknowledged;
+	private HttpMessageHeader sentHeader;
+	private HttpMessageHeader receivedHeader;
+	private boolean finalHeaderReceived;
+
+	/**
+	 * Creates a new stream.
+	 * 
+	 * @param id the id
+	 * @param sendWindow the initial size of the send window
+	 * @param receiveWindow the initial size of the receive window
+	 */
+	Http2Stream(int id, long sendWindow, long receiveWindow) {
+		this.id = id;
+		this.sendWindow = sendWindow;
+		this.receiveWindow = receiveWindow;
+	}
+
+	/**
+	 * Returns the id.
+	 * 
+	 * @return the id
+	 */
+	public int id() {
+		return id;
+	}
+
+	/**
+	 * Returns the state.
+	 * 
+	 * @return the state
+	 */
+	public State state() {
+		return state;
+	}
+
+	/**
+	 * Returns the number of bytes that may currently be sent
+	 * (not taking the connection's window into account).
+	 * 
+	 * @return the size of the window
+	 */
+	public long sendWindow() {
+		return sendWindow;
+	}
+
+	/**
+	 * Returns the number of bytes that the peer may currently send.
+	 * 
+	 * @return the size of the window
+	 */
+	public long receiveWindow() {
+		return receiveWindow;
+	}
+
+	/**
+	 * Returns the header sent on the stream.
+	 * 
+	 * @return the header
+	 */
+	public Optional<HttpMessageHeader> sentHeader() {
+		return Optional.ofNullable(sentHeader);
+	}
+
+	/**
+	 * Returns the header received on the stream.
+	 * 
+	 * @return the header
+	 */
+	public Optional<HttpMessageHeader> receivedHeader() {
+		return Optional.ofNullable(receivedHeader);
+	}
+
+	void setSentHeader(HttpMessageHeader sentHeader) {
+		this.sentHeader = sentHeader;
+	}
+
+	/**
+	 * Sets the received header. Marks the header as final unless 
+	 * it is an informational response.
+	 */
+	void setReceivedHeader(HttpMessageHeader receivedHeader, 
+			boolean isFinal) {
+		this.receivedHeader = receivedHeader;
+		finalHeaderReceived = isFinal;
+	}
+	
+	boolean isFinalHeaderReceived() {
+		return finalHeaderReceived;
+	}
+	
+	/**
+	 * Checks whether frames may be sent on the stream. A stream in
+	 * state "idle" is opened by sending a HEADERS frame.
+	 */
+	boolean canSend() {
+		return state == State.IDLE || state == State.OPEN 
+				|| state == State.HALF_CLOSED_REMOTE;
+	}
+
+	/**
+	 * Checks whether frames may be received on the stream. A stream 
+	 * in state "idle" is opened by receiving a HEADERS frame.
+	 */
+	boolean canReceive() {
+		return state == State.IDLE || state == State.OPEN 
+				|| state == State.HALF_CLOSED_LOCAL;
+	}
+
+	/**
+	 * Updates the state after a frame has been sent.
+	 */
+	void sent(boolean endStream) {
+		switch (state) {
+		case IDLE:
+			state = endStream ? State.HALF_CLOSED_LOCAL : State.OPEN;
+			break;
+		case OPEN:
+			if (endStream) {
+				state = State.HALF_CLOSED_LOCAL;
+			}
+			break;
+		case HALF_CLOSED_REMOTE:
+			if (endStream) {
+				state = State.CLOSED;
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * Updates the state after a frame has been received.
+	 */
+	void received(boolean endStream) {
+		switch (state) {
+		case IDLE:
+			state = endStream ? State.HALF_CLOSED_REMOTE : State.OPEN;
+			break;
+		case OPEN:
+			if (endStream) {
+				state = State.HALF_CLOSED_REMOTE;
+			}
+			break;
+		case HALF_CLOSED_LOCAL:
+			if (endStream) {
+				state = State.CLOSED;
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	void reset() {
+		state = State.CLOSED;
+	}
+
+	/**
+	 * Adds to the send window.
+	 * 
+	 * @return `false` if the window exceeds the maximum size
+	 */
+	boolean addToSendWindow(long delta) {
+		sendWindow += delta;
+		return sendWindow <= Http2Constants.MAX_WINDOW_SIZE;
+	}
+
+	void consumeSendWindow(long bytes) {
+		sendWindow -= bytes;
+	}
+	
+	/**
+	 * Accounts for received data.
+	 * 
+	 * @return `false` if the window has been exceeded
+	 */
+	boolean consumeReceiveWindow(long bytes) {
+		receiveWindow -= bytes;
+		return receiveWindow >= 0;
+	}
+
+	/**
+	 * Records consumed data. Returns the window size increment 
+	 * to be sent to the peer if it has become worthwhile.
+	 * 
+	 * @param bytes the number of bytes consumed
+	 * @param initialWindow the initial window size
+	 * @return the increment or 0
+	 */
+	int consumed(long bytes, long initialWindow) {
+		unacknowledged += bytes;
+		if (unacknowledged < initialWindow / 2) {
+			return 0;
+		}
+		int increment = (int)unacknowledged;
+		receiveWindow += unacknowledged;
+		unacknowledged = 0;
+		return increment;
+	}
+	
+	void addToReceiveWindow(long delta) {
+		receiveWindow += delta;
+	}
+}
@@ -0,0 +1,53 @@
+/*
+ * This file is part of the JDrupes non-blocking HTTP Codec
+ * Copyright (C) 2018  Michael N. Lipp
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jdrupes.httpcodec.protocols.http2;
+
+/**
+ * Represents a `WINDOW_UPDATE` frame (RFC 7540, 6.9).
+ * <P>
+ * The decoder sends window updates automatically when data has 
+ * been consumed. Received window updates are reported because
+ * sending data that has been blocked by flow control may be 
+ * resumed.
+ */
+public class Http2WindowUpdateFrame extends Http2Frame {
+
+	private int increment;
+	
+	/**
+	 * Creates a new frame.
+	 * 
+	 * @param streamId the stream id or 0 for the connection
+	 * @param increment the window size increment
+	 */
+	public Http2WindowUpdateFrame(int streamId, int increment) {
+		super(streamId);
+		this.increment = increment;
+	}
+
+	/**
+	 * Returns the window size increment.
+	 * 
+	 * @return the increment
+	 */
+	public int increment() {
+		return increment;
+	}
+}
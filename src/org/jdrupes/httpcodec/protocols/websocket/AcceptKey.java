@@ -0,0 +1,134 @@
+/*
+ * This file is part of the JDrupes non-blocking HTTP Codec
+ * Copyright (C) 2018  Michael N. Lipp
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+
+
+package org.jdrupes.httpcodec.protocols.websocket;
+
+import java.nio.charset.StandardCharsets;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Computes the value of the `Sec-WebSocket-Accept` header field
+ * from the value of the `Sec-WebSocket-Key` header field as specified in
+ * [RFC 6455, 4.2.2](https://tools.ietf.org/html/rfc6455#section-4.2.2).
+ * <P>
+ * The SHA-1 digest and the buffers used for the computation are 
+ * kept per thread, avoiding the (synchronized) provider lookup and 
+ * the intermediate strings and arrays for each handshake.
+ */
+final class AcceptKey {
+
+	private static final byte[] MAGIC 
+		= "258EAFA5-E914-47DA-95CA-C5AB0DC85B11".getBytes(
+				StandardCharsets.US_ASCII);
+	private static final char[] BASE64 
+		= ("ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz"
+			+ "0123456789+/").toCharArray();
+	/** The length of the SHA-1 digest. */
+	private static final int SHA1_LENGTH = 20;
+	/** The length of the Base64 encoded SHA-1 digest. */
+	private static final int ACCEPT_LENGTH = 28;
+
+	private static final ThreadLocal<AcceptKey> instances 
+		= ThreadLocal.withInitial(AcceptKey::new);
+
+	private MessageDigest digest;
+	private byte[] keyBytes = new byte[24];
+	private byte[] sha1 = new byte[SHA1_LENGTH];
+	private char[] accept = new char[ACCEPT_LENGTH];
+	
+	private AcceptKey() {
+	}
+
+	/**
+	 * Returns the value for the `Sec-WebSocket-Accept` header field.
+	 * 
+	 * @param key the value of the `Sec-WebSocket-Key` header field
+	 * @return the value
+	 * @throws NoSuchAlgorithmException if SHA-1 is not available
+	 */
+	static String forKey(String key) throws NoSuchAlgorithmException {
+		AcceptKey instance = instances.get();
+		instance.compute(key);
+		return new String(instance.accept);
+	}
+
+	/**
+	 * Checks if the given value of the `Sec-WebSocket-Accept` header 
+	 * field matches the given key.
+	 * 
+	 * @param key the value of the `Sec-WebSocket-Key` header field
+	 * @param accept the value of the `Sec-WebSocket-Accept` header field
+	 * @return the result
+	 * @throws NoSuchAlgorithmException if SHA-1 is not available
+	 */
+	static boolean matches(String key, String accept)
+			throws NoSuchAlgorithmException {
+		if (accept.length() != ACCEPT_LENGTH) {
+			return false;
+		}
+		AcceptKey instance = instances.get();
+		instance.compute(key);
+		for (int i = 0; i < ACCEPT_LENGTH; i++) {
+			if (accept.charAt(i) != instance.accept[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	private void compute(String key) throws NoSuchAlgorithmException {
+		if (digest == null) {
+			digest = MessageDigest.getInstance("SHA-1");
+		}
+		int length = key.length();
+		if (keyBytes.length < length) {
+			keyBytes = new byte[length];
+		}
+		for (int i = 0; i < length; i++) {
+			// Keys are base64 encoded, anything else is invalid anyway
+			keyBytes[i] = (byte)key.charAt(i);
+		}
+		digest.update(keyBytes, 0, length);
+		digest.update(MAGIC);
+		try {
+			digest.digest(sha1, 0, SHA1_LENGTH);
+		} catch (DigestException e) {
+			// Cannot happen, buffer is large enough
+			digest.reset();
+			throw new IllegalStateException(e);
+		}
+		// Base64, 6 groups of three bytes and one group of two bytes
+		int out = 0;
+		for (int in = 0; in < 18; in += 3) {
+			int bits = (sha1[in] & 0xff) << 16 | (sha1[in + 1] & 0xff) << 8
+					| (sha1[in + 2] & 0xff);
+			accept[out++] = BASE64[bits >>> 18];
+			accept[out++] = BASE64[(bits >>> 12) & 0x3f];
+			accept[out++] = BASE64[(bits >>> 6) & 0x3f];
+			accept[out++] = BASE64[bits & 0x3f];
+		}
+		int bits = (sha1[18] & 0xff) << 8 | (sha1[19] & 0xff);
+		accept[out++] = BASE64[bits >>> 10];
+		accept[out++] = BASE64[(bits >>> 4) & 0x3f];
+		accept[out++] = BASE64[(bits << 2) & 0x3f];
+		accept[out] = '=';
+	}
+}
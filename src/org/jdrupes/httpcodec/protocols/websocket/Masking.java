@@ -0,0 +1,86 @@
+/*
+ * This file is part of the JDrupes non-blocking HTTP Codec
+ * Copyright (C) 2018  Michael N. Lipp
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jdrupes.httpcodec.protocols.websocket;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Applies a masking key to payload data as specified in
+ * [RFC 6455, 5.3](https://tools.ietf.org/html/rfc6455#section-5.3).
+ * <P>
+ * The masking key is represented as `int` (the first byte of the
+ * key being the most significant byte). Because masking may be
+ * interrupted when a buffer is exhausted, the index of the key's
+ * byte to be applied to the next data byte (the "phase") is passed
+ * to the methods and the updated phase is returned.
+ */
+final class Masking {
+
+	private Masking() {
+	}
+
+	/**
+	 * Returns the key's byte for the given phase.
+	 *
+	 * @param key the key
+	 * @param phase the phase (0..3)
+	 * @return the byte
+	 */
+	static byte keyByte(int key, int phase) {
+		return (byte)(key >>> (24 - 8 * phase));
+	}
+
+	/**
+	 * Masks (or unmasks) up to {@code limit} bytes from {@code in}
+	 * while copying them to {@code out}. Eight bytes are processed
+	 * at a time if both buffers use the same byte order, the remaining
+	 * bytes are processed one by one.
+	 *
+	 * @param in the source
+	 * @param out the destination
+	 * @param limit the maximum number of bytes to copy
+	 * @param key the masking key
+	 * @param phase the phase
+	 * @return the updated phase
+	 */
+	static int copyMasked(ByteBuffer in, ByteBuffer out, long limit,
+			int key, int phase) {
+		int count = (int)Math.min(
+				Math.min(in.remaining(), out.remaining()), limit);
+		if (count >= 8 && in.order() == out.order()) {
+			// A multiple of 4 bytes leaves the phase unchanged
+			int rotated = Integer.rotateLeft(key, 8 * phase);
+			long mask = ((long)rotated << 32) | (rotated & 0xffffffffL);
+			if (in.order() == ByteOrder.LITTLE_ENDIAN) {
+				mask = Long.reverseBytes(mask);
+			}
+			while (count >= 8) {
+				out.putLong(in.getLong() ^ mask);
+				count -= 8;
+			}
+		}
+		while (count > 0) {
+			out.put((byte)(in.get() ^ keyByte(key, phase)));
+			phase = (phase + 1) & 3;
+			count -= 1;
+		}
+		return phase;
+	}
+}
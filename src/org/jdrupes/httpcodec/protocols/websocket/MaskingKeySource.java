@@ -0,0 +1,51 @@
+/*
+ * This file is part of the JDrupes non-blocking HTTP Codec
+ * Copyright (C) 2018  Michael N. Lipp
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jdrupes.httpcodec.protocols.websocket;
+
+/**
+ * Provides the masking keys for the frames sent by a client
+ * (see [RFC 6455, 5.3](https://tools.ietf.org/html/rfc6455#section-5.3)).
+ * <P>
+ * Implementations must return keys that cannot be predicted by
+ * the application that provides the data to be sent and they must
+ * be thread-safe, because a source may be shared by many
+ * {@link WsEncoder}s.
+ */
+public interface MaskingKeySource {
+
+	/**
+	 * Returns the key for the next frame. The first byte of the key
+	 * is the most significant byte of the result.
+	 * 
+	 * @return the key
+	 */
+	int nextKey();
+	
+	/**
+	 * Returns the source that is used by {@link WsEncoder}s unless
+	 * configured otherwise. The default source prefetches keys in
+	 * batches from a cryptographically strong random number 
+	 * generator that is maintained for each thread.
+	 * 
+	 * @return the source
+	 */
+	static MaskingKeySource defaultSource() {
+		return PrefetchingKeySource.INSTANCE;
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * This file is part of the JDrupes non-blocking HTTP Codec
+ * Copyright (C) 2018  Michael N. Lipp
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jdrupes.httpcodec.protocols.websocket;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses the payload of the frames of a message as specified by
+ * [RFC 7692, 7.2.1](https://tools.ietf.org/html/rfc7692#section-7.2.1).
+ * <P>
+ * The data of every frame is compressed and flushed to a byte boundary
+ * (`Z_SYNC_FLUSH`). The four octets (0x00 0x00 0xff 0xff) that result
+ * from the final flush are removed from the payload of the last frame.
+ */
+final class MessageDeflater {
+
+	private static final int TAIL_LENGTH = 4;
+	
+	private final boolean noContextTakeover;
+	private Deflater deflater;
+	private byte[] input;
+	private byte[] output = new byte[1024];
+	
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param noContextTakeover if set, the compressor is reset 
+	 * after each message
+	 */
+	MessageDeflater(boolean noContextTakeover) {
+		this.noContextTakeover = noContextTakeover;
+	}
+
+	/**
+	 * Returns `true` if the compressor is reset after each message.
+	 *
+	 * @return the result
+	 */
+	boolean noContextTakeover() {
+		return noContextTakeover;
+	}
+
+	/**
+	 * Compresses the data for a frame. The position of the data
+	 * buffer is not changed. The returned buffer is valid until the
+	 * next invocation of this method.
+	 *
+	 * @param data the data
+	 * @param endOfMessage set if this is the last frame of the message
+	 * @return the compressed data
+	 */
+	ByteBuffer deflate(ByteBuffer data, boolean endOfMessage) {
+		if (deflater == null) {
+			deflater = PerMessageDeflate.obtainDeflater();
+		}
+		if (data.hasArray()) {
+			deflater.setInput(data.array(), 
+					data.arrayOffset() + data.position(), data.remaining());
+		} else {
+			if (input == null || input.length < data.remaining()) {
+				input = new byte[data.remaining()];
+			}
+			int length = data.remaining();
+			data.duplicate().get(input, 0, length);
+			deflater.setInput(input, 0, length);
+		}
+		int length = 0;
+		while (true) {
+			length += deflater.deflate(output, length, 
+					output.length - length, Deflater.SYNC_FLUSH);
+			if (length < output.length) {
+				break;
+			}
+			// Output buffer was filled, more output may be pending
+			output = Arrays.copyOf(output, output.length * 2);
+		}
+		if (endOfMessage) {
+			if (length < TAIL_LENGTH) {
+				// Nothing to flush (message ended with previous frame),
+				// send an empty block (without the tail).
+				output[0] = 0;
+				length = TAIL_LENGTH + 1;
+			}
+			length -= TAIL_LENGTH;
+			if (noContextTakeover) {
+				release();
+			}
+		}
+		return ByteBuffer.wrap(output, 0, length);
+	}
+
+	/**
+	 * Returns the deflater to the pool.
+	 */
+	void release() {
+		if (deflater != null) {
+			PerMessageDeflate.releaseDeflater(deflater);
+			deflater = null;
+		}
+	}
+}
@@ -0,0 +1,196 @@
+/*
+ * This file is part of the JDrupes non-blocking HTTP Codec
+ * Copyright (C) 2018  Michael N. Lipp
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jdrupes.httpcodec.protocols.websocket;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CoderResult;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.jdrupes.httpcodec.ProtocolException;
+import org.jdrupes.httpcodec.util.ByteBufferUtils;
+
+/**
+ * Decompresses the payload of the frames of a message as specified by
+ * [RFC 7692, 7.2.2](https://tools.ietf.org/html/rfc7692#section-7.2.2).
+ * <P>
+ * The (unmasked) payload is put in the {@link #inputBuffer()} and
+ * handed over to the inflater with {@link #feed()}. Decompressed data
+ * is made available in chunks by {@link #inflate()} and delivered to 
+ * the out buffer by {@link #drainTo(Buffer, Utf8Decoder)}.
+ */
+final class MessageInflater {
+
+	private static final byte[] TAIL 
+		= new byte[] { 0, 0, (byte)0xff, (byte)0xff };
+	private static final int BUFFER_SIZE = 4096;
+	
+	private final boolean noContextTakeover;
+	private Inflater inflater;
+	private ByteBuffer input = ByteBuffer.allocate(BUFFER_SIZE);
+	private ByteBuffer inflated = ByteBuffer.allocate(BUFFER_SIZE);
+	private boolean dataFed;
+	private boolean tailFed;
+
+	/**
+	 * Creates a new instance.
+	 *
+	 * @param noContextTakeover if set, the peer resets its compressor 
+	 * after each message
+	 */
+	MessageInflater(boolean noContextTakeover) {
+		this.noContextTakeover = noContextTakeover;
+		inflated.flip();
+	}
+
+	/**
+	 * Returns `true` if the inflater can be fed with more data.
+	 *
+	 * @return the result
+	 */
+	boolean needsInput() {
+		return inflater == null || inflater.needsInput();
+	}
+	
+	/**
+	 * Returns `true` if some data has been fed to the inflater 
+	 * for the current message.
+	 *
+	 * @return the result
+	 */
+	boolean hasData() {
+		return dataFed;
+	}
+	
+	/**
+	 * Returns `true` if there is decompressed data that has not been
+	 * delivered yet.
+	 *
+	 * @return the result
+	 */
+	boolean hasPending() {
+		return inflated.hasRemaining();
+	}
+	
+	/**
+	 * Returns the (cleared) buffer to put the compressed data in.
+	 *
+	 * @return the buffer
+	 */
+	ByteBuffer inputBuffer() {
+		input.clear();
+		return input;
+	}
+
+	/**
+	 * Passes the data from the {@link #inputBuffer()} to the inflater.
+	 */
+	void feed() {
+		if (inflater == null) {
+			inflater = PerMessageDeflate.obtainInflater();
+		}
+		if (input.position() > 0) {
+			inflater.setInput(input.array(), 0, input.position());
+			dataFed = true;
+		}
+	}
+	
+	/**
+	 * Passes the octets removed by the sender from the end of the 
+	 * message to the inflater.
+	 * 
+	 * @return `false` if the octets have already been passed
+	 * or if no data has been fed for the current message
+	 */
+	boolean feedTail() {
+		if (tailFed || !dataFed) {
+			return false;
+		}
+		inflater.setInput(TAIL);
+		tailFed = true;
+		return true;
+	}
+	
+	/**
+	 * Decompresses data from the inflater.
+	 *
+	 * @return `true` if data has been decompressed
+	 * @throws ProtocolException if the data is invalid
+	 */
+	boolean inflate() throws ProtocolException {
+		if (needsInput()) {
+			return false;
+		}
+		inflated.compact();
+		try {
+			int length = inflater.inflate(inflated.array(), 
+					inflated.arrayOffset() + inflated.position(), 
+					inflated.remaining());
+			inflated.position(inflated.position() + length);
+			if (inflater.finished()) {
+				// The sender has terminated the deflate stream
+				inflater.reset();
+			}
+			return length > 0;
+		} catch (DataFormatException e) {
+			throw new ProtocolException(e);
+		} finally {
+			inflated.flip();
+		}
+	}
+
+	/**
+	 * Delivers as much of the decompressed data to out as possible.
+	 *
+	 * @param out the out buffer
+	 * @param charDecoder the decoder to use if out is a `CharBuffer`
+	 * @return the result of decoding if out is a `CharBuffer`
+	 */
+	CoderResult drainTo(Buffer out, Utf8Decoder charDecoder) {
+		if (out instanceof ByteBuffer) {
+			ByteBufferUtils.putAsMuchAsPossible((ByteBuffer)out, inflated);
+			return null;
+		}
+		return charDecoder.decode(inflated, (CharBuffer)out);
+	}
+	
+	/**
+	 * Prepares the instance for the next message.
+	 */
+	void messageComplete() {
+		dataFed = false;
+		tailFed = false;
+		inflated.clear().flip();
+		if (noContextTakeover) {
+			release();
+		}
+	}
+	
+	/**
+	 * Returns the inflater to the pool.
+	 */
+	void release() {
+		if (inflater != null) {
+			PerMessageDeflate.releaseInflater(inflater);
+			inflater = null;
+		}
+	}
+}
@@ -0,0 +1,439 @@
+/*
+ * This file is part of the JDrupes non-blocking HTTP Codec
+ * Copyright (C) 2018  Michael N. Lipp
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jdrupes.httpcodec.protocols.websocket;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.jdrupes.httpcodec.ProtocolException;
+import org.jdrupes.httpcodec.protocols.http.HttpField;
+import org.jdrupes.httpcodec.protocols.http.HttpRequest;
+import org.jdrupes.httpcodec.protocols.http.HttpResponse;
+import org.jdrupes.httpcodec.types.Converter;
+import org.jdrupes.httpcodec.types.Converters;
+import org.jdrupes.httpcodec.types.DefaultMultiValueConverter;
+import org.jdrupes.httpcodec.types.ParameterizedValue;
+import org.jdrupes.httpcodec.types.ParameterizedValue.ParameterizedValueConverter;
+import org.jdrupes.httpcodec.util.ListItemizer;
+
+/**
+ * The agreed parameters of the "permessage-deflate" extension as
+ * specified by [RFC 7692](https://tools.ietf.org/html/rfc7692).
+ *
+ * The {@link WsProtocolProvider} accepts an offer of the extension
+ * made by a client automatically. Clients can make an offer by
+ * invoking {@link #offer(HttpRequest)} before the request is encoded.
+ * If the server accepts the offer, the codecs created after switching
+ * the protocol compress and decompress the payload of data messages.
+ *
+ * Note that `java.util.zip` always uses a LZ77 window of 32K bytes
+ * when compressing. Offers that require the server to use a smaller
+ * window are therefore declined, and a client fails the connection
+ * if the server asks it to use a smaller window. Decompression works
+ * with any window size.
+ *
+ * The {@link Deflater}s and {@link Inflater}s used by the codecs are
+ * pooled. If context takeover is disabled for a direction, the
+ * instances for that direction are only used while a message is
+ * being processed and can be shared by all connections.
+ */
+public class PerMessageDeflate {
+
+	/** The name of the extension. */
+	public static final String EXTENSION_NAME = "permessage-deflate";
+	/** The name of the header field used to negotiate extensions. */
+	public static final String EXTENSIONS_FIELD = "Sec-WebSocket-Extensions";
+
+	private static final String SERVER_NO_CONTEXT_TAKEOVER
+		= "server_no_context_takeover";
+	private static final String CLIENT_NO_CONTEXT_TAKEOVER
+		= "client_no_context_takeover";
+	private static final String SERVER_MAX_WINDOW_BITS
+		= "server_max_window_bits";
+	private static final String CLIENT_MAX_WINDOW_BITS
+		= "client_max_window_bits";
+	private static final int MAX_WINDOW_BITS = 15;
+	private static final int MAX_POOLED = 64;
+
+	private static final Converter<ParameterizedValue<String>> EXTENSION
+		= new ParameterizedValueConverter<>(Converters.UNQUOTED_STRING);
+	private static final Converter<List<ParameterizedValue<String>>>
+		EXTENSION_LIST = new DefaultMultiValueConverter<
+			List<ParameterizedValue<String>>, ParameterizedValue<String>>(
+				ArrayList::new, EXTENSION);
+
+	private static final Queue<Deflater> deflaters
+		= new ConcurrentLinkedQueue<>();
+	private static final AtomicInteger pooledDeflaters = new AtomicInteger();
+	private static final Queue<Inflater> inflaters
+		= new ConcurrentLinkedQueue<>();
+	private static final AtomicInteger pooledInflaters = new AtomicInteger();
+
+	private boolean serverNoContextTakeover;
+	private boolean clientNoContextTakeover;
+
+	/**
+	 * Creates the parameters for using the extension.
+	 *
+	 * @param serverNoContextTakeover if set, the server resets
+	 * its compressor after each message
+	 * @param clientNoContextTakeover if set, the client resets
+	 * its compressor after each message
+	 */
+	public PerMessageDeflate(boolean serverNoContextTakeover,
+			boolean clientNoContextTakeover) {
+		this.serverNoContextTakeover = serverNoContextTakeover;
+		this.clientNoContextTakeover = clientNoContextTakeover;
+	}
+
+	/**
+	 * Returns `true` if the server resets its compressor after
+	 * each message.
+	 *
+	 * @return the result
+	 */
+	public boolean serverNoContextTakeover() {
+		return serverNoContextTakeover;
+	}
+
+	/**
+	 * Returns `true` if the client resets its compressor after
+	 * each message.
+	 *
+	 * @return the result
+	 */
+	public boolean clientNoContextTakeover() {
+		return clientNoContextTakeover;
+	}
+
+	/**
+	 * Returns `true` if the compressor used by the given side is
+	 * reset after each message.
+	 *
+	 * @param client selects the side
+	 * @return the result
+	 */
+	boolean noContextTakeover(boolean client) {
+		return client ? clientNoContextTakeover : serverNoContextTakeover;
+	}
+
+	/**
+	 * Adds an offer to use the extension to the given request.
+	 *
+	 * @param request the request
+	 */
+	public static void offer(HttpRequest request) {
+		offer(request, false);
+	}
+
+	/**
+	 * Adds an offer to use the extension to the given request.
+	 *
+	 * @param request the request
+	 * @param clientNoContextTakeover if set, the client announces
+	 * that it resets its compressor after each message
+	 */
+	public static void offer(HttpRequest request,
+			boolean clientNoContextTakeover) {
+		List<ParameterizedValue<String>> offers = request.findValue(
+				EXTENSIONS_FIELD, EXTENSION_LIST).orElse(new ArrayList<>());
+		offers.add(extensionValue(
+				false, clientNoContextTakeover, false, true));
+		request.setField(new HttpField<>(
+				EXTENSIONS_FIELD, offers, EXTENSION_LIST));
+	}
+
+	/**
+	 * Evaluates the offers made in the request and selects the first
+	 * acceptable one. If an offer is accepted, the response to the
+	 * offer is added to the given (switching protocols) response.
+	 * 
+	 * Offers are evaluated using the field's text, because
+	 * offers with repeated parameters must be declined
+	 * ([RFC 7692, 7.1](https://tools.ietf.org/html/rfc7692#section-7.1))
+	 * and repetitions are lost when the parameters are converted
+	 * to a map.
+	 *
+	 * @param request the request
+	 * @param response the response
+	 * @return the accepted parameters
+	 */
+	static Optional<PerMessageDeflate> accept(
+			HttpRequest request, HttpResponse response) {
+		HttpField<?> field = request.fields().get(EXTENSIONS_FIELD);
+		if (field == null) {
+			return Optional.empty();
+		}
+		// Received fields have the (unquoted) text as value
+		String text = (field.value() instanceof String) 
+				? (String)field.value() : field.asFieldValue();
+		try {
+			ListItemizer offers = new ListItemizer(text, ",");
+			while (offers.hasNext()) {
+				String offerText = offers.next();
+				ParameterizedValue<String> offer 
+					= EXTENSION.fromFieldValue(offerText);
+				if (!offer.value().equalsIgnoreCase(EXTENSION_NAME)
+						|| parameterCount(offerText) 
+							!= offer.parameters().size()) {
+					continue;
+				}
+				PerMessageDeflate agreed = new PerMessageDeflate(false, false);
+				if (!agreed.acceptParameters(offer.parameters())) {
+					continue;
+				}
+				// RFC 7692 7.1.2.1
+				List<ParameterizedValue<String>> accepted = new ArrayList<>();
+				accepted.add(extensionValue(agreed.serverNoContextTakeover,
+						agreed.clientNoContextTakeover, offer.parameters()
+							.containsKey(SERVER_MAX_WINDOW_BITS), false));
+				response.setField(new HttpField<>(
+						EXTENSIONS_FIELD, accepted, EXTENSION_LIST));
+				return Optional.of(agreed);
+			}
+		} catch (ParseException | NoSuchElementException e) {
+			// Malformed, decline
+		}
+		return Optional.empty();
+	}
+
+	private static int parameterCount(String extension) {
+		ListItemizer items = new ListItemizer(extension, ";");
+		int count = -1;
+		while (items.hasNext()) {
+			items.next();
+			count += 1;
+		}
+		return count;
+	}
+
+	/**
+	 * Creates an offer or a response to an offer with the given
+	 * parameters. `server_max_window_bits` is added with the
+	 * only value supported by the compressor, `client_max_window_bits`
+	 * is added without value (i.e. as announcement that the
+	 * client can use a smaller window).
+	 */
+	private static ParameterizedValue<String> extensionValue(
+			boolean serverNoContextTakeover, boolean clientNoContextTakeover,
+			boolean serverMaxWindowBits, boolean clientMaxWindowBits) {
+		Map<String,String> params = new HashMap<>();
+		if (serverNoContextTakeover) {
+			params.put(SERVER_NO_CONTEXT_TAKEOVER, null);
+		}
+		if (clientNoContextTakeover) {
+			params.put(CLIENT_NO_CONTEXT_TAKEOVER, null);
+		}
+		if (serverMaxWindowBits) {
+			params.put(SERVER_MAX_WINDOW_BITS, 
+					Integer.toString(MAX_WINDOW_BITS));
+		}
+		if (clientMaxWindowBits) {
+			params.put(CLIENT_MAX_WINDOW_BITS, null);
+		}
+		return new ParameterizedValue<>(EXTENSION_NAME, params);
+	}
+
+	private boolean acceptParameters(Map<String,String> params) {
+		for (Map.Entry<String, String> param: params.entrySet()) {
+			switch (param.getKey()) {
+			case SERVER_NO_CONTEXT_TAKEOVER:
+				if (param.getValue() != null) {
+					return false;
+				}
+				serverNoContextTakeover = true;
+				break;
+			case CLIENT_NO_CONTEXT_TAKEOVER:
+				if (param.getValue() != null) {
+					return false;
+				}
+				clientNoContextTakeover = true;
+				break;
+			case SERVER_MAX_WINDOW_BITS:
+				// We cannot use a smaller window when compressing
+				if (windowBits(param.getValue()) != MAX_WINDOW_BITS) {
+					return false;
+				}
+				break;
+			case CLIENT_MAX_WINDOW_BITS:
+				// Informative only, we decompress with any window size
+				if (param.getValue() != null
+						&& windowBits(param.getValue()) < 0) {
+					return false;
+				}
+				break;
+			default:
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Checks that the response to an offer is acceptable.
+	 *
+	 * @param request the request
+	 * @param response the response
+	 * @throws ProtocolException if the response cannot be accepted
+	 */
+	static void checkAgreed(HttpRequest request, HttpResponse response)
+			throws ProtocolException {
+		if (!agreed(response).isPresent()) {
+			return;
+		}
+		if (!request.findValue(EXTENSIONS_FIELD, EXTENSION_LIST)
+				.map(offers -> offers.stream().anyMatch(
+						o -> o.value().equalsIgnoreCase(EXTENSION_NAME)))
+				.orElse(false)) {
+			throw new ProtocolException("Extension " + EXTENSION_NAME
+					+ " has not been offered.");
+		}
+	}
+
+	/**
+	 * Returns the parameters agreed upon in the given (switching 
+	 * protocols) response.
+	 *
+	 * @param response the response
+	 * @return the agreed parameters
+	 * @throws ProtocolException if the response cannot be accepted
+	 */
+	static Optional<PerMessageDeflate> agreed(HttpResponse response) 
+			throws ProtocolException {
+		List<ParameterizedValue<String>> responses = response.findValue(
+				EXTENSIONS_FIELD, EXTENSION_LIST).orElse(null);
+		if (responses == null) {
+			return Optional.empty();
+		}
+		for (ParameterizedValue<String> accepted: responses) {
+			if (!accepted.value().equalsIgnoreCase(EXTENSION_NAME)) {
+				continue;
+			}
+			PerMessageDeflate agreed = new PerMessageDeflate(false, false);
+			for (Map.Entry<String, String> param
+					: accepted.parameters().entrySet()) {
+				switch (param.getKey()) {
+				case SERVER_NO_CONTEXT_TAKEOVER:
+					agreed.serverNoContextTakeover = true;
+					break;
+				case CLIENT_NO_CONTEXT_TAKEOVER:
+					agreed.clientNoContextTakeover = true;
+					break;
+				case SERVER_MAX_WINDOW_BITS:
+					if (windowBits(param.getValue()) < 0) {
+						throw new ProtocolException(
+								"Invalid " + SERVER_MAX_WINDOW_BITS + ".");
+					}
+					break;
+				case CLIENT_MAX_WINDOW_BITS:
+					if (windowBits(param.getValue()) != MAX_WINDOW_BITS) {
+						throw new ProtocolException("Cannot comply with "
+								+ CLIENT_MAX_WINDOW_BITS + ".");
+					}
+					break;
+				default:
+					throw new ProtocolException("Unknown parameter "
+							+ param.getKey() + " for " + EXTENSION_NAME + ".");
+				}
+			}
+			return Optional.of(agreed);
+		}
+		return Optional.empty();
+	}
+
+	private static int windowBits(String value) {
+		if (value == null) {
+			return -1;
+		}
+		try {
+			int bits = Integer.parseInt(value);
+			return (bits >= 8 && bits <= MAX_WINDOW_BITS) ? bits : -1;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Obtains a {@link Deflater} from the pool.
+	 *
+	 * @return the deflater
+	 */
+	static Deflater obtainDeflater() {
+		Deflater deflater = deflaters.poll();
+		if (deflater == null) {
+			return new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		}
+		pooledDeflaters.decrementAndGet();
+		return deflater;
+	}
+
+	/**
+	 * Resets the deflater and returns it to the pool.
+	 *
+	 * @param deflater the deflater
+	 */
+	static void releaseDeflater(Deflater deflater) {
+		if (pooledDeflaters.incrementAndGet() > MAX_POOLED) {
+			pooledDeflaters.decrementAndGet();
+			deflater.end();
+			return;
+		}
+		deflater.reset();
+		deflaters.offer(deflater);
+	}
+
+	/**
+	 * Obtains an {@link Inflater} from the pool.
+	 *
+	 * @return the inflater
+	 */
+	static Inflater obtainInflater() {
+		Inflater inflater = inflaters.poll();
+		if (inflater == null) {
+			return new Inflater(true);
+		}
+		pooledInflaters.decrementAndGet();
+		return inflater;
+	}
+
+	/**
+	 * Resets the inflater and returns it to the pool.
+	 *
+	 * @param inflater the inflater
+	 */
+	static void releaseInflater(Inflater inflater) {
+		if (pooledInflaters.incrementAndGet() > MAX_POOLED) {
+			pooledInflaters.decrementAndGet();
+			inflater.end();
+			return;
+		}
+		inflater.reset();
+		inflaters.offer(inflater);
+	}
+}
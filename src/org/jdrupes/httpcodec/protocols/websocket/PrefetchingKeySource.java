@@ -0,0 +1,69 @@
+/*
+ * This file is part of the JDrupes non-blocking HTTP Codec
+ * Copyright (C) 2018  Michael N. Lipp
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jdrupes.httpcodec.protocols.websocket;
+
+import java.nio.ByteBuffer;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+
+/**
+ * The default {@link MaskingKeySource}. Every thread uses its own
+ * generator, and the keys are obtained in batches. Compared to calling 
+ * a shared {@link SecureRandom} for every frame, this avoids both
+ * contention and the per call overhead of the generator.
+ */
+final class PrefetchingKeySource implements MaskingKeySource {
+
+	static final PrefetchingKeySource INSTANCE = new PrefetchingKeySource();
+
+	private static final int KEYS_PER_BATCH = 256;
+	private static final ThreadLocal<Keys> keys 
+		= ThreadLocal.withInitial(Keys::new);
+	
+	private PrefetchingKeySource() {
+	}
+	
+	@Override
+	public int nextKey() {
+		return keys.get().next();
+	}
+
+	private static class Keys {
+		private SecureRandom random;
+		private ByteBuffer batch = ByteBuffer.allocate(4 * KEYS_PER_BATCH);
+
+		public Keys() {
+			try {
+				// Keeps its state in the instance, no global lock
+				random = SecureRandom.getInstance("SHA1PRNG");
+			} catch (NoSuchAlgorithmException e) {
+				random = new SecureRandom();
+			}
+			batch.position(batch.limit());
+		}
+		
+		public int next() {
+			if (!batch.hasRemaining()) {
+				random.nextBytes(batch.array());
+				batch.clear();
+			}
+			return batch.getInt();
+		}
+	}
+}
@@ -0,0 +1,214 @@
+/*
+ * This file is part of the JDrupes non-blocking HTTP Codec
+ * Copyright (C) 2018  Michael N. Lipp
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jdrupes.httpcodec.protocols.websocket;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CoderResult;
+
+/**
+ * An incremental decoder for UTF-8 that validates its input as
+ * required by [RFC 6455, 8.1](https://tools.ietf.org/html/rfc6455#section-8.1).
+ * <P>
+ * Like {@link org.jdrupes.httpcodec.util.OptimizedCharsetDecoder},
+ * the decoder always drains the input buffer unless the output buffer
+ * is full. The state of an incomplete sequence at the end of the input
+ * is kept in the decoder (without copying any bytes), so a text
+ * message can be decoded frame by frame, no matter where the frames
+ * or the buffers split the multi-byte sequences. Runs of ASCII
+ * characters in array backed buffers are copied without further
+ * processing.
+ * <P>
+ * Overlong encodings, encoded surrogates and code points beyond
+ * U+10FFFF are rejected as malformed input.
+ */
+final class Utf8Decoder {
+
+	private static final int NEED_MORE = -1;
+	private static final int MALFORMED = -2;
+	private static final CoderResult MALFORMED_RESULT
+		= CoderResult.malformedForLength(1);
+	
+	private int needed;
+	private int codePoint;
+	private int lower = 0x80;
+	private int upper = 0xbf;
+	private boolean supplementary;
+	
+	/**
+	 * Decodes as many bytes from in as possible.
+	 *
+	 * @param in the input
+	 * @param out the output
+	 * @return {@link CoderResult#UNDERFLOW} if all input has been
+	 * processed, {@link CoderResult#OVERFLOW} if out is full or
+	 * a result that indicates malformed input
+	 */
+	CoderResult decode(ByteBuffer in, CharBuffer out) {
+		if (in.hasArray() && out.hasArray()) {
+			return decodeArrays(in, out);
+		}
+		while (in.hasRemaining()) {
+			if (!hasSpace(out.remaining())) {
+				return CoderResult.OVERFLOW;
+			}
+			int result = feed(in.get() & 0xff);
+			if (result == MALFORMED) {
+				return MALFORMED_RESULT;
+			}
+			if (result == NEED_MORE) {
+				continue;
+			}
+			if (result < 0x10000) {
+				out.put((char)result);
+			} else {
+				out.put(Character.highSurrogate(result));
+				out.put(Character.lowSurrogate(result));
+			}
+		}
+		return CoderResult.UNDERFLOW;
+	}
+
+	private CoderResult decodeArrays(ByteBuffer in, CharBuffer out) {
+		byte[] src = in.array();
+		int srcPos = in.arrayOffset() + in.position();
+		int srcLimit = in.arrayOffset() + in.limit();
+		char[] dst = out.array();
+		int dstPos = out.arrayOffset() + out.position();
+		int dstLimit = out.arrayOffset() + out.limit();
+		CoderResult result = CoderResult.UNDERFLOW;
+		while (srcPos < srcLimit) {
+			if (needed == 0) {
+				// Fast path for ASCII
+				int end = srcPos + Math.min(
+						srcLimit - srcPos, dstLimit - dstPos);
+				while (srcPos < end && src[srcPos] >= 0) {
+					dst[dstPos++] = (char)src[srcPos++];
+				}
+				if (srcPos == srcLimit) {
+					break;
+				}
+			}
+			if (!hasSpace(dstLimit - dstPos)) {
+				result = CoderResult.OVERFLOW;
+				break;
+			}
+			int decoded = feed(src[srcPos++] & 0xff);
+			if (decoded == MALFORMED) {
+				result = MALFORMED_RESULT;
+				break;
+			}
+			if (decoded == NEED_MORE) {
+				continue;
+			}
+			if (decoded < 0x10000) {
+				dst[dstPos++] = (char)decoded;
+			} else {
+				dst[dstPos++] = Character.highSurrogate(decoded);
+				dst[dstPos++] = Character.lowSurrogate(decoded);
+			}
+		}
+		in.position(srcPos - in.arrayOffset());
+		out.position(dstPos - out.arrayOffset());
+		return result;
+	}
+	
+	/**
+	 * Checks if there is enough space left in the output for
+	 * the character that may result from the next byte.
+	 */
+	private boolean hasSpace(int remaining) {
+		return remaining > 1 
+				|| (remaining == 1 && !(needed == 1 && supplementary));
+	}
+	
+	/**
+	 * Processes the next byte.
+	 *
+	 * @param value the byte as unsigned value
+	 * @return the code point, if a character has been completed,
+	 * else {@link #NEED_MORE} or {@link #MALFORMED}
+	 */
+	private int feed(int value) {
+		if (needed == 0) {
+			if (value < 0x80) {
+				return value;
+			}
+			if (value >= 0xc2 && value <= 0xdf) {
+				needed = 1;
+				codePoint = value & 0x1f;
+			} else if (value >= 0xe0 && value <= 0xef) {
+				needed = 2;
+				codePoint = value & 0x0f;
+				if (value == 0xe0) {
+					// Overlong
+					lower = 0xa0;
+				} else if (value == 0xed) {
+					// Surrogates
+					upper = 0x9f;
+				}
+			} else if (value >= 0xf0 && value <= 0xf4) {
+				needed = 3;
+				codePoint = value & 0x07;
+				supplementary = true;
+				if (value == 0xf0) {
+					// Overlong
+					lower = 0x90;
+				} else if (value == 0xf4) {
+					// Beyond U+10FFFF
+					upper = 0x8f;
+				}
+			} else {
+				return MALFORMED;
+			}
+			return NEED_MORE;
+		}
+		if (value < lower || value > upper) {
+			return MALFORMED;
+		}
+		lower = 0x80;
+		upper = 0xbf;
+		codePoint = (codePoint << 6) | (value & 0x3f);
+		if (--needed > 0) {
+			return NEED_MORE;
+		}
+		supplementary = false;
+		return codePoint;
+	}
+	
+	/**
+	 * Returns `true` if the input processed so far does not end with
+	 * an incomplete sequence.
+	 *
+	 * @return the result
+	 */
+	boolean isComplete() {
+		return needed == 0;
+	}
+	
+	/**
+	 * Resets the decoder.
+	 */
+	void reset() {
+		needed = 0;
+		lower = 0x80;
+		upper = 0xbf;
+		supplementary = false;
+	}
+}
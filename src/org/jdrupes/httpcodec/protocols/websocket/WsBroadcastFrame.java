@@ -0,0 +1,162 @@
+/*
+ * This file is part of the JDrupes non-blocking HTTP Codec
+ * Copyright (C) 2018  Michael N. Lipp
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jdrupes.httpcodec.protocols.websocket;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A complete data message that is encoded only once and can then
+ * be sent to any number of clients.
+ * <P>
+ * Frames sent by a server are not masked, so the frame is identical 
+ * for all connections. The frame is built when the instance is
+ * created. When passed to {@link WsEncoder#encode(WsFrameHeader)},
+ * the encoder copies the pre-built frame to the out buffer with
+ * the next invocation(s) of 
+ * {@link WsEncoder#encode(java.nio.Buffer, ByteBuffer, boolean)}
+ * (the input buffer is ignored).
+ * <P>
+ * Optionally, a compressed version of the frame is built as well.
+ * It is used by encoders for which "permessage-deflate" with
+ * "server_no_context_takeover" has been negotiated. (With context 
+ * takeover, the message would have to be compressed with the
+ * connection's compressor.) Other encoders send the uncompressed
+ * version.
+ * <P>
+ * Note that like the application data of control frames, the data 
+ * is modeled as part of the header in the API.
+ */
+public class WsBroadcastFrame extends WsFrameHeader {
+
+	private boolean textMode;
+	private ByteBuffer frame;
+	private ByteBuffer compressedFrame;
+
+	/**
+	 * Creates a new frame with text data.
+	 * 
+	 * @param text the text
+	 * @param compress if set, a compressed version is built as well
+	 */
+	public WsBroadcastFrame(CharSequence text, boolean compress) {
+		this(true, StandardCharsets.UTF_8.encode(CharBuffer.wrap(text)),
+				compress);
+	}
+	
+	/**
+	 * Creates a new frame with binary data. The position of
+	 * the data buffer is not changed.
+	 * 
+	 * @param data the data
+	 * @param compress if set, a compressed version is built as well
+	 */
+	public WsBroadcastFrame(ByteBuffer data, boolean compress) {
+		this(false, data.duplicate(), compress);
+	}
+	
+	private WsBroadcastFrame(boolean textMode, ByteBuffer data, 
+			boolean compress) {
+		this.textMode = textMode;
+		int opcode = textMode ? 1 : 2;
+		if (compress) {
+			MessageDeflater deflater = new MessageDeflater(true);
+			compressedFrame = buildFrame(
+					opcode | 0x40, deflater.deflate(data, true));
+		}
+		frame = buildFrame(opcode, data);
+	}
+
+	private static ByteBuffer buildFrame(int firstByte, ByteBuffer payload) {
+		int length = payload.remaining();
+		int lengthBytes = length <= 125 ? 0 : (length < 0x10000 ? 2 : 8);
+		ByteBuffer result = ByteBuffer.allocate(2 + lengthBytes + length);
+		result.put((byte)(0x80 | firstByte));
+		switch (lengthBytes) {
+		case 0:
+			result.put((byte)length);
+			break;
+		case 2:
+			result.put((byte)126);
+			result.putShort((short)length);
+			break;
+		default:
+			result.put((byte)127);
+			result.putLong(length);
+			break;
+		}
+		result.put(payload);
+		result.flip();
+		return result;
+	}
+	
+	/**
+	 * @return whether the data is sent as text
+	 */
+	public boolean isTextMode() {
+		return textMode;
+	}
+
+	/**
+	 * @return whether a compressed version is available
+	 */
+	public boolean isCompressed() {
+		return compressedFrame != null;
+	}
+	
+	/**
+	 * Returns the size of the (uncompressed) frame.
+	 * 
+	 * @return the size
+	 */
+	public int size() {
+		return frame.limit();
+	}
+	
+	/**
+	 * Returns a read-only view of the frame.
+	 * 
+	 * @param compressed if set and available, the compressed
+	 * version is returned
+	 * @return the frame
+	 */
+	ByteBuffer frame(boolean compressed) {
+		if (compressed && compressedFrame != null) {
+			return compressedFrame.asReadOnlyBuffer();
+		}
+		return frame.asReadOnlyBuffer();
+	}
+	
+	/* (non-Javadoc)
+	 * @see org.jdrupes.httpcodec.MessageHeader#isFinal()
+	 */
+	@Override
+	public boolean isFinal() {
+		return false;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.jdrupes.httpcodec.MessageHeader#hasPayload()
+	 */
+	@Override
+	public boolean hasPayload() {
+		return false;
+	}
+}
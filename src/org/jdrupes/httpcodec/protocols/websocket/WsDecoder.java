@@ -21,7 +21,6 @@ package org.jdrupes.httpcodec.protocols.websocket;
 import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
-import java.nio.charset.Charset;
 import java.nio.charset.CoderResult;
 import java.util.Optional;
 
@@ -29,7 +28,6 @@ import org.jdrupes.httpcodec.Decoder;
 import org.jdrupes.httpcodec.Encoder;
 import org.jdrupes.httpcodec.ProtocolException;
 import org.jdrupes.httpcodec.util.ByteBufferUtils;
-import org.jdrupes.httpcodec.util.OptimizedCharsetDecoder;
 
 /**
  * The Websocket decoder.
@@ -58,20 +56,46 @@ public class WsDecoder	extends WsCodec
 	}
 	
 	private static Result.Factory resultFactory = new Result.Factory();
+	private static final int UNMASK_BUFFER_SIZE = 4096;
 	
 	private State state = State.READING_HEADER;
 	private long bytesExpected = 2;
 	private boolean dataMessageFinished = true;
 	private int curHeaderHead = 0;
-	private byte[] maskingKey = new byte[4];
+	private int maskingKey;
 	private int maskIndex;
+	private ByteBuffer unmasked;
 	private long payloadLength = 0;
-	private OptimizedCharsetDecoder charDecoder = null;
+	private Utf8Decoder charDecoder = null;
+	private Utf8Decoder closeDecoder = null;
+	private boolean textMessage;
+	private boolean failed;
 	private boolean receivedDataIsMasked;
 	private WsFrameHeader receivedHeader = null;
 	private WsFrameHeader reportedHeader = null;
 	private ByteBuffer controlData = null;
 	private CharBuffer controlChars = null;
+	private PerMessageDeflate deflate;
+	private MessageInflater messageInflater;
+	private boolean messageCompressed;
+	
+	/**
+	 * Creates a new decoder.
+	 */
+	public WsDecoder() {
+		super();
+	}
+	
+	/**
+	 * Creates a new decoder that decompresses messages using
+	 * the given "permessage-deflate" parameters.
+	 * 
+	 * @param deflate the agreed parameters
+	 */
+	public WsDecoder(PerMessageDeflate deflate) {
+		super();
+		this.deflate = deflate;
+	}
 	
 	public Decoder<WsFrameHeader, WsFrameHeader> setPeerEncoder(
 			Encoder<WsFrameHeader, WsFrameHeader> encoder) {
@@ -137,8 +161,13 @@ public class WsDecoder	extends WsCodec
 	@Override
 	public Decoder.Result<WsFrameHeader> decode(ByteBuffer in, Buffer out, 
 			boolean endOfInput) throws ProtocolException {
+		if (failed) {
+			// Data is no longer processed
+			in.position(in.limit());
+			return createResult(false, false, true, null, false);
+		}
 		Decoder.Result<WsFrameHeader> result = null;
-		while (in.hasRemaining()) {
+		while (in.hasRemaining() || inflationPending()) {
 			switch (state) {
 			case READING_HEADER:
 				curHeaderHead = (curHeaderHead << 8) | (in.get() & 0xFF);
@@ -182,7 +211,7 @@ public class WsDecoder	extends WsCodec
 				break;
 				
 			case READING_MASK:
-				maskingKey[4 - (int)bytesExpected] = in.get();
+				maskingKey = (maskingKey << 8) | (in.get() & 0xff);
 				if (--bytesExpected > 0) {
 					continue; // shortcut, no need to check result
 				}
@@ -194,13 +223,24 @@ public class WsDecoder	extends WsCodec
 				if (out == null) {
 					return createResult(true, false);
 				}
+				if (messageCompressed) {
+					result = inflatePayload(in, out);
+					break;
+				}
 				int initiallyAvailable = in.remaining();
 				CoderResult decRes = copyData(out, in,
 				        bytesExpected > Integer.MAX_VALUE
 			                ? Integer.MAX_VALUE : (int) bytesExpected, 
-			            endOfInput);
+			            charDecoder);
+				if (decRes != null && decRes.isError()) {
+					return invalidData();
+				}
 				bytesExpected -= (initiallyAvailable - in.remaining());
 				if (bytesExpected == 0) {
+					if (dataMessageFinished && textMessage 
+							&& !charDecoder.isComplete()) {
+						return invalidData();
+					}
 					expectNextFrame();
 					if (dataMessageFinished) {
 						result = createResult(false, false);
@@ -216,7 +256,7 @@ public class WsDecoder	extends WsCodec
 			case READING_PING_DATA:
 			case READING_PONG_DATA:
 				initiallyAvailable = in.remaining();
-				copyData(controlData, in, (int) bytesExpected, endOfInput);
+				copyData(controlData, in, (int) bytesExpected, null);
 				bytesExpected -= (initiallyAvailable - in.remaining());
 				if (bytesExpected == 0) {
 					controlData.flip();
@@ -238,9 +278,9 @@ public class WsDecoder	extends WsCodec
 			case READING_CLOSE_DATA:
 				if (controlData.position() < 2) {
 					if (receivedDataIsMasked) {
-						controlData.put(
-								(byte)(in.get() ^ maskingKey[maskIndex]));
-						maskIndex = (maskIndex + 1) % 4;
+						controlData.put((byte)(in.get() 
+								^ Masking.keyByte(maskingKey, maskIndex)));
+						maskIndex = (maskIndex + 1) & 3;
 					} else {
 						controlData.put(in.get());
 					}
@@ -252,14 +292,21 @@ public class WsDecoder	extends WsCodec
 					}
 					continue;
 				}
-				if (charDecoder == null) {
-					charDecoder = new OptimizedCharsetDecoder(
-					        Charset.forName("UTF-8").newDecoder());
+				if (closeDecoder == null) {
+					// Close frame may be received while decoding text
+					closeDecoder = new Utf8Decoder();
 				}
 				initiallyAvailable = in.remaining();
-				copyData(controlChars, in, (int) bytesExpected, endOfInput);
+				decRes = copyData(controlChars, in, 
+						(int) bytesExpected, closeDecoder);
+				if (decRes.isError()) {
+					return invalidData();
+				}
 				bytesExpected -= (initiallyAvailable - in.remaining());
 				if (bytesExpected == 0) {
+					if (!closeDecoder.isComplete()) {
+						return invalidData();
+					}
 					expectNextFrame();
 					return createCloseResult();
 				}
@@ -272,7 +319,8 @@ public class WsDecoder	extends WsCodec
 		return createResult(false, bytesExpected > 0);
 	}
 
-	private Decoder.Result<WsFrameHeader> headerComplete() {
+	private Decoder.Result<WsFrameHeader> headerComplete() 
+			throws ProtocolException {
 		receivedHeader = null;
 		reportedHeader = null;
 		boolean finalFrame = isFinalFrame();
@@ -282,9 +330,15 @@ public class WsDecoder	extends WsCodec
 		}
 		bytesExpected = payloadLength;
 		Opcode opcode = Opcode.fromInt(curHeaderHead >> 8 & 0xf);
+		boolean rsv1 = (curHeaderHead & 0x4000) != 0;
+		if (rsv1 && (deflate == null || (opcode != Opcode.TEXT_FRAME
+				&& opcode != Opcode.BIN_FRAME))) {
+			throw new ProtocolException("Unexpected RSV1 bit in frame.");
+		}
 		switch (opcode) {
 		case CONT_FRAME:
-			if (bytesExpected == 0) {
+			if (bytesExpected == 0 && !(messageCompressed && finalFrame
+					&& messageInflater.hasData())) {
 				// kind of ridiculous
 				expectNextFrame();
 				return createResult(false, !finalFrame);
@@ -293,9 +347,12 @@ public class WsDecoder	extends WsCodec
 			return null;
 		case TEXT_FRAME:
 			if (charDecoder == null) {
-				charDecoder = new OptimizedCharsetDecoder(
-				        Charset.forName("UTF-8").newDecoder());
+				charDecoder = new Utf8Decoder();
 			}
+			startMessage(true, rsv1);
+			break;
+		case BIN_FRAME:
+			startMessage(false, rsv1);
 			break;
 		case PING:
 			if (bytesExpected == 0) {
@@ -339,7 +396,20 @@ public class WsDecoder	extends WsCodec
 		return null;
 	}
 	
+	private void startMessage(boolean text, boolean compressed) {
+		textMessage = text;
+		messageCompressed = compressed;
+		if (compressed && messageInflater == null) {
+			// Masked data is sent by the client 
+			messageInflater = new MessageInflater(
+					deflate.noContextTakeover(receivedDataIsMasked));
+		}
+	}
+	
 	private Decoder.Result<WsFrameHeader> createCloseResult() {
+		if (messageInflater != null) {
+			messageInflater.release();
+		}
 		Integer status = null;
 		if (controlData != null) {
 			controlData.flip();
@@ -379,46 +449,142 @@ public class WsDecoder	extends WsCodec
 				ctrlResponse, false);
 	}
 
+	/**
+	 * Checks if the decompression of a message must be continued
+	 * although no data is available from the in buffer.
+	 */
+	private boolean inflationPending() {
+		return state == State.READING_PAYLOAD && messageCompressed
+				&& (bytesExpected == 0 || messageInflater.hasPending()
+					|| !messageInflater.needsInput());
+	}
+	
+	/**
+	 * Decompresses the payload into the out buffer. Returns `null`
+	 * if the frame has been processed completely but the message
+	 * is continued in the next frame.
+	 */
+	private Decoder.Result<WsFrameHeader> inflatePayload(
+			ByteBuffer in, Buffer out) throws ProtocolException {
+		while (true) {
+			CoderResult decRes = messageInflater.drainTo(out, charDecoder);
+			if (decRes != null && decRes.isError()) {
+				return invalidData();
+			}
+			if (messageInflater.hasPending() || !out.hasRemaining()
+					|| (decRes != null && decRes.isOverflow())) {
+				return createResult(true, false);
+			}
+			if (messageInflater.inflate()) {
+				continue;
+			}
+			if (bytesExpected > 0) {
+				if (!in.hasRemaining()) {
+					return createResult(false, true);
+				}
+				ByteBuffer compressed = messageInflater.inputBuffer();
+				compressed.order(in.order());
+				int initiallyAvailable = in.remaining();
+				if (receivedDataIsMasked) {
+					maskIndex = Masking.copyMasked(in, compressed,
+							bytesExpected, maskingKey, maskIndex);
+				} else {
+					ByteBufferUtils.putAsMuchAsPossible(compressed, in,
+							(int)Math.min(bytesExpected, Integer.MAX_VALUE));
+				}
+				bytesExpected -= (initiallyAvailable - in.remaining());
+				messageInflater.feed();
+				continue;
+			}
+			if (!dataMessageFinished) {
+				expectNextFrame();
+				return null;
+			}
+			if (messageInflater.feedTail()) {
+				continue;
+			}
+			if (textMessage && !charDecoder.isComplete()) {
+				return invalidData();
+			}
+			messageInflater.messageComplete();
+			expectNextFrame();
+			return createResult(false, false);
+		}
+	}
+	
+	/**
+	 * Fails the connection because a text message or the reason
+	 * of a close frame is not valid UTF-8 
+	 * (see [RFC 6455, 8.1](https://tools.ietf.org/html/rfc6455#section-8.1)).
+	 * The result includes the close frame to be sent and indicates
+	 * that the connection is to be closed. Any further data is
+	 * discarded.
+	 */
+	private Decoder.Result<WsFrameHeader> invalidData() {
+		failed = true;
+		return createResult(false, false, true, new WsCloseFrame(1007, 
+				CharBuffer.wrap("Invalid UTF-8 data.")), true);
+	}
+	
 	private boolean isFinalFrame() {
 		return (curHeaderHead & 0x8000) != 0;
 	}
 	
+	/**
+	 * Unmasks the data into a scratch buffer and decodes the unmasked
+	 * data into the out buffer. Bytes that have been unmasked but could
+	 * not be decoded because the out buffer is full are "returned" to
+	 * the in buffer.
+	 */
+	private CoderResult decodeMasked(ByteBuffer in, CharBuffer out, 
+			int limit, Utf8Decoder decoder) {
+		if (unmasked == null) {
+			unmasked = ByteBuffer.allocate(UNMASK_BUFFER_SIZE);
+		}
+		unmasked.order(in.order());
+		CoderResult res = null;
+		while (limit > 0 && in.hasRemaining() && out.hasRemaining()) {
+			unmasked.clear();
+			int chunkStart = in.position();
+			maskIndex = Masking.copyMasked(
+					in, unmasked, limit, maskingKey, maskIndex);
+			limit -= in.position() - chunkStart;
+			unmasked.flip();
+			res = decoder.decode(unmasked, out);
+			if (unmasked.hasRemaining()) {
+				int unused = unmasked.remaining();
+				in.position(in.position() - unused);
+				maskIndex = (maskIndex - unused) & 3;
+				break;
+			}
+			if (!res.isUnderflow()) {
+				break;
+			}
+		}
+		return res;
+	}
+	
 	private CoderResult copyData(
-			Buffer out, ByteBuffer in, int limit, boolean endOfInput) {
+			Buffer out, ByteBuffer in, int limit, Utf8Decoder decoder) {
 		if (out instanceof ByteBuffer) {
 			if (!receivedDataIsMasked) {
 				ByteBufferUtils.putAsMuchAsPossible((ByteBuffer) out, in, limit);
 				return null;
 			}
-			while (limit > 0 && in.hasRemaining() && out.hasRemaining()) {
-				((ByteBuffer) out).put(
-						(byte)(in.get() ^ maskingKey[maskIndex]));
-				maskIndex = (maskIndex + 1) % 4;
-				limit -= 1;
-			}
+			maskIndex = Masking.copyMasked(
+					in, (ByteBuffer) out, limit, maskingKey, maskIndex);
 			return null;
 		} 
 		if (out instanceof CharBuffer) {
 			if (receivedDataIsMasked) {
-				ByteBuffer unmasked = ByteBuffer.allocate(1);
-				CoderResult res = null;
-				while (limit > 0 && in.hasRemaining() && out.hasRemaining()) {
-					unmasked.put((byte)(in.get() ^ maskingKey[maskIndex]));
-					maskIndex = (maskIndex + 1) % 4;
-					limit -= 1;
-					unmasked.flip();
-					res = charDecoder.decode(unmasked, (CharBuffer)out, 
-							!in.hasRemaining() && endOfInput);
-					unmasked.clear();
-				}
-				return res;
+				return decodeMasked(in, (CharBuffer)out, limit, decoder);
 			}
 			int oldLimit = in.limit();
 			try {
 				if (in.remaining() > limit) {
 					in.limit(in.position() + limit);
 				}
-				return charDecoder.decode(in, (CharBuffer)out, endOfInput);
+				return decoder.decode(in, (CharBuffer)out);
 			} finally {
 				in.limit(oldLimit);
 			}
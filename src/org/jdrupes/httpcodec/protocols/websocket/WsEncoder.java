@@ -24,10 +24,13 @@ import java.nio.Buffer;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
-import java.security.SecureRandom;
-import java.util.EmptyStackException;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Optional;
-import java.util.Stack;
+import java.util.Queue;
 
 import org.jdrupes.httpcodec.Codec;
 import org.jdrupes.httpcodec.Decoder;
@@ -43,24 +46,41 @@ public class WsEncoder extends WsCodec
 	implements Encoder<WsFrameHeader, WsFrameHeader> {
 
 	private static enum State { STARTING_FRAME, WRITING_HEADER,  
-		WRITING_LENGTH, WRITING_MASK, WRITING_PAYLOAD }
+		WRITING_LENGTH, WRITING_MASK, WRITING_PAYLOAD, WRITING_FRAME }
 	
 	private static float bytesPerCharUtf8		
 		= Charset.forName("utf-8").newEncoder().averageBytesPerChar();
 	private static final Result.Factory resultFactory = new Result.Factory();
+	private static final WsMessageHeader TEXT_MESSAGE 
+		= new WsMessageHeader(true, true);
+	private static final WsMessageHeader BINARY_MESSAGE 
+		= new WsMessageHeader(false, true);
 	
-	private SecureRandom randoms = new SecureRandom();
+	private MaskingKeySource maskingKeySource 
+		= MaskingKeySource.defaultSource();
 	private State state = State.STARTING_FRAME;
 	private boolean continuationFrame;
-	private Stack<WsFrameHeader> messageHeaders = new Stack<>();
+	private Deque<WsFrameHeader> messageHeaders = new ArrayDeque<>();
+	private Deque<WsFrameHeader> pendingControlFrames = new ArrayDeque<>();
+	private boolean interleaving;
 	private int headerHead;
 	private long bytesToSend;
 	private long payloadSize;
 	private int payloadBytes;
 	private boolean doMask = false;
-	private byte[] maskingKey = new byte[4];
+	private int maskingKey;
 	private int maskIndex;
 	private ByteBufferOutputStream convData = new ByteBufferOutputStream();
+	private MessageDeflater messageDeflater;
+	private boolean messageCompressed;
+	private ByteBuffer compressed;
+	private int maxTextFragmentSize;
+	private int maxFrameSize;
+	private CharsetEncoder textEncoder;
+	private boolean streamingText;
+	private int textChars;
+	private ByteBuffer prebuiltFrame;
+	private boolean batchMessagePending;
 
 	/**
 	 * Creates new encoder.
@@ -72,6 +92,113 @@ public class WsEncoder extends WsCodec
 		this.doMask = mask;
 	}
 
+	/**
+	 * Creates new encoder that compresses messages using the
+	 * given "permessage-deflate" parameters.
+	 * 
+	 * @param mask set if the data is to be masked (client)
+	 * @param deflate the agreed parameters
+	 */
+	public WsEncoder(boolean mask, PerMessageDeflate deflate) {
+		this(mask);
+		messageDeflater = new MessageDeflater(deflate.noContextTakeover(mask));
+	}
+
+	/**
+	 * Sets the maximum size of the payload of a frame with text data.
+	 * If set to a value greater than 0, text data is no longer sent 
+	 * as a single frame for each invocation of 
+	 * {@link #encode(Buffer, ByteBuffer, boolean)}. Rather, it is
+	 * split in fragments with at most the given number of bytes.
+	 * The characters are encoded directly into the out buffer. This 
+	 * avoids converting the complete data to UTF-8 before sending the
+	 * frame header, which is required to know the length of the payload.
+	 * <P>
+	 * Fragments always contain complete characters (and never only
+	 * half of a surrogate pair). At least one character is put in a 
+	 * fragment, even if its encoding exceeds the given size.
+	 * <P>
+	 * The setting does not apply to compressed messages.
+	 * 
+	 * @param maxSize the maximum size or 0 (default) 
+	 * if frames are not to be split
+	 */
+	public void setMaxTextFragmentSize(int maxSize) {
+		this.maxTextFragmentSize = maxSize;
+	}
+
+	/**
+	 * Returns the maximum size of the payload of frames with text data.
+	 * 
+	 * @return the size or 0 if frames are not split
+	 * @see #setMaxTextFragmentSize(int)
+	 */
+	public int maxTextFragmentSize() {
+		return maxTextFragmentSize;
+	}
+
+	/**
+	 * Sets the maximum size of the payload of a frame with data
+	 * (text or binary). If set to a value greater than 0, the data 
+	 * passed to an invocation of {@link #encode(Buffer, ByteBuffer, boolean)}
+	 * is sent as several fragments with at most the given number of
+	 * bytes. For text data, this implies the behavior described for 
+	 * {@link #setMaxTextFragmentSize(int)} (using the smaller value 
+	 * if both are set). For compressed messages, the compressed data
+	 * is split.
+	 * <P>
+	 * Control frames passed to {@link #encode(WsFrameHeader)} while
+	 * a frame is being sent are queued and sent before the next
+	 * fragment. Setting a maximum frame size therefore limits the delay
+	 * of e.g. a pong response when large messages are sent.
+	 * 
+	 * @param maxSize the maximum size or 0 (default) 
+	 * if frames are not to be split
+	 */
+	public void setMaxFrameSize(int maxSize) {
+		this.maxFrameSize = maxSize;
+	}
+
+	/**
+	 * Returns the maximum size of the payload of frames with data.
+	 * 
+	 * @return the size or 0 if frames are not split
+	 * @see #setMaxFrameSize(int)
+	 */
+	public int maxFrameSize() {
+		return maxFrameSize;
+	}
+
+	/**
+	 * Returns the effective limit for fragments with text data.
+	 */
+	private int textFragmentLimit() {
+		if (maxTextFragmentSize > 0 && maxFrameSize > 0) {
+			return Math.min(maxTextFragmentSize, maxFrameSize);
+		}
+		return Math.max(maxTextFragmentSize, maxFrameSize);
+	}
+
+	/**
+	 * Sets the source for the masking keys. Defaults to
+	 * {@link MaskingKeySource#defaultSource()}. Only used if
+	 * the encoder masks the data.
+	 * 
+	 * @param maskingKeySource the source
+	 */
+	public void setMaskingKeySource(MaskingKeySource maskingKeySource) {
+		this.maskingKeySource = maskingKeySource;
+	}
+
+	/**
+	 * Returns the source for the masking keys.
+	 * 
+	 * @return the source
+	 */
+	public MaskingKeySource maskingKeySource() {
+		return maskingKeySource;
+	}
+
 	public Encoder<WsFrameHeader, WsFrameHeader> setPeerDecoder(
 			Decoder<WsFrameHeader, WsFrameHeader> decoder) {
 		linkClosingState((WsCodec)decoder);
@@ -116,8 +243,11 @@ public class WsEncoder extends WsCodec
 				// Shouldn't happen
 				break;
 			}
+			if (messageDeflater != null) {
+				messageDeflater.release();
+			}
 		}
-		// Fix statck
+		// Fix stack
 		if (!(messageHeaders.peek() instanceof WsMessageHeader) 
 				|| endOfInput) {
 			messageHeaders.pop();
@@ -128,17 +258,83 @@ public class WsEncoder extends WsCodec
 				!endOfInput || !messageHeaders.isEmpty(), close);
 	}
 	
+	/**
+	 * Invoked when a frame has been written completely. Returns
+	 * `null` if encoding is to be continued with the next frame 
+	 * (the next fragment of the data or a queued control frame).
+	 */
+	private Result frameDone(Buffer in, boolean endOfInput) {
+		if (interleaving) {
+			// A queued control frame has been sent
+			interleaving = false;
+			boolean closed = messageHeaders.peek() instanceof WsCloseFrame;
+			Result result = frameFinished(endOfInput);
+			if (closed) {
+				// Message cannot be continued
+				messageHeaders.clear();
+				pendingControlFrames.clear();
+				return result;
+			}
+			if (!pendingControlFrames.isEmpty() 
+					|| fragmentPending(in)) {
+				return null;
+			}
+			return result;
+		}
+		if (fragmentPending(in)) {
+			// Continue with next fragment
+			state = State.STARTING_FRAME;
+			bytesToSend = 2;
+			return null;
+		}
+		Result result = frameFinished(endOfInput);
+		if (!pendingControlFrames.isEmpty()) {
+			return null;
+		}
+		return result;
+	}
+
+	/**
+	 * Checks if the data of the current invocation of 
+	 * {@link #encode(Buffer, ByteBuffer, boolean)} hasn't been sent
+	 * completely because the data is split in fragments.
+	 */
+	private boolean fragmentPending(Buffer in) {
+		if (!(messageHeaders.peek() instanceof WsMessageHeader)) {
+			return false;
+		}
+		if (messageCompressed) {
+			return compressed != null && compressed.hasRemaining();
+		}
+		return in.hasRemaining();
+	}
+	
 	/* (non-Javadoc)
 	 * @see org.jdrupes.httpcodec.ResponseEncoder#encode(org.jdrupes.httpcodec.MessageHeader)
 	 */
 	@Override
 	public void encode(WsFrameHeader messageHeader) {
 		if (state != State.STARTING_FRAME) {
+			if (isControlFrame(messageHeader)) {
+				// Send before next fragment
+				pendingControlFrames.add(messageHeader);
+				return;
+			}
 			throw new IllegalStateException(
 					"Trying to start new frame while previous "
 						+ "has not completely been sent");
 		}
-		if (messageHeader instanceof WsMessageHeader) {
+		if (messageHeader instanceof WsBroadcastFrame) {
+			if (doMask) {
+				throw new IllegalStateException(
+						"Broadcast frames cannot be sent by a client.");
+			}
+			messageHeaders.clear();
+			messageHeaders.push(messageHeader);
+			prebuiltFrame = ((WsBroadcastFrame)messageHeader).frame(
+					messageDeflater != null 
+					&& messageDeflater.noContextTakeover());
+		} else if (messageHeader instanceof WsMessageHeader) {
 			messageHeaders.clear();
 			messageHeaders.push(messageHeader);
 			if (((WsMessageHeader) messageHeader).isTextMode()) {
@@ -147,23 +343,38 @@ public class WsEncoder extends WsCodec
 				headerHead = (2 << 8);
 			}
 			continuationFrame = false;
-		} else {
-			messageHeaders.push(messageHeader);
-			if (messageHeader instanceof WsCloseFrame) {
-				headerHead = (8 << 8);
-			} else if (messageHeader instanceof WsPingFrame) {
-				headerHead = (9 << 8);
-			} else if (messageHeader instanceof WsPongFrame) {
-				headerHead = (10 << 8);
-			} else {
-				throw new IllegalArgumentException(
-				        "Invalid hessage header type");
+			messageCompressed = messageDeflater != null;
+			if (messageCompressed) {
+				// RSV1, set in first frame only
+				headerHead |= 0x4000;
 			}
+		} else {
+			startControlFrame(messageHeader);
 		}
 		state = State.STARTING_FRAME;
 		bytesToSend = 2;
 	}
 
+	private static boolean isControlFrame(WsFrameHeader header) {
+		return header instanceof WsCloseFrame 
+				|| header instanceof WsPingFrame
+				|| header instanceof WsPongFrame;
+	}
+	
+	private void startControlFrame(WsFrameHeader messageHeader) {
+		if (messageHeader instanceof WsCloseFrame) {
+			headerHead = (8 << 8);
+		} else if (messageHeader instanceof WsPingFrame) {
+			headerHead = (9 << 8);
+		} else if (messageHeader instanceof WsPongFrame) {
+			headerHead = (10 << 8);
+		} else {
+			throw new IllegalArgumentException(
+			        "Invalid hessage header type");
+		}
+		messageHeaders.push(messageHeader);
+	}
+
 	@Override
 	public Result encode(Buffer in, ByteBuffer out, boolean endOfInput) {
 		if (closingState() == ClosingState.CLOSED) {
@@ -171,13 +382,28 @@ public class WsEncoder extends WsCodec
 			// If server (!doMask) close connection.
 			return resultFactory().newResult(false, false, !doMask);
 		}
+		if (messageHeaders.isEmpty() && pendingControlFrames.isEmpty()) {
+			// Nothing to send (message aborted by close frame)
+			return resultFactory().newResult(false, false, false);
+		}
 		Result result = null;
 		while (out.remaining() > 0) {
 			switch(state) {
 			case STARTING_FRAME:
+				if (!pendingControlFrames.isEmpty()) {
+					// Control frame jumps the queue
+					startControlFrame(pendingControlFrames.poll());
+					interleaving = true;
+				}
+				if (messageHeaders.peek() instanceof WsBroadcastFrame) {
+					state = State.WRITING_FRAME;
+					continue;
+				}
 				prepareHeaderHead(in, endOfInput);
-				// If called again without new message header...
-				continuationFrame = true;
+				if (messageHeaders.peek() instanceof WsMessageHeader) {
+					// If called again without new message header...
+					continuationFrame = true;
+				}
 				state = State.WRITING_HEADER;
 				// fall through
 			case WRITING_HEADER:
@@ -191,21 +417,29 @@ public class WsEncoder extends WsCodec
 					continue;
 				}
 				// Length written
-				result = nextAfterLength(endOfInput);
+				result = nextAfterLength(in, endOfInput);
 				break;
 			case WRITING_LENGTH:
 				out.put((byte)(payloadSize >> 8 * --bytesToSend));
 				if (bytesToSend > 0) {
 					continue;
 				}
-				result = nextAfterLength(endOfInput);
+				result = nextAfterLength(in, endOfInput);
 				break;
 			case WRITING_MASK:
-				out.put(maskingKey[4 - (int)bytesToSend]);
+				out.put(Masking.keyByte(maskingKey, 4 - (int)bytesToSend));
 				if (--bytesToSend > 0) {
 					continue;
 				}
-				result = nextAfterMask(endOfInput);
+				result = nextAfterMask(in, endOfInput);
+				break;
+			case WRITING_FRAME:
+				ByteBufferUtils.putAsMuchAsPossible(out, prebuiltFrame);
+				if (prebuiltFrame.hasRemaining()) {
+					return resultFactory().newResult(true, false, false);
+				}
+				prebuiltFrame = null;
+				result = frameDone(in, true);
 				break;
 			case WRITING_PAYLOAD:
 				int posBefore = out.position();
@@ -213,7 +447,13 @@ public class WsEncoder extends WsCodec
 				bytesToSend -= (out.position() - posBefore);
 				if (bytesToSend == 0) {
 					convData.clear();
-					return frameFinished(endOfInput);
+					result = frameDone(in, endOfInput);
+					break;
+				}
+				if (streamingText 
+						&& (messageHeaders.peek() instanceof WsMessageHeader)) {
+					// Next character didn't fit
+					return resultFactory().newResult(true, false, false);
 				}
 				return resultFactory().newResult(!out.hasRemaining(),
 						(messageHeaders.peek() instanceof WsMessageHeader) 
@@ -226,12 +466,125 @@ public class WsEncoder extends WsCodec
 		return resultFactory().newResult(true, false, false);
 	}
 
+	/**
+	 * Encodes a batch of (small) messages. Each message from the queue
+	 * is sent as a complete message. A `CharBuffer` is sent as text
+	 * message, a `ByteBuffer` as binary message. Messages are removed
+	 * from the queue when they have been encoded completely.
+	 * <P>
+	 * The method puts as many complete frames in the out buffer as
+	 * fit. If the next message doesn't fit in the remaining space,
+	 * the method returns with the overflow flag set. If nothing has
+	 * been written to the out buffer when the invocation starts, the
+	 * message is encoded nevertheless. In this case, the overflow flag
+	 * is set if the message didn't fit in the out buffer and encoding
+	 * is continued with the next invocation.
+	 * <P>
+	 * The method may not be used while a message passed to 
+	 * {@link #encode(WsFrameHeader)} is being encoded.
+	 * 
+	 * @param messages the messages
+	 * @param out the out buffer
+	 * @return the result
+	 */
+	public Result encodeBatch(Queue<? extends Buffer> messages, 
+			ByteBuffer out) {
+		boolean outEmpty = (out.position() == 0);
+		while (true) {
+			Buffer next = messages.peek();
+			if (next == null) {
+				return resultFactory().newResult(false, false, false);
+			}
+			// The state is also STARTING_FRAME at a fragment boundary,
+			// so a separate flag is needed to detect a new message
+			if (!batchMessagePending) {
+				if (!outEmpty && estimatedFrameSize(next) > out.remaining()) {
+					return resultFactory().newResult(true, false, false);
+				}
+				encode(next instanceof CharBuffer 
+						? TEXT_MESSAGE : BINARY_MESSAGE);
+				batchMessagePending = true;
+			}
+			outEmpty = false;
+			Result result = encode(next, out, true);
+			if (result.isOverflow() || result.closeConnection()) {
+				return result;
+			}
+			batchMessagePending = false;
+			messages.poll();
+		}
+	}
+
+	/**
+	 * Estimates the size of the frame for the given data. 
+	 * Compression is not taken into account.
+	 */
+	private long estimatedFrameSize(Buffer data) {
+		long size = (data instanceof CharBuffer)
+				? measureText((CharBuffer)data, Long.MAX_VALUE)
+				: data.remaining();
+		return 2 + (size <= 125 ? 0 : (size < 0x10000 ? 2 : 8))
+				+ (doMask ? 4 : 0) + size;
+	}
+	
+	/**
+	 * Encodes a frame with binary data without copying the data.
+	 * The method returns two buffers, the first holding the frame's
+	 * header, the second being a slice of the data in "in". The 
+	 * buffers can be written with
+	 * {@link java.nio.channels.GatheringByteChannel#write(ByteBuffer[])}.
+	 * The position of "in" is advanced to its limit, so the data
+	 * in "in" must not be modified until the frame has been written.
+	 * If a maximum frame size has been set (see 
+	 * {@link #setMaxFrameSize(int)}), the position is only advanced
+	 * by the size of the frame's payload and the method must be invoked
+	 * again while "in" has remaining data.
+	 * <P>
+	 * The method can be used instead of 
+	 * {@link #encode(Buffer, ByteBuffer, boolean)} by encoders that
+	 * neither mask nor compress the data, i.e. by server side encoders
+	 * for which "permessage-deflate" has not been negotiated, and only
+	 * if the current message is a binary message.
+	 * 
+	 * @param in the data
+	 * @param endOfInput set if this is the last frame of the message
+	 * @return the header and the data
+	 * @throws IllegalStateException if the encoder is not in a state
+	 * that allows to use this method
+	 */
+	public ByteBuffer[] encodeGathering(ByteBuffer in, boolean endOfInput) {
+		WsFrameHeader hdr = messageHeaders.peek();
+		if (state != State.STARTING_FRAME || doMask || messageCompressed
+				|| !(hdr instanceof WsMessageHeader)
+				|| ((WsMessageHeader)hdr).isTextMode()) {
+			throw new IllegalStateException(
+					"Gathering output is only supported for unmasked, "
+					+ "uncompressed binary messages.");
+		}
+		prepareHeaderHead(in, endOfInput);
+		continuationFrame = true;
+		ByteBuffer header = ByteBuffer.allocate(2 + payloadBytes);
+		header.putShort((short)headerHead);
+		for (int i = payloadBytes - 1; i >= 0; i--) {
+			header.put((byte)(payloadSize >> 8 * i));
+		}
+		header.flip();
+		ByteBuffer payload = in.slice();
+		payload.limit((int)payloadSize);
+		in.position(in.position() + (int)payloadSize);
+		if (!in.hasRemaining()) {
+			frameFinished(endOfInput);
+		}
+		return new ByteBuffer[] { header, payload };
+	}
+	
 	/**
 	 * Prepares the start (head) of the header. As a side effect, if
 	 * "in" holds textual data (or if the data is obtained from the
 	 * to be encoded message header (close frame)) it is written into
 	 * convData because this is the only way to "calculate" the payload 
-	 * size. 
+	 * size. For the same reason, data of compressed messages is
+	 * compressed here. 
 	 * 
 	 * @param in input data
 	 * @param endOfInput set if end of input
@@ -242,15 +595,39 @@ public class WsEncoder extends WsCodec
 			if (continuationFrame) {
 				headerHead = 0;
 			}
-			if (endOfInput) {
-				headerHead |= 0x8000;
-			}
+			boolean finalFrame = endOfInput;
 			// Prepare payload
-			if (in instanceof CharBuffer) {
+			streamingText = false;
+			if (messageCompressed) {
+				if (compressed == null || !compressed.hasRemaining()) {
+					ByteBuffer data = (in instanceof CharBuffer)
+							? StandardCharsets.UTF_8.encode(
+									((CharBuffer)in).duplicate())
+							: ((ByteBuffer)in).duplicate();
+					compressed = messageDeflater.deflate(data, endOfInput);
+				}
+				// else continue with next fragment of compressed data
+				payloadSize = compressed.remaining();
+				if (maxFrameSize > 0 && payloadSize > maxFrameSize) {
+					payloadSize = maxFrameSize;
+					finalFrame = false;
+				}
+			} else if (in instanceof CharBuffer && textFragmentLimit() > 0) {
+				streamingText = true;
+				payloadSize = measureText((CharBuffer)in, textFragmentLimit());
+				finalFrame = endOfInput && textChars == in.remaining();
+			} else if (in instanceof CharBuffer) {
 				convData.clear();
 				payloadSize = convTextData(in);
 			} else {
 				payloadSize = in.remaining();
+				if (maxFrameSize > 0 && payloadSize > maxFrameSize) {
+					payloadSize = maxFrameSize;
+					finalFrame = false;
+				}
+			}
+			if (finalFrame) {
+				headerHead |= 0x8000;
 			}
 		} else {
 			// Control frame
@@ -280,7 +657,7 @@ public class WsEncoder extends WsCodec
 		// Finally add mask bit
 		if (doMask) {
 			headerHead |= 0x80;
-			randoms.nextBytes(maskingKey);
+			maskingKey = maskingKeySource.nextKey();
 		}
 
 		// Code payload size
@@ -296,6 +673,56 @@ public class WsEncoder extends WsCodec
 		}
 	}
 
+	/**
+	 * Determines the number of characters from "in" that fit in the
+	 * next fragment (stored in textChars) and the length of their
+	 * UTF-8 representation (returned). 
+	 * 
+	 * @param in the characters
+	 * @param maxSize the maximum size of the fragment
+	 * @return the length of the payload
+	 */
+	private long measureText(CharBuffer in, long maxSize) {
+		if (textEncoder == null) {
+			textEncoder = StandardCharsets.UTF_8.newEncoder()
+					.onMalformedInput(CodingErrorAction.REPLACE)
+					.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		}
+		textEncoder.reset();
+		int start = in.position();
+		int end = in.limit();
+		int pos = start;
+		long length = 0;
+		while (pos < end) {
+			char chr = in.get(pos);
+			int chars = 1;
+			int bytes;
+			if (chr < 0x80) {
+				bytes = 1;
+			} else if (chr < 0x800) {
+				bytes = 2;
+			} else if (Character.isSurrogate(chr)) {
+				if (Character.isHighSurrogate(chr) && pos + 1 < end
+						&& Character.isLowSurrogate(in.get(pos + 1))) {
+					chars = 2;
+					bytes = 4;
+				} else {
+					// Malformed, replaced with '?'
+					bytes = 1;
+				}
+			} else {
+				bytes = 3;
+			}
+			if (length + bytes > maxSize && pos > start) {
+				break;
+			}
+			length += bytes;
+			pos += chars;
+		}
+		textChars = pos - start;
+		return length;
+	}
+	
 	private long convTextData(Buffer in) {
 		convData.setOverflowBufferSize(
 				(int) (in.remaining() * bytesPerCharUtf8));
@@ -320,18 +747,18 @@ public class WsEncoder extends WsCodec
 		}
 	}
 	
-	private Result nextAfterLength(boolean endOfInput) {
+	private Result nextAfterLength(Buffer in, boolean endOfInput) {
 		if (doMask) {
 			bytesToSend = 4;
 			state = State.WRITING_MASK;
 			return null;
 		}
-		return nextAfterMask(endOfInput);
+		return nextAfterMask(in, endOfInput);
 	}
 	
-	private Result nextAfterMask(boolean endOfInput) {
+	private Result nextAfterMask(Buffer in, boolean endOfInput) {
 		if (payloadSize == 0) {
-			return frameFinished(endOfInput);
+			return frameDone(in, endOfInput);
 		}
 		maskIndex = 0;
 		bytesToSend = payloadSize;
@@ -351,6 +778,38 @@ public class WsEncoder extends WsCodec
 		// Default is to use data directly from in buffer.
 		Buffer src = in;
 		WsFrameHeader hdr = messageHeaders.peek();
+		if (streamingText && (hdr instanceof WsMessageHeader)) {
+			// Encode directly into out
+			CharBuffer chars = (CharBuffer)in;
+			int oldLimit = chars.limit();
+			chars.limit(chars.position() + textChars);
+			int charsBefore = chars.position();
+			int outBefore = out.position();
+			textEncoder.encode(chars, out, true);
+			textChars -= chars.position() - charsBefore;
+			chars.limit(oldLimit);
+			if (doMask) {
+				// Mask in place
+				ByteBuffer encoded = out.duplicate();
+				encoded.limit(out.position()).position(outBefore);
+				maskIndex = Masking.copyMasked(encoded, encoded.duplicate(),
+						bytesToSend, maskingKey, maskIndex);
+			}
+			return;
+		}
+		if (messageCompressed && (hdr instanceof WsMessageHeader)) {
+			// Data has been compressed
+			// Make full consumption visible "outside"
+			in.position(in.limit());
+			if (!doMask) {
+				ByteBufferUtils.putAsMuchAsPossible(
+						out, compressed, (int)bytesToSend);
+				return;
+			}
+			maskIndex = Masking.copyMasked(
+					compressed, out, bytesToSend, maskingKey, maskIndex);
+			return;
+		}
 		boolean textPayload = (hdr instanceof WsMessageHeader) 
 				&& ((WsMessageHeader)hdr).isTextMode();
 		if (textPayload || (hdr instanceof WsCloseFrame)) {
@@ -380,17 +839,14 @@ public class WsEncoder extends WsCodec
 						.applicationData().orElse(Codec.EMPTY_IN);
 			}
 			if (!doMask) {
-				ByteBufferUtils.putAsMuchAsPossible(out, (ByteBuffer) src);
+				ByteBufferUtils.putAsMuchAsPossible(
+						out, (ByteBuffer) src, (int)bytesToSend);
 				return;
 			}
 		}
 		// Mask while writing
-		while (bytesToSend > 0
-		        && src.hasRemaining() && out.hasRemaining()) {
-			out.put((byte) (((ByteBuffer) src)
-			        .get() ^ maskingKey[maskIndex]));
-			maskIndex = (maskIndex + 1) % 4;
-		}
+		maskIndex = Masking.copyMasked(
+				(ByteBuffer) src, out, bytesToSend, maskingKey, maskIndex);
 	}
 
 	/* (non-Javadoc)
@@ -398,11 +854,7 @@ public class WsEncoder extends WsCodec
 	 */
 	@Override
 	public Optional<WsFrameHeader> header() {
-		try {
-			return Optional.of(messageHeaders.peek());
-		} catch (EmptyStackException e) {
-			return Optional.empty();
-		}
+		return Optional.ofNullable(messageHeaders.peek());
 	}
 
 	/**
@@ -18,8 +18,6 @@
 
 package org.jdrupes.httpcodec.protocols.websocket;
 
-import java.io.UnsupportedEncodingException;
-import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.Base64;
@@ -36,7 +34,9 @@ import org.jdrupes.httpcodec.protocols.http.HttpResponse;
 import org.jdrupes.httpcodec.types.Converters;
 
 /**
- * A protocol provider for the WebSocket protocol.
+ * A protocol provider for the WebSocket protocol. Offers of the
+ * "permessage-deflate" extension (see {@link PerMessageDeflate})
+ * are accepted automatically.
  * 
  * ![WsProtocolProvider](WsProtocolProvider.svg)
  * 
@@ -55,6 +55,10 @@ import org.jdrupes.httpcodec.types.Converters;
  * 	+ResponseDecoder<?,?> createResponseDecoder(String protocol)
  * }
  * 
+ * class PerMessageDeflate
+ * 
+ * WsProtocolProvider ..> PerMessageDeflate : negotiates
+ * 
  * ProtocolProvider <|-- WsProtocolProvider
  * 
  * @enduml
@@ -108,18 +112,15 @@ public class WsProtocolProvider extends UpgradeProvider {
 					"Header field Sec-WebSocket-Accept is missing.");
 		}
 		String wsKey = request.findStringValue("Sec-WebSocket-Key").get();
-		String magic = wsKey + "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
 		try {
-			MessageDigest crypt = MessageDigest.getInstance("SHA-1");
-			byte[] sha1 = crypt.digest(magic.getBytes("ascii"));
-			String expected = Base64.getEncoder().encodeToString(sha1);
-			if (!accept.get().equals(expected)) {
+			if (!AcceptKey.matches(wsKey, accept.get())) {
 				throw new ProtocolException(
 						"Invalid value in Sec-WebSocket-Accept header field.");
 			}
-		} catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+		} catch (NoSuchAlgorithmException e) {
 			throw new ProtocolException(e);
 		}
+		PerMessageDeflate.checkAgreed(request, response);
 	}
 
 	/* (non-Javadoc)
@@ -146,14 +147,12 @@ public class WsProtocolProvider extends UpgradeProvider {
 			return;
 			
 		}
-		String magic = wsKey.get() + "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
 		try {
-			MessageDigest crypt = MessageDigest.getInstance("SHA-1");
-			byte[] sha1 = crypt.digest(magic.getBytes("ascii"));
-			String accept = Base64.getEncoder().encodeToString(sha1);
+			String accept = AcceptKey.forKey(wsKey.get());
 			response.setField(new HttpField<String>(
 					"Sec-WebSocket-Accept", accept, Converters.UNQUOTED_STRING));
-		} catch (NoSuchAlgorithmException | UnsupportedEncodingException e) {
+			PerMessageDeflate.accept(response.request().get(), response);
+		} catch (NoSuchAlgorithmException e) {
 			response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR)
 				.setHasPayload(false).clearHeaders();
 			return;
@@ -192,4 +191,53 @@ public class WsProtocolProvider extends UpgradeProvider {
 		return new WsDecoder();
 	}
 
+	/* (non-Javadoc)
+	 * @see ProtocolProvider#createRequestEncoder(String, HttpResponse)
+	 */
+	@Override
+	public Encoder<?, ?> createRequestEncoder(
+			String protocol, HttpResponse response) {
+		return agreedDeflate(response).map(pmd -> new WsEncoder(true, pmd))
+				.orElseGet(() -> new WsEncoder(true));
+	}
+
+	/* (non-Javadoc)
+	 * @see ProtocolProvider#createRequestDecoder(String, HttpResponse)
+	 */
+	@Override
+	public Decoder<?, ?> createRequestDecoder(
+			String protocol, HttpResponse response) {
+		return agreedDeflate(response).map(WsDecoder::new)
+				.orElseGet(WsDecoder::new);
+	}
+
+	/* (non-Javadoc)
+	 * @see ProtocolProvider#createResponseEncoder(String, HttpResponse)
+	 */
+	@Override
+	public Encoder<?, ?> createResponseEncoder(
+			String protocol, HttpResponse response) {
+		return agreedDeflate(response).map(pmd -> new WsEncoder(false, pmd))
+				.orElseGet(() -> new WsEncoder(false));
+	}
+
+	/* (non-Javadoc)
+	 * @see ProtocolProvider#createResponseDecoder(String, HttpResponse)
+	 */
+	@Override
+	public Decoder<?, ?> createResponseDecoder(
+			String protocol, HttpResponse response) {
+		return agreedDeflate(response).map(WsDecoder::new)
+				.orElseGet(WsDecoder::new);
+	}
+
+	private Optional<PerMessageDeflate> agreedDeflate(HttpResponse response) {
+		try {
+			return PerMessageDeflate.agreed(response);
+		} catch (ProtocolException e) {
+			// Has been checked before
+			return Optional.empty();
+		}
+	}
+
 }
@@ -44,4 +44,21 @@ public interface Converter<T> {
 	 * @throws ParseException if the value cannot be parsed
 	 */
 	T fromFieldValue(String text) throws ParseException;
+
+	/**
+	 * Returns the type of the values produced by 
+	 * {@link #fromFieldValue(String)}. The type is used to check
+	 * whether a header field's value has already been converted
+	 * by this converter.
+	 * 
+	 * The default implementation returns the return type of
+	 * the `fromFieldValue` method of the converter's class. It
+	 * is looked up once for each class and cached. Converters may 
+	 * override this method if the type is known in advance.
+	 * 
+	 * @return the value type
+	 */
+	default Class<?> valueType() {
+		return Converters.VALUE_TYPES.get(getClass());
+	}
 }
\ No newline at end of file
@@ -48,6 +48,23 @@ public final class Converters {
 	 * Converters used by others must be defined first.
 	 */
 
+	/**
+	 * Caches the value types of converter classes, see
+	 * {@link Converter#valueType()}.
+	 */
+	static final ClassValue<Class<?>> VALUE_TYPES = new ClassValue<Class<?>>() {
+		@Override
+		protected Class<?> computeValue(Class<?> type) {
+			try {
+				return type.getMethod("fromFieldValue", String.class)
+						.getReturnType();
+			} catch (NoSuchMethodException e) {
+				// Known to exist, converters must implement it
+				throw new IllegalStateException(e);
+			}
+		}
+	};
+
 	/**
 	 * A noop converter, except that text is trimmed when converted to
 	 * a value.
@@ -20,7 +20,9 @@ package org.jdrupes.httpcodec.types;
 
 import java.text.ParseException;
 import java.time.Instant;
+import java.time.LocalDate;
 import java.time.Year;
+import java.time.YearMonth;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeFormatterBuilder;
@@ -34,6 +36,10 @@ import java.util.Locale;
  */
 public class InstantConverter implements Converter<Instant> {
 
+	// "Sun, 06 Nov 1994 08:49:37 GMT"
+	private static final DateTimeFormatter IMF_FIXDATE
+		= DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", 
+				Locale.US).withZone(ZoneId.of("GMT"));
 	// "Sunday, 06-Nov-94 08:49:37 GMT"
 	private static final DateTimeFormatter RFC_850_DATE_TIME
 		= new DateTimeFormatterBuilder().appendPattern("EEEE, dd-MMM-")
@@ -46,14 +52,122 @@ public class InstantConverter implements Converter<Instant> {
 		= DateTimeFormatter.ofPattern("EEE MMM ppd HH:mm:ss yyyy", Locale.US)
 		.withZone(ZoneId.of("GMT"));
 
+	private static final String[] DAY_NAMES = { 
+			"Mon", "Tue", "Wed", "Thu", "Fri", "Sat", "Sun" };
+	private static final String[] MONTH_NAMES = { 
+			"Jan", "Feb", "Mar", "Apr", "May", "Jun", 
+			"Jul", "Aug", "Sep", "Oct", "Nov", "Dec" };
+	
+	// Recently parsed values, entries are replaced without locking
+	private static final int CACHE_SIZE = 16;
+	private final CacheEntry[] cache = new CacheEntry[CACHE_SIZE];
+	
+	private static class CacheEntry {
+		public final String text;
+		public final Instant value;
+		
+		public CacheEntry(String text, Instant value) {
+			this.text = text;
+			this.value = value;
+		}
+	}
+	
+	/**
+	 * Formats the value as IMF-fixdate. In contrast to
+	 * {@link DateTimeFormatter#RFC_1123_DATE_TIME}, the day of month
+	 * always has two digits.
+	 */
 	@Override
 	public String asFieldValue(Instant value) {
-		return DateTimeFormatter.RFC_1123_DATE_TIME.format(
-				value.atZone(ZoneId.of("GMT")));	
+		return IMF_FIXDATE.format(value);	
 	}
 
+	/**
+	 * Converts the text to an {@link Instant}. The preferred format 
+	 * (IMF-fixdate, see
+	 * [RFC 7231, 7.1.1.1](https://tools.ietf.org/html/rfc7231#section-7.1.1.1))
+	 * is parsed directly, the obsolete formats are handled by
+	 * {@link DateTimeFormatter}s. Because the same dates tend to occur
+	 * in many messages, the results for the most recently converted
+	 * texts are cached.
+	 */
 	@Override
 	public Instant fromFieldValue(String text) throws ParseException {
+		int slot = text.hashCode() & (CACHE_SIZE - 1);
+		CacheEntry entry = cache[slot];
+		if (entry != null && entry.text.equals(text)) {
+			return entry.value;
+		}
+		Instant result = parseImfFixdate(text);
+		if (result == null) {
+			result = parseWithFormatters(text);
+		}
+		cache[slot] = new CacheEntry(text, result);
+		return result;
+	}
+
+	/**
+	 * Parses a date in IMF-fixdate format ("Sun, 06 Nov 1994 08:49:37 GMT").
+	 * 
+	 * @param text the text
+	 * @return the result or {@code null} if the text does not
+	 * strictly match the format
+	 */
+	private static Instant parseImfFixdate(String text) {
+		if (text.length() != 29 || text.charAt(3) != ','
+				|| text.charAt(4) != ' ' || text.charAt(7) != ' '
+				|| text.charAt(11) != ' ' || text.charAt(16) != ' '
+				|| text.charAt(19) != ':' || text.charAt(22) != ':'
+				|| !text.startsWith(" GMT", 25)) {
+			return null;
+		}
+		int day = digits(text, 5, 2);
+		int month = nameIndex(MONTH_NAMES, text, 8) + 1;
+		int year = digits(text, 12, 4);
+		int hour = digits(text, 17, 2);
+		int minute = digits(text, 20, 2);
+		int second = digits(text, 23, 2);
+		int dayOfWeek = nameIndex(DAY_NAMES, text, 0) + 1;
+		if (day < 1 || day > 31 || month < 1 || year < 0 || dayOfWeek < 1
+				|| hour < 0 || hour > 23 || minute < 0 || minute > 59
+				|| second < 0 || second > 59) {
+			return null;
+		}
+		if (day > 28 && day > YearMonth.of(year, month).lengthOfMonth()) {
+			return null;
+		}
+		long epochDay = LocalDate.of(year, month, day).toEpochDay();
+		// 1970-01-01 was a Thursday
+		if (Math.floorMod(epochDay + 3, 7) + 1 != dayOfWeek) {
+			return null;
+		}
+		return Instant.ofEpochSecond(
+				epochDay * 86400 + hour * 3600 + minute * 60 + second);
+	}
+	
+	private static int digits(String text, int offset, int count) {
+		int result = 0;
+		for (int i = offset; i < offset + count; i++) {
+			char ch = text.charAt(i);
+			if (ch < '0' || ch > '9') {
+				return -1;
+			}
+			result = result * 10 + (ch - '0');
+		}
+		return result;
+	}
+	
+	private static int nameIndex(String[] names, String text, int offset) {
+		for (int i = 0; i < names.length; i++) {
+			if (text.startsWith(names[i], offset)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+	
+	private static Instant parseWithFormatters(String text) 
+			throws ParseException {
 		try {
 			return Instant.from(
 					DateTimeFormatter.RFC_1123_DATE_TIME.parse(text));
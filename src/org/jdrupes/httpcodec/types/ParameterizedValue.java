@@ -300,6 +300,10 @@ public class ParameterizedValue<U> {
 			for (Entry<String, String> e: value.parameters().entrySet()) {
 				result.append("; ");
 				result.append(e.getKey());
+				if (e.getValue() == null) {
+					// Parameter without value
+					continue;
+				}
 				result.append('=');
 				result.append(paramValueConverter.asFieldValue(e.getValue()));
 			}
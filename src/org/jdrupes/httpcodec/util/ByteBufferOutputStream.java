@@ -179,6 +179,41 @@ public class ByteBufferOutputStream extends OutputStream {
 		}
 	}
 
+	/**
+	 * Writes the characters from the given text as US-ASCII encoded
+	 * bytes. Characters that cannot be represented in US-ASCII are
+	 * written as "?". The bytes are put directly into the assigned
+	 * (or overflow) buffer, no intermediate objects are created.
+	 *
+	 * @param text the text
+	 */
+	public void writeAscii(CharSequence text) {
+		int length = text.length();
+		bytesWritten += length;
+		int index = 0;
+		while (index < length) {
+			if (current == null || current.remaining() == 0) {
+				allocateOverflowBuffer();
+			}
+			int chunk = Math.min(current.remaining(), length - index);
+			if (current.hasArray()) {
+				byte[] array = current.array();
+				int offset = current.arrayOffset() + current.position();
+				for (int i = 0; i < chunk; i++) {
+					char ch = text.charAt(index + i);
+					array[offset + i] = ch < 128 ? (byte)ch : (byte)'?';
+				}
+				current.position(current.position() + chunk);
+			} else {
+				for (int i = 0; i < chunk; i++) {
+					char ch = text.charAt(index + i);
+					current.put(ch < 128 ? (byte)ch : (byte)'?');
+				}
+			}
+			index += chunk;
+		}
+	}
+
 	/**
 	 * Copies the data from the given buffer to this output stream.
 	 * 
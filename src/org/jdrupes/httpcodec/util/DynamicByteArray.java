@@ -18,6 +18,8 @@
 
 package org.jdrupes.httpcodec.util;
 
+import java.nio.ByteBuffer;
+
 /**
  * A dynamically growing byte array.
  */
@@ -46,9 +48,7 @@ public class DynamicByteArray {
 	 */
 	public void append(byte data) {
 		if (position >= bytes.length) {
-			byte[] newBytes = new byte[(int)(bytes.length * 1.3)];
-			System.arraycopy(bytes, 0, newBytes, 0, bytes.length);
-			bytes = newBytes;
+			ensureCapacity(1);
 		}
 		bytes[position++] = data;
 	}
@@ -61,12 +61,32 @@ public class DynamicByteArray {
 	 * @param length the number of bytes to append
 	 */
 	public void append(byte[] data, int offset, int length) {
-		if (bytes.length - position < length) {
-			byte[] newBytes = new byte[(int)((bytes.length + length) * 1.3)];
-			System.arraycopy(bytes, 0, newBytes, 0, bytes.length);
-			bytes = newBytes;
-		}
+		ensureCapacity(length);
 		System.arraycopy(data, offset, bytes, position, length);
+		position += length;
+	}
+
+	/**
+	 * Appends the given number of bytes from the buffer, growing the 
+	 * array if necessary. The bytes are transferred with a single bulk
+	 * get and the buffer's position is advanced accordingly.
+	 * 
+	 * @param data the buffer with the bytes
+	 * @param length the number of bytes to append
+	 */
+	public void append(ByteBuffer data, int length) {
+		ensureCapacity(length);
+		data.get(bytes, position, length);
+		position += length;
+	}
+
+	private void ensureCapacity(int additional) {
+		if (bytes.length - position >= additional) {
+			return;
+		}
+		byte[] newBytes = new byte[(int)((bytes.length + additional) * 1.3)];
+		System.arraycopy(bytes, 0, newBytes, 0, position);
+		bytes = newBytes;
 	}
 
 	/**
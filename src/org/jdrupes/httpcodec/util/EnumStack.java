@@ -0,0 +1,158 @@
+/*
+ * This file is part of the JDrupes non-blocking HTTP Codec
+ * Copyright (C) 2018  Michael N. Lipp
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jdrupes.httpcodec.util;
+
+import java.util.Arrays;
+import java.util.EmptyStackException;
+
+/**
+ * A lightweight stack for enum values, intended to be used for the
+ * states of the codecs' state machines.
+ * <P>
+ * In contrast to {@link java.util.Stack}, the methods are not
+ * synchronized (codecs are not thread-safe anyway) and the values
+ * are kept as ordinals in a primitive array. The array grows if
+ * necessary, but the initial capacity is usually sufficient.
+ *
+ * @param <E> the enum type
+ */
+public class EnumStack<E extends Enum<E>> {
+
+	private final E[] values;
+	private int[] ordinals;
+	private int size;
+
+	/**
+	 * Creates a new stack for values of the given enum type with an
+	 * initial capacity of 8.
+	 *
+	 * @param type the enum type
+	 */
+	public EnumStack(Class<E> type) {
+		this(type, 8);
+	}
+
+	/**
+	 * Creates a new stack for values of the given enum type with the
+	 * given initial capacity.
+	 *
+	 * @param type the enum type
+	 * @param capacity the initial capacity
+	 */
+	public EnumStack(Class<E> type, int capacity) {
+		values = type.getEnumConstants();
+		ordinals = new int[Math.max(capacity, 1)];
+	}
+
+	/**
+	 * Pushes a value on the stack.
+	 *
+	 * @param value the value
+	 * @return the value
+	 */
+	public E push(E value) {
+		if (size == ordinals.length) {
+			ordinals = Arrays.copyOf(ordinals, size * 2);
+		}
+		ordinals[size++] = value.ordinal();
+		return value;
+	}
+
+	/**
+	 * Removes the value at the top of the stack and returns it.
+	 *
+	 * @return the value
+	 * @throws EmptyStackException if the stack is empty
+	 */
+	public E pop() {
+		if (size == 0) {
+			throw new EmptyStackException();
+		}
+		return values[ordinals[--size]];
+	}
+
+	/**
+	 * Returns the value at the top of the stack without removing it.
+	 *
+	 * @return the value
+	 * @throws EmptyStackException if the stack is empty
+	 */
+	public E peek() {
+		if (size == 0) {
+			throw new EmptyStackException();
+		}
+		return values[ordinals[size - 1]];
+	}
+
+	/**
+	 * Returns the value at the given position, counted from the
+	 * bottom of the stack.
+	 *
+	 * @param index the index
+	 * @return the value
+	 * @throws IndexOutOfBoundsException if the index is out of range
+	 */
+	public E get(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException(Integer.toString(index));
+		}
+		return values[ordinals[index]];
+	}
+
+	/**
+	 * Returns the number of values on the stack.
+	 *
+	 * @return the size
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Checks if the stack is empty.
+	 *
+	 * @return the result
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Removes all values from the stack.
+	 */
+	public void clear() {
+		size = 0;
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		StringBuilder result = new StringBuilder("[");
+		for (int i = 0; i < size; i++) {
+			if (i > 0) {
+				result.append(", ");
+			}
+			result.append(values[ordinals[i]]);
+		}
+		result.append("]");
+		return result.toString();
+	}
+}
@@ -3,6 +3,7 @@ package org.jdrupes.httpcodec.test.fields;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.text.ParseException;
+import java.time.Instant;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
@@ -185,4 +186,34 @@ public class TypesTests {
 		}
 		assertEquals(false, dir.value().isPresent());
 	}
+
+	@Test
+	public void testDateTime() throws ParseException {
+		Instant expected = Instant.parse("1994-11-06T08:49:37Z");
+		assertEquals(expected, Converters.DATE_TIME.fromFieldValue(
+				"Sun, 06 Nov 1994 08:49:37 GMT"));
+		// Again (from cache)
+		assertEquals(expected, Converters.DATE_TIME.fromFieldValue(
+				"Sun, 06 Nov 1994 08:49:37 GMT"));
+		assertEquals(expected, Converters.DATE_TIME.fromFieldValue(
+				"Sunday, 06-Nov-94 08:49:37 GMT"));
+		assertEquals(expected, Converters.DATE_TIME.fromFieldValue(
+				"Sun Nov  6 08:49:37 1994"));
+		assertEquals(Instant.parse("2016-02-29T23:59:59Z"), 
+				Converters.DATE_TIME.fromFieldValue(
+						"Mon, 29 Feb 2016 23:59:59 GMT"));
+		assertEquals("Sun, 06 Nov 1994 08:49:37 GMT", 
+				Converters.DATE_TIME.asFieldValue(expected));
+		for (String invalid: new String[] { "Mon, 06 Nov 1994 08:49:37 GMT",
+				"Mon, 29 Feb 2015 23:59:59 GMT", 
+				"Sun, 06 Nov 1994 24:49:37 GMT" }) {
+			try {
+				Converters.DATE_TIME.fromFieldValue(invalid);
+				fail();
+			} catch (ParseException e) {
+				// Expected
+			}
+		}
+	}
+
 }
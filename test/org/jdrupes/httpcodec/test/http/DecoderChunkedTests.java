@@ -21,10 +21,12 @@ package org.jdrupes.httpcodec.test.http;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
+import java.util.Arrays;
 
 import org.jdrupes.httpcodec.Decoder;
 import org.jdrupes.httpcodec.ProtocolException;
 import org.jdrupes.httpcodec.protocols.http.HttpConstants.HttpStatus;
+import org.jdrupes.httpcodec.protocols.http.HttpProtocolException;
 import org.jdrupes.httpcodec.protocols.http.client.HttpResponseDecoder;
 import org.jdrupes.httpcodec.test.Common;
 
@@ -200,5 +202,107 @@ public class DecoderChunkedTests {
 		assertEquals("Hello World!", bodyText);
 	}
 
+	/**
+	 * Response with upper case chunk sizes and chunk extensions.
+	 * 
+	 * @throws UnsupportedEncodingException
+	 * @throws ProtocolException 
+	 */
+	@Test
+	public void testWithChunkExtensions()
+	        throws UnsupportedEncodingException, ProtocolException {
+		String reqText = "HTTP/1.1 200 OK\r\n"
+				+ "Transfer-Encoding: chunked\r\n"
+				+ "Content-Type: text/plain\r\n"
+				+ "\r\n"
+				+ "0007;name=value\r\n"
+				+ "Hello W\r\n"
+				+ "C ;first;second=\"quoted\"\r\n"
+				+ "orld! Hello!\r\n"
+				+ "0;last\r\n"
+				+ "\r\n";
+		ByteBuffer in = ByteBuffer.wrap(reqText.getBytes("ascii"));
+		HttpResponseDecoder decoder = new HttpResponseDecoder();
+		ByteBuffer body = ByteBuffer.allocate(1024);
+		Decoder.Result<?> result = decoder.decode(in, body, false);
+		assertTrue(result.isHeaderCompleted());
+		assertFalse(result.isOverflow());
+		assertFalse(result.isUnderflow());
+		assertFalse(in.hasRemaining());
+		body.flip();
+		String bodyText = new String(body.array(), body.position(),
+		        body.limit());
+		assertEquals("Hello World! Hello!", bodyText);
+	}
+
+	/**
+	 * Responses with invalid chunk header lines.
+	 * 
+	 * @throws UnsupportedEncodingException
+	 */
+	@Test
+	public void testInvalidChunkSizes() throws UnsupportedEncodingException {
+		StringBuilder longExtension = new StringBuilder("5;ext=");
+		for (int i = 0; i < 4096; i++) {
+			longExtension.append('x');
+		}
+		String[] chunkLines = { "x5", "5x", "", "80000000000000000",
+				longExtension.toString() };
+		for (String chunkLine: chunkLines) {
+			String reqText = "HTTP/1.1 200 OK\r\n"
+					+ "Transfer-Encoding: chunked\r\n"
+					+ "\r\n"
+					+ chunkLine + "\r\n"
+					+ "Hello\r\n"
+					+ "0\r\n"
+					+ "\r\n";
+			ByteBuffer in = ByteBuffer.wrap(reqText.getBytes("ascii"));
+			HttpResponseDecoder decoder = new HttpResponseDecoder();
+			ByteBuffer body = ByteBuffer.allocate(1024);
+			try {
+				decoder.decode(in, body, false);
+				fail("Accepted chunk line \"" + chunkLine + "\"");
+			} catch (ProtocolException e) {
+				assertTrue(e instanceof HttpProtocolException);
+			}
+		}
+	}
+
+	/**
+	 * Response with an over-long chunk extension received in pieces.
+	 * The limit must be enforced before the line is complete.
+	 * 
+	 * @throws UnsupportedEncodingException
+	 * @throws ProtocolException 
+	 */
+	@Test
+	public void testChunkExtensionLimitWhileReceiving()
+	        throws UnsupportedEncodingException, ProtocolException {
+		String reqText = "HTTP/1.1 200 OK\r\n"
+				+ "Transfer-Encoding: chunked\r\n"
+				+ "\r\n"
+				+ "5;ext=";
+		HttpResponseDecoder decoder = new HttpResponseDecoder();
+		decoder.setMaxChunkExtensionLength(100);
+		ByteBuffer body = ByteBuffer.allocate(1024);
+		Decoder.Result<?> result = decoder.decode(
+				ByteBuffer.wrap(reqText.getBytes("ascii")), body, false);
+		assertTrue(result.isUnderflow());
+		byte[] piece = new byte[40];
+		Arrays.fill(piece, (byte)'x');
+		int pieces = 0;
+		try {
+			while (pieces < 100) {
+				result = decoder.decode(ByteBuffer.wrap(piece), body, false);
+				assertTrue(result.isUnderflow());
+				pieces += 1;
+			}
+			fail("Chunk extension limit not enforced");
+		} catch (HttpProtocolException e) {
+			assertEquals(HttpStatus.BAD_REQUEST.statusCode(), e.statusCode());
+		}
+		// ";ext=" plus 2 * 40 = 85 bytes are accepted, 125 are not
+		assertEquals(2, pieces);
+	}
 
 }
@@ -21,7 +21,9 @@ package org.jdrupes.httpcodec.test.http;
 import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 
+import org.jdrupes.httpcodec.protocols.http.HttpField;
 import org.jdrupes.httpcodec.protocols.http.server.HttpRequestDecoder;
+import org.jdrupes.httpcodec.types.Converters;
 
 import static org.junit.Assert.*;
 import org.junit.Test;
@@ -102,4 +104,90 @@ public class DecoderHeaderTests {
 		        decoder.header().get().requestUri().getPath());
 	}
 
+	@Test
+	public void testRequestDirectBuffer() 
+			throws UnsupportedEncodingException {
+		// Header split in the middle of the CRLF
+		String reqText 
+			= "GET /test HTTP/1.1\r\n"
+			+ "Host: localhost:8888\r";
+		byte[] reqBytes = reqText.getBytes("ascii");
+		ByteBuffer buffer = ByteBuffer.allocateDirect(reqBytes.length);
+		buffer.put(reqBytes);
+		buffer.flip();
+		HttpRequestDecoder decoder = new HttpRequestDecoder();
+		HttpRequestDecoder.Result result = decoder.decode(buffer, null, false);
+		assertFalse(result.isHeaderCompleted());
+		assertTrue(result.isUnderflow());
+		// Continue header
+		reqBytes = "\nAccept: text/html\r\n\r\n".getBytes("ascii");
+		buffer = ByteBuffer.allocateDirect(reqBytes.length);
+		buffer.put(reqBytes);
+		buffer.flip();
+		result = decoder.decode(buffer, null, false);
+		assertTrue(result.isHeaderCompleted());
+		assertFalse(result.response().isPresent());
+		assertEquals("localhost", decoder.header().get().host());
+		assertEquals(8888, decoder.header().get().port());
+		assertEquals("text/html", decoder.header().get()
+				.findStringValue("Accept").get());
+	}
+
+	@Test
+	public void testFoldedAndNormalized() 
+			throws UnsupportedEncodingException {
+		String reqText 
+			= "GET /test HTTP/1.1\r\n"
+			+ "host: localhost:8888\r\n"
+			+ "X-Folded:  first \r\n"
+			+ "\tsecond\r\n"
+			+ "X-Quoted: \"quoted\"\r\n"
+			+ "\r\n";
+		ByteBuffer buffer = ByteBuffer.wrap(reqText.getBytes("ascii"));
+		HttpRequestDecoder decoder = new HttpRequestDecoder();
+		HttpRequestDecoder.Result result = decoder.decode(buffer, null, false);
+		assertTrue(result.isHeaderCompleted());
+		assertFalse(result.response().isPresent());
+		assertSame(HttpField.HOST, decoder.header().get()
+				.fields().get("Host").name());
+		assertEquals("first  second", decoder.header().get()
+				.findStringValue("X-Folded").get());
+		assertEquals("quoted", decoder.header().get()
+				.findStringValue("X-Quoted").get());
+	}
+
+	@Test
+	public void testInvalidFieldName() 
+			throws UnsupportedEncodingException {
+		String reqText 
+			= "GET /test HTTP/1.1\r\n"
+			+ "Host: localhost:8888\r\n"
+			+ "Bad Name: value\r\n"
+			+ "\r\n";
+		ByteBuffer buffer = ByteBuffer.wrap(reqText.getBytes("ascii"));
+		HttpRequestDecoder decoder = new HttpRequestDecoder();
+		HttpRequestDecoder.Result result = decoder.decode(buffer, null, false);
+		assertTrue(result.response().isPresent());
+		assertEquals(400, result.response().get().statusCode());
+	}
+
+	@Test
+	public void testUpgradeBeforeConnection() 
+			throws UnsupportedEncodingException {
+		String reqText 
+			= "GET /test HTTP/1.1\r\n"
+			+ "Host: localhost:8888\r\n"
+			+ "Upgrade: websocket\r\n"
+			+ "Connection: Upgrade\r\n"
+			+ "\r\n";
+		ByteBuffer buffer = ByteBuffer.wrap(reqText.getBytes("ascii"));
+		HttpRequestDecoder decoder = new HttpRequestDecoder();
+		HttpRequestDecoder.Result result = decoder.decode(buffer, null, false);
+		assertTrue(result.isHeaderCompleted());
+		assertFalse(result.response().isPresent());
+		assertTrue(decoder.header().get().findValue(
+				HttpField.CONNECTION, Converters.STRING_LIST)
+				.get().containsIgnoreCase("upgrade"));
+	}
+
 }
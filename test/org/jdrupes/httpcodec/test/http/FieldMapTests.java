@@ -0,0 +1,190 @@
+/*
+ * This file is part of the JDrupes non-blocking HTTP Codec
+ * Copyright (C) 2018 Michael N. Lipp
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation; either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE. See the GNU Lesser General Public
+ * License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public License along
+ * with this program; if not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.jdrupes.httpcodec.test.http;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.jdrupes.httpcodec.protocols.http.HttpConstants.HttpProtocol;
+import org.jdrupes.httpcodec.protocols.http.HttpField;
+import org.jdrupes.httpcodec.protocols.http.HttpMessageHeader;
+import org.jdrupes.httpcodec.protocols.http.HttpResponse;
+import org.jdrupes.httpcodec.types.Converters;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Tests the map that holds the fields of a message header.
+ */
+public class FieldMapTests {
+
+	private static HttpMessageHeader newHeader() {
+		return new HttpResponse(HttpProtocol.HTTP_1_1, 200, "OK", false);
+	}
+
+	private static HttpField<String> field(String name, String value) {
+		return new HttpField<>(name, value, Converters.STRING);
+	}
+
+	private static Object value(HttpMessageHeader header, String name) {
+		HttpField<?> field = header.fields().get(name);
+		return field == null ? null : field.value();
+	}
+
+	private static List<String> names(HttpMessageHeader header) {
+		return new ArrayList<>(header.fields().keySet());
+	}
+
+	@Test
+	public void testGrowth() {
+		HttpMessageHeader header = newHeader();
+		List<String> expected = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			header.setField(field("X-Field-" + i, "Value " + i));
+			expected.add("X-Field-" + i);
+		}
+		assertEquals(100, header.fields().size());
+		for (int i = 0; i < 100; i++) {
+			assertEquals("Value " + i,
+					value(header, ("X-Field-" + i).toUpperCase()));
+		}
+		assertEquals(expected, names(header));
+		assertNull(value(header, "X-Field-100"));
+	}
+
+	@Test
+	public void testRemoveAndCompact() {
+		HttpMessageHeader header = newHeader();
+		// Use all entries of the initial capacity
+		for (int i = 0; i < 16; i++) {
+			header.setField(field("X-Field-" + i, "Value " + i));
+		}
+		// Remove more than half of them, next put compacts
+		for (int i = 0; i < 10; i++) {
+			header.removeField("x-field-" + i);
+		}
+		assertEquals(6, header.fields().size());
+		header.setField(field("X-New", "New"));
+		assertEquals(7, header.fields().size());
+		assertEquals(Arrays.asList("X-Field-10", "X-Field-11", "X-Field-12",
+				"X-Field-13", "X-Field-14", "X-Field-15", "X-New"),
+				names(header));
+		for (int i = 0; i < 10; i++) {
+			assertFalse(header.fields().containsKey("X-Field-" + i));
+		}
+		for (int i = 10; i < 16; i++) {
+			assertEquals("Value " + i, value(header, "X-Field-" + i));
+		}
+		assertEquals("New", value(header, "x-new"));
+		// Grow after compaction
+		for (int i = 16; i < 40; i++) {
+			header.setField(field("X-Field-" + i, "Value " + i));
+		}
+		assertEquals(31, header.fields().size());
+		for (int i = 10; i < 40; i++) {
+			assertEquals("Value " + i, value(header, "X-Field-" + i));
+		}
+	}
+
+	@Test
+	public void testDeletedSlotReuse() {
+		HttpMessageHeader header = newHeader();
+		for (int i = 0; i < 8; i++) {
+			header.setField(field("X-Field-" + i, "Value " + i));
+		}
+		// Remaining keys must be found beyond deleted slots
+		for (int i = 0; i < 4; i++) {
+			header.removeField("X-Field-" + i);
+		}
+		for (int i = 4; i < 8; i++) {
+			assertEquals("Value " + i, value(header, "X-Field-" + i));
+		}
+		// Many insertions and removals with (almost) constant size
+		for (int i = 0; i < 1000; i++) {
+			header.setField(field("X-Temp-" + i, "Temp " + i));
+			assertEquals("Temp " + i, value(header, "X-Temp-" + i));
+			assertEquals(5, header.fields().size());
+			header.removeField("X-Temp-" + i);
+			assertFalse(header.fields().containsKey("X-Temp-" + i));
+		}
+		assertEquals(Arrays.asList(
+				"X-Field-4", "X-Field-5", "X-Field-6", "X-Field-7"),
+				names(header));
+		// Re-added key is appended
+		header.removeField("X-Field-4");
+		header.setField(field("X-Field-4", "Again"));
+		assertEquals(Arrays.asList(
+				"X-Field-5", "X-Field-6", "X-Field-7", "X-Field-4"),
+				names(header));
+		assertEquals("Again", value(header, "X-Field-4"));
+	}
+
+	@Test
+	public void testCaseInsensitiveKeepsKey() {
+		HttpMessageHeader header = newHeader();
+		header.setField(field("x-custom", "1"));
+		header.setField(field("X-Other", "2"));
+		header.setField(field("X-CUSTOM", "3"));
+		assertEquals(2, header.fields().size());
+		assertEquals(Arrays.asList("x-custom", "X-Other"), names(header));
+		assertEquals("3", value(header, "X-Custom"));
+		assertTrue(header.fields().containsKey("X-CUSTOM"));
+		// Differing in a non-letter is a different key
+		assertFalse(header.fields().containsKey("x_custom"));
+	}
+
+	@Test
+	public void testConcurrentModification() {
+		HttpMessageHeader header = newHeader();
+		header.setField(field("X-A", "a"));
+		header.setField(field("X-B", "b"));
+		header.setField(field("X-C", "c"));
+		Iterator<Map.Entry<String, HttpField<?>>> iter
+			= header.fields().entrySet().iterator();
+		assertEquals("X-A", iter.next().getKey());
+		header.setField(field("X-D", "d"));
+		try {
+			iter.next();
+			fail();
+		} catch (ConcurrentModificationException e) {
+			// Expected
+		}
+		iter = header.fields().entrySet().iterator();
+		iter.next();
+		header.removeField("X-C");
+		try {
+			iter.hasNext();
+			fail();
+		} catch (ConcurrentModificationException e) {
+			// Expected
+		}
+		// Replacing a value isn't a structural modification
+		iter = header.fields().entrySet().iterator();
+		iter.next();
+		header.setField(field("X-B", "B"));
+		assertEquals("B", iter.next().getValue().value());
+	}
+
+}
@@ -21,11 +21,13 @@ package org.jdrupes.httpcodec.test.http;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
 import org.jdrupes.httpcodec.protocols.http.HttpField;
+import org.jdrupes.httpcodec.protocols.http.HttpRequest;
 import org.jdrupes.httpcodec.protocols.http.server.HttpRequestDecoder;
 import org.jdrupes.httpcodec.types.Converters;
 import org.jdrupes.httpcodec.types.CookieList;
@@ -440,4 +442,52 @@ public class RequestDecoderTests {
 		        decoder.header().get().requestUri().getPath());
 	}
 
+	/**
+	 * Pipelined requests.
+	 * 
+	 * @throws UnsupportedEncodingException
+	 */
+	@Test
+	public void testPipelinedRequests()
+	        throws UnsupportedEncodingException {
+		String reqText 
+			= "GET /first HTTP/1.1\r\n"
+			+ "Host: localhost:8888\r\n"
+			+ "\r\n"
+			+ "GET /second HTTP/1.1\r\n"
+			+ "Host: localhost:8888\r\n"
+			+ "\r\n"
+			+ "POST /third HTTP/1.1\r\n"
+			+ "Host: localhost:8888\r\n"
+			+ "Content-Length: 4\r\n"
+			+ "\r\n"
+			+ "Body"
+			+ "GET /fourth HTTP/1.1\r\n"
+			+ "Host: local";
+		ByteBuffer buffer = ByteBuffer.wrap(reqText.getBytes("ascii"));
+		HttpRequestDecoder decoder = new HttpRequestDecoder();
+		List<HttpRequest> requests = new ArrayList<>();
+		HttpRequestDecoder.Result result = decoder.decodeAll(buffer, requests);
+		// Stops at request with payload
+		assertEquals(3, requests.size());
+		assertEquals("/first", requests.get(0).requestUri().getPath());
+		assertEquals("/second", requests.get(1).requestUri().getPath());
+		assertEquals("/third", requests.get(2).requestUri().getPath());
+		assertTrue(result.isOverflow());
+		ByteBuffer body = ByteBuffer.allocate(1024);
+		result = decoder.decode(buffer, body, false);
+		assertFalse(result.isOverflow());
+		assertEquals(4, body.position());
+		// Incomplete request remains
+		requests.clear();
+		result = decoder.decodeAll(buffer, requests);
+		assertTrue(requests.isEmpty());
+		assertTrue(result.isUnderflow());
+		buffer = ByteBuffer.wrap("host:8888\r\n\r\n".getBytes("ascii"));
+		result = decoder.decodeAll(buffer, requests);
+		assertEquals(1, requests.size());
+		assertEquals("/fourth", requests.get(0).requestUri().getPath());
+		assertFalse(buffer.hasRemaining());
+	}
+
 }
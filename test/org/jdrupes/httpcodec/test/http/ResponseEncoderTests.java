@@ -19,12 +19,26 @@
 package org.jdrupes.httpcodec.test.http;
 
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.function.Function;
 
 import org.jdrupes.httpcodec.Encoder;
+import org.jdrupes.httpcodec.ProtocolException;
+import org.jdrupes.httpcodec.ServerEngine;
 import org.jdrupes.httpcodec.protocols.http.HttpConstants.HttpProtocol;
 import org.jdrupes.httpcodec.protocols.http.HttpConstants.HttpStatus;
+import org.jdrupes.httpcodec.protocols.http.HttpField;
+import org.jdrupes.httpcodec.protocols.http.HttpFieldBlock;
+import org.jdrupes.httpcodec.protocols.http.HttpRequest;
 import org.jdrupes.httpcodec.protocols.http.HttpResponse;
+import org.jdrupes.httpcodec.protocols.http.server.HttpRequestDecoder;
 import org.jdrupes.httpcodec.protocols.http.server.HttpResponseEncoder;
+import org.jdrupes.httpcodec.types.Converters;
 
 import static org.junit.Assert.*;
 import org.junit.Test;
@@ -51,6 +65,50 @@ public class ResponseEncoderTests {
 		assertTrue(encoded.endsWith("\r\n\r\n"));
 	}
 
+	@Test
+	public void testPipelinedResponses() throws ProtocolException {
+		String reqText 
+			= "GET /first HTTP/1.1\r\n"
+			+ "Host: localhost:8888\r\n"
+			+ "\r\n"
+			+ "GET /second HTTP/1.1\r\n"
+			+ "Host: localhost:8888\r\n"
+			+ "\r\n";
+		ServerEngine<HttpRequest, HttpResponse> engine = new ServerEngine<>(
+				new HttpRequestDecoder(), new HttpResponseEncoder());
+		List<HttpRequest> requests = new ArrayList<>();
+		((HttpRequestDecoder)engine.requestDecoder()).decodeAll(
+				ByteBuffer.wrap(reqText.getBytes(StandardCharsets.US_ASCII)),
+				requests);
+		assertEquals(2, requests.size());
+		Queue<HttpResponse> responses = new ArrayDeque<>();
+		for (HttpRequest request: requests) {
+			responses.add(request.response().get().setStatus(HttpStatus.OK)
+					.setHasPayload(true));
+		}
+		Function<HttpResponse, ByteBuffer> payloads = response -> ByteBuffer
+				.wrap(response.request().get().requestUri().getPath()
+						.getBytes(StandardCharsets.US_ASCII));
+		// Out buffer too small for both responses
+		ByteBuffer out = ByteBuffer.allocate(60);
+		StringBuilder encoded = new StringBuilder();
+		Encoder.Result result;
+		do {
+			out.clear();
+			result = engine.encodeAll(responses, payloads, out);
+			encoded.append(new String(out.array(), 0, out.position(),
+					StandardCharsets.US_ASCII));
+		} while (result.isOverflow());
+		assertTrue(responses.isEmpty());
+		String text = encoded.toString();
+		int second = text.indexOf("HTTP/1.1 200 OK", 1);
+		assertTrue(text.startsWith("HTTP/1.1 200 OK\r\n"));
+		assertTrue(second > 0);
+		assertTrue(text.substring(0, second)
+				.endsWith("\r\n\r\n6\r\n/first\r\n0\r\n\r\n"));
+		assertTrue(text.endsWith("\r\n\r\n7\r\n/second\r\n0\r\n\r\n"));
+	}
+
 	@Test
 	public void testSimpleResponseTinyOut() {
 		HttpResponse response = new HttpResponse(HttpProtocol.HTTP_1_1,
@@ -78,4 +136,61 @@ public class ResponseEncoderTests {
 		assertTrue(encoded.endsWith("\r\n\r\n"));
 	}
 
+	@Test
+	public void testFieldBlock() {
+		HttpResponse template = new HttpResponse(HttpProtocol.HTTP_1_1,
+		        HttpStatus.OK, false);
+		template.setField("X-Content-Type-Options", "nosniff");
+		template.setField("X-Frame-Options", "DENY");
+		HttpFieldBlock block = new HttpFieldBlock(template);
+		
+		// Block and additional field
+		HttpResponse response = new HttpResponse(HttpProtocol.HTTP_1_1,
+		        HttpStatus.OK, false);
+		response.setFieldBlock(block);
+		response.setField("X-Request-Id", "42");
+		assertEquals("nosniff", 
+				response.findStringValue("X-Content-Type-Options").get());
+		HttpResponseEncoder encoder = new HttpResponseEncoder();
+		encoder.encode(response);
+		ByteBuffer out = ByteBuffer.allocate(1024*1024);
+		Encoder.Result result = encoder.encode(out);
+		assertFalse(result.isOverflow());
+		String encoded = new String(out.array(), 0, out.position());
+		assertTrue(encoded.startsWith("HTTP/1.1 200 OK\r\n"
+				+ "X-Content-Type-Options: nosniff\r\n"
+				+ "X-Frame-Options: DENY\r\n"));
+		assertTrue(encoded.contains("X-Request-Id: 42\r\n"));
+		assertEquals(encoded.indexOf("nosniff"), 
+				encoded.lastIndexOf("nosniff"));
+		
+		// Block field removed
+		response = new HttpResponse(HttpProtocol.HTTP_1_1,
+		        HttpStatus.OK, false);
+		response.setFieldBlock(block);
+		response.removeField("X-Content-Type-Options");
+		encoder.encode(response);
+		out.clear();
+		encoder.encode(out);
+		encoded = new String(out.array(), 0, out.position());
+		assertFalse(encoded.contains("nosniff"));
+		assertTrue(encoded.contains("X-Frame-Options: DENY\r\n"));
+	}
+
+	@Test
+	public void testDate() {
+		HttpResponse response = new HttpResponse(HttpProtocol.HTTP_1_1,
+		        HttpStatus.OK, false);
+		HttpResponseEncoder encoder = new HttpResponseEncoder();
+		encoder.encode(response);
+		ByteBuffer out = ByteBuffer.allocate(1024*1024);
+		encoder.encode(out);
+		String encoded = new String(out.array(), 0, out.position());
+		Instant date = response.findValue(
+				HttpField.DATE, Converters.DATE_TIME).get();
+		assertEquals(0, date.getNano());
+		assertTrue(encoded.contains("Date: " 
+				+ Converters.DATE_TIME.asFieldValue(date) + "\r\n"));
+	}
+
 }
@@ -0,0 +1,165 @@
+package org.jdrupes.httpcodec.test.http2;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jdrupes.httpcodec.ProtocolException;
+import org.jdrupes.httpcodec.protocols.http2.HpackDecoder;
+import org.jdrupes.httpcodec.protocols.http2.HpackEncoder;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests based on the examples from RFC 7541, Appendix C.
+ */
+public class HpackTests {
+
+	private static byte[] fromHex(String hex) {
+		byte[] result = new byte[hex.length() / 2];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = (byte)Integer.parseInt(
+					hex.substring(2 * i, 2 * i + 2), 16);
+		}
+		return result;
+	}
+	
+	private static String toHex(byte[] data) {
+		StringBuilder result = new StringBuilder();
+		for (byte b: data) {
+			result.append(String.format("%02x", b & 0xff));
+		}
+		return result.toString();
+	}
+	
+	private static List<String> decode(HpackDecoder decoder, String hex) 
+			throws ProtocolException {
+		List<String> fields = new ArrayList<>();
+		decoder.decode(ByteBuffer.wrap(fromHex(hex)),
+				(name, value) -> fields.add(name + ": " + value));
+		return fields;
+	}
+	
+	private static String encode(HpackEncoder encoder, String... fields) 
+			throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for (int i = 0; i < fields.length; i += 2) {
+			encoder.encode(fields[i], fields[i + 1], false, out);
+		}
+		return toHex(out.toByteArray());
+	}
+	
+	@Test
+	public void testRequestsWithoutHuffman() throws ProtocolException {
+		HpackDecoder decoder = new HpackDecoder(4096);
+		// C.3.1
+		List<String> fields = decode(decoder, 
+				"828684410f7777772e6578616d706c652e636f6d");
+		assertEquals(4, fields.size());
+		assertEquals(":method: GET", fields.get(0));
+		assertEquals(":scheme: http", fields.get(1));
+		assertEquals(":path: /", fields.get(2));
+		assertEquals(":authority: www.example.com", fields.get(3));
+		// C.3.2
+		fields = decode(decoder, "828684be58086e6f2d6361636865");
+		assertEquals(5, fields.size());
+		assertEquals(":authority: www.example.com", fields.get(3));
+		assertEquals("cache-control: no-cache", fields.get(4));
+		// C.3.3
+		fields = decode(decoder, "828785bf400a637573746f6d2d6b6579"
+				+ "0c637573746f6d2d76616c7565");
+		assertEquals(5, fields.size());
+		assertEquals(":scheme: https", fields.get(1));
+		assertEquals(":path: /index.html", fields.get(2));
+		assertEquals(":authority: www.example.com", fields.get(3));
+		assertEquals("custom-key: custom-value", fields.get(4));
+	}
+
+	@Test
+	public void testRequestsWithHuffman() 
+			throws IOException, ProtocolException {
+		HpackEncoder encoder = new HpackEncoder(4096);
+		HpackDecoder decoder = new HpackDecoder(4096);
+		// C.4.1
+		String block = encode(encoder, ":method", "GET", ":scheme", "http",
+				":path", "/", ":authority", "www.example.com");
+		assertEquals("828684418cf1e3c2e5f23a6ba0ab90f4ff", block);
+		assertEquals(":authority: www.example.com", 
+				decode(decoder, block).get(3));
+		// C.4.2
+		block = encode(encoder, ":method", "GET", ":scheme", "http",
+				":path", "/", ":authority", "www.example.com",
+				"cache-control", "no-cache");
+		assertEquals("828684be5886a8eb10649cbf", block);
+		assertEquals("cache-control: no-cache", 
+				decode(decoder, block).get(4));
+		// C.4.3
+		block = encode(encoder, ":method", "GET", ":scheme", "https",
+				":path", "/index.html", ":authority", "www.example.com",
+				"custom-key", "custom-value");
+		assertEquals("828785bf408825a849e95ba97d7f8925a849e95bb8e8b4bf", 
+				block);
+		assertEquals("custom-key: custom-value", 
+				decode(decoder, block).get(4));
+	}
+
+	@Test
+	public void testResponsesWithEviction() 
+			throws IOException, ProtocolException {
+		HpackDecoder decoder = new HpackDecoder(256);
+		// C.5.1
+		List<String> fields = decode(decoder, "4803333032580770726976617465"
+				+ "611d4d6f6e2c203231204f637420323031332032303a31333a3231"
+				+ "20474d546e1768747470733a2f2f7777772e6578616d706c652e"
+				+ "636f6d");
+		assertEquals(":status: 302", fields.get(0));
+		assertEquals("date: Mon, 21 Oct 2013 20:13:21 GMT", fields.get(2));
+		// C.5.2, ":status: 302" has been evicted
+		fields = decode(decoder, "4803333037c1c0bf");
+		assertEquals(":status: 307", fields.get(0));
+		assertEquals("cache-control: private", fields.get(1));
+		assertEquals("date: Mon, 21 Oct 2013 20:13:21 GMT", fields.get(2));
+		assertEquals("location: https://www.example.com", fields.get(3));
+		
+		// Round trip with a small table
+		HpackEncoder encoder = new HpackEncoder(256);
+		decoder = new HpackDecoder(256);
+		for (int i = 0; i < 3; i++) {
+			String status = Integer.toString(300 + i);
+			String date = "Mon, 21 Oct 2013 20:13:2" + i + " GMT";
+			fields = decode(decoder, encode(encoder, ":status", status,
+					"cache-control", "private", "date", date,
+					"location", "https://www.example.com"));
+			assertEquals(":status: " + status, fields.get(0));
+			assertEquals("cache-control: private", fields.get(1));
+			assertEquals("date: " + date, fields.get(2));
+			assertEquals("location: https://www.example.com", fields.get(3));
+		}
+	}
+
+	@Test
+	public void testTableSizeUpdate() throws IOException, ProtocolException {
+		HpackEncoder encoder = new HpackEncoder(4096);
+		HpackDecoder decoder = new HpackDecoder(4096);
+		decode(decoder, encode(encoder, "custom-key", "custom-value"));
+		encoder.setMaxTableSize(0);
+		String block = encode(encoder, "custom-key", "custom-value");
+		// Size update (0) first, then a literal that isn't indexed
+		assertTrue(block.startsWith("20"));
+		assertEquals("custom-key: custom-value", 
+				decode(decoder, block).get(0));
+	}
+	
+	@Test(expected=ProtocolException.class)
+	public void testInvalidIndex() throws ProtocolException {
+		decode(new HpackDecoder(4096), "be");
+	}
+
+	@Test(expected=ProtocolException.class)
+	public void testSizeUpdateExceedingLimit() throws ProtocolException {
+		decode(new HpackDecoder(4096), "3fe21f");
+	}
+}
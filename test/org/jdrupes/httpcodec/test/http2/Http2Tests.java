@@ -0,0 +1,400 @@
+package org.jdrupes.httpcodec.test.http2;
+
+import java.net.HttpCookie;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jdrupes.httpcodec.ClientEngine;
+import org.jdrupes.httpcodec.Codec;
+import org.jdrupes.httpcodec.Decoder;
+import org.jdrupes.httpcodec.ProtocolException;
+import org.jdrupes.httpcodec.ServerEngine;
+import org.jdrupes.httpcodec.protocols.http.HttpConstants.HttpProtocol;
+import org.jdrupes.httpcodec.protocols.http.HttpConstants.HttpStatus;
+import org.jdrupes.httpcodec.protocols.http.HttpField;
+import org.jdrupes.httpcodec.protocols.http.HttpRequest;
+import org.jdrupes.httpcodec.protocols.http.HttpResponse;
+import org.jdrupes.httpcodec.protocols.http.client.HttpRequestEncoder;
+import org.jdrupes.httpcodec.protocols.http.client.HttpResponseDecoder;
+import org.jdrupes.httpcodec.protocols.http.server.HttpRequestDecoder;
+import org.jdrupes.httpcodec.protocols.http.server.HttpResponseEncoder;
+import org.jdrupes.httpcodec.protocols.http2.Http2Constants.ErrorCode;
+import org.jdrupes.httpcodec.protocols.http2.Http2DataFrame;
+import org.jdrupes.httpcodec.protocols.http2.Http2Decoder;
+import org.jdrupes.httpcodec.protocols.http2.Http2Encoder;
+import org.jdrupes.httpcodec.protocols.http2.Http2Frame;
+import org.jdrupes.httpcodec.protocols.http2.Http2GoAwayFrame;
+import org.jdrupes.httpcodec.protocols.http2.Http2HeadersFrame;
+import org.jdrupes.httpcodec.protocols.http2.Http2PingFrame;
+import org.jdrupes.httpcodec.protocols.http2.Http2SettingsFrame;
+import org.jdrupes.httpcodec.protocols.http2.Http2Stream;
+import org.jdrupes.httpcodec.protocols.http2.Http2WindowUpdateFrame;
+import org.jdrupes.httpcodec.types.Converters;
+import org.jdrupes.httpcodec.types.CookieList;
+import org.jdrupes.httpcodec.types.MediaType;
+import org.jdrupes.httpcodec.types.StringList;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+public class Http2Tests {
+
+	/**
+	 * Decodes all data from in, passing the payload to body and 
+	 * the responses to the encoder which writes them to out.
+	 * 
+	 * @return the frames reported by the decoder
+	 */
+	private static List<Http2Frame> decodeAll(
+			Decoder<Http2Frame, Http2Frame> decoder, Http2Encoder encoder,
+			ByteBuffer in, ByteBuffer body, ByteBuffer out)
+			throws ProtocolException {
+		List<Http2Frame> frames = new ArrayList<>();
+		while (true) {
+			Decoder.Result<Http2Frame> result 
+				= decoder.decode(in, body, false);
+			if (result.isHeaderCompleted()) {
+				frames.add(decoder.header().get());
+			}
+			if (result.response().isPresent()) {
+				encoder.encode(result.response().get());
+				assertFalse(encoder.encode(out).isOverflow());
+			}
+			if (result.closeConnection() 
+					|| !in.hasRemaining() && result.isUnderflow()) {
+				return frames;
+			}
+		}
+	}
+
+	private static ServerEngine<Http2Frame, Http2Frame> newServer() {
+		return new ServerEngine<>(
+				new Http2Decoder(false), new Http2Encoder(false));
+	}
+	
+	private static ClientEngine<Http2Frame, Http2Frame> newClient() {
+		return new ClientEngine<>(
+				new Http2Encoder(true), new Http2Decoder(true));
+	}
+	
+	@Test
+	public void testRoundTrip() 
+			throws URISyntaxException, ProtocolException {
+		ClientEngine<Http2Frame, Http2Frame> client = newClient();
+		ServerEngine<Http2Frame, Http2Frame> server = newServer();
+		Http2Encoder clntEnc = (Http2Encoder)client.requestEncoder();
+		
+		// Client sends request with body
+		HttpRequest request = new HttpRequest("POST", 
+				new URI("http://localhost:8080/test?a=b"), 
+				HttpProtocol.HTTP_1_1, true);
+		request.setField(HttpField.CONTENT_TYPE, 
+				new MediaType("text", "plain"));
+		request.setField(HttpField.CONNECTION, new StringList("keep-alive"));
+		int streamId = clntEnc.nextStreamId();
+		assertEquals(1, streamId);
+		client.encode(new Http2HeadersFrame(streamId, request));
+		ByteBuffer msg = ByteBuffer.allocate(65536);
+		Codec.Result encRes = client.encode(ByteBuffer.wrap(
+				"Hello Server!".getBytes(StandardCharsets.UTF_8)), msg, true);
+		assertFalse(encRes.isOverflow());
+		assertFalse(encRes.isUnderflow());
+		assertEquals(3, clntEnc.nextStreamId());
+		
+		// Server decodes
+		msg.flip();
+		ByteBuffer body = ByteBuffer.allocate(65536);
+		ByteBuffer srvOut = ByteBuffer.allocate(65536);
+		List<Http2Frame> frames = decodeAll(server.requestDecoder(),
+				(Http2Encoder)server.responseEncoder(), msg, body, srvOut);
+		assertEquals(3, frames.size());
+		assertTrue(frames.get(0) instanceof Http2SettingsFrame);
+		Http2HeadersFrame headers = (Http2HeadersFrame)frames.get(1);
+		assertEquals(1, headers.streamId());
+		assertFalse(headers.isEndStream());
+		HttpRequest received = (HttpRequest)headers.messageHeader();
+		assertEquals("POST", received.method());
+		assertEquals("/test?a=b", received.requestUri().toString());
+		assertEquals("localhost", received.host());
+		assertEquals(8080, received.port());
+		assertEquals("localhost:8080", 
+				received.findStringValue(HttpField.HOST).get());
+		assertEquals("text/plain", received.findValue(HttpField.CONTENT_TYPE,
+				Converters.MEDIA_TYPE).get().toString());
+		assertFalse(received.fields().containsKey(HttpField.CONNECTION));
+		assertTrue(((Http2DataFrame)frames.get(2)).isEndStream());
+		body.flip();
+		assertEquals("Hello Server!", 
+				new String(body.array(), 0, body.limit(), 
+						StandardCharsets.UTF_8));
+		assertEquals(Http2Stream.State.HALF_CLOSED_REMOTE, 
+				((Http2Decoder)server.requestDecoder()).stream(1)
+				.get().state());
+
+		// Server responds
+		HttpResponse response = received.response().get()
+				.setStatus(HttpStatus.OK).setHasPayload(true);
+		response.setField(HttpField.SET_COOKIE, new CookieList()
+				.add(new HttpCookie("a", "1")).add(new HttpCookie("b", "2")));
+		server.encode(new Http2HeadersFrame(1, response));
+		encRes = server.encode(ByteBuffer.wrap(
+				"Hello Client!".getBytes(StandardCharsets.UTF_8)), 
+				srvOut, true);
+		assertFalse(encRes.isOverflow());
+		assertFalse(encRes.isUnderflow());
+		assertFalse(((Http2Encoder)server.responseEncoder()).stream(1)
+				.isPresent());
+		
+		// Client decodes
+		srvOut.flip();
+		body.clear();
+		msg.clear();
+		frames = decodeAll(client.responseDecoder(), clntEnc, 
+				srvOut, body, msg);
+		assertEquals(4, frames.size());
+		assertFalse(((Http2SettingsFrame)frames.get(0)).isAck());
+		assertTrue(((Http2SettingsFrame)frames.get(1)).isAck());
+		HttpResponse clntResp = (HttpResponse)
+				((Http2HeadersFrame)frames.get(2)).messageHeader();
+		assertEquals(200, clntResp.statusCode());
+		assertEquals("OK", clntResp.reasonPhrase());
+		assertSame(request, clntResp.request().get());
+		assertEquals(2, clntResp.findValue(HttpField.SET_COOKIE, 
+				Converters.SET_COOKIE).get().stream().count());
+		body.flip();
+		assertEquals("Hello Client!", 
+				new String(body.array(), 0, body.limit(), 
+						StandardCharsets.UTF_8));
+		assertFalse(((Http2Decoder)client.responseDecoder()).stream(1)
+				.isPresent());
+		
+		// Client acknowledges server settings
+		msg.flip();
+		frames = decodeAll(server.requestDecoder(), 
+				(Http2Encoder)server.responseEncoder(), msg, body, srvOut);
+		assertTrue(((Http2SettingsFrame)frames.get(0)).isAck());
+	}
+
+	@Test
+	public void testFlowControl() 
+			throws URISyntaxException, ProtocolException {
+		ClientEngine<Http2Frame, Http2Frame> client = newClient();
+		ServerEngine<Http2Frame, Http2Frame> server = newServer();
+		HttpRequest request = new HttpRequest("PUT", 
+				new URI("http://localhost/upload"), 
+				HttpProtocol.HTTP_1_1, true);
+		client.encode(new Http2HeadersFrame(1, request));
+		ByteBuffer data = ByteBuffer.allocate(100000);
+		ByteBuffer msg = ByteBuffer.allocate(200000);
+		Codec.Result encRes = client.encode(data, msg, true);
+		// Blocked by the initial window size
+		assertFalse(encRes.isOverflow());
+		assertFalse(encRes.isUnderflow());
+		assertEquals(100000 - 65535, data.remaining());
+		
+		// Server receives and replenishes the windows
+		msg.flip();
+		ByteBuffer body = ByteBuffer.allocate(200000);
+		ByteBuffer srvOut = ByteBuffer.allocate(65536);
+		List<Http2Frame> frames = decodeAll(server.requestDecoder(),
+				(Http2Encoder)server.responseEncoder(), msg, body, srvOut);
+		assertEquals(65535, body.position());
+		assertEquals(Http2DataFrame.class, 
+				frames.get(frames.size() - 1).getClass());
+
+		// Client receives window updates and resumes
+		srvOut.flip();
+		msg.clear();
+		frames = decodeAll(client.responseDecoder(),
+				(Http2Encoder)client.requestEncoder(), srvOut, null, msg);
+		assertTrue(frames.stream().anyMatch(
+				f -> f instanceof Http2WindowUpdateFrame && f.streamId() == 0));
+		assertTrue(frames.stream().anyMatch(
+				f -> f instanceof Http2WindowUpdateFrame && f.streamId() == 1));
+		encRes = client.encode(data, msg, true);
+		assertFalse(encRes.isOverflow());
+		assertFalse(encRes.isUnderflow());
+		assertFalse(data.hasRemaining());
+		msg.flip();
+		srvOut.clear();
+		frames = decodeAll(server.requestDecoder(),
+				(Http2Encoder)server.responseEncoder(), msg, body, srvOut);
+		assertEquals(100000, body.position());
+		assertTrue(((Http2DataFrame)frames.get(frames.size() - 1))
+				.isEndStream());
+	}
+
+	@Test
+	public void testPing() throws ProtocolException {
+		ClientEngine<Http2Frame, Http2Frame> client = newClient();
+		ServerEngine<Http2Frame, Http2Frame> server = newServer();
+		client.encode(new Http2PingFrame(42, false));
+		ByteBuffer msg = ByteBuffer.allocate(1024);
+		client.encode(msg);
+		msg.flip();
+		ByteBuffer srvOut = ByteBuffer.allocate(1024);
+		List<Http2Frame> frames = decodeAll(server.requestDecoder(),
+				(Http2Encoder)server.responseEncoder(), msg, null, srvOut);
+		Http2PingFrame ping = (Http2PingFrame)frames.get(1);
+		assertEquals(42, ping.opaqueData());
+		assertFalse(ping.isAck());
+		srvOut.flip();
+		msg.clear();
+		frames = decodeAll(client.responseDecoder(),
+				(Http2Encoder)client.requestEncoder(), srvOut, null, msg);
+		ping = (Http2PingFrame)frames.get(frames.size() - 1);
+		assertEquals(42, ping.opaqueData());
+		assertTrue(ping.isAck());
+	}
+
+	@Test
+	public void testPriorKnowledge() throws ProtocolException {
+		// Server engine configured for HTTP/2 from the start
+		ServerEngine<Http2Frame, Http2Frame> server = new ServerEngine<>(
+				new Http2Decoder(false), new Http2Encoder(false));
+		ByteBuffer in = ByteBuffer.allocate(1024);
+		in.put("PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n"
+				.getBytes(StandardCharsets.ISO_8859_1));
+		// Empty SETTINGS
+		in.put(new byte[] { 0, 0, 0, 4, 0, 0, 0, 0, 0 });
+		// HEADERS, END_STREAM | END_HEADERS, stream 1: GET http://localhost/
+		byte[] authority = "localhost".getBytes(StandardCharsets.ISO_8859_1);
+		in.put(new byte[] { 0, 0, (byte)(5 + authority.length), 1, 5, 
+				0, 0, 0, 1, (byte)0x82, (byte)0x86, (byte)0x84, 0x41, 
+				(byte)authority.length });
+		in.put(authority);
+		in.flip();
+		ByteBuffer out = ByteBuffer.allocate(1024);
+		List<Http2Frame> frames = new ArrayList<>();
+		while (in.hasRemaining()) {
+			Decoder.Result<Http2Frame> result = server.decode(in, null, false);
+			assertFalse(result.closeConnection());
+			if (result.isHeaderCompleted()) {
+				frames.add(server.requestDecoder().header().get());
+			}
+			if (result.response().isPresent()) {
+				server.encode(result.response().get());
+				assertFalse(server.encode(out).isOverflow());
+			}
+		}
+		assertEquals(2, frames.size());
+		assertTrue(frames.get(0) instanceof Http2SettingsFrame);
+		Http2HeadersFrame headers = (Http2HeadersFrame)frames.get(1);
+		assertEquals(1, headers.streamId());
+		assertTrue(headers.isEndStream());
+		HttpRequest request = (HttpRequest)headers.messageHeader();
+		assertEquals("GET", request.method());
+		assertEquals("/", request.requestUri().toString());
+		assertEquals("localhost", request.host());
+		
+		// Server responds
+		server.encode(new Http2HeadersFrame(1, 
+				request.response().get().setStatus(HttpStatus.NO_CONTENT)));
+		assertFalse(server.encode(out).isOverflow());
+		out.flip();
+		List<Integer> types = new ArrayList<>();
+		while (out.hasRemaining()) {
+			int length = ((out.get() & 0xff) << 16) 
+					| ((out.get() & 0xff) << 8) | (out.get() & 0xff);
+			types.add(out.get() & 0xff);
+			out.position(out.position() + 5 + length);
+		}
+		// Server SETTINGS, SETTINGS ACK, HEADERS
+		assertEquals(Arrays.asList(4, 4, 1), types);
+	}
+
+	@Test
+	public void testInvalidPreface() throws ProtocolException {
+		ServerEngine<Http2Frame, Http2Frame> server = newServer();
+		ByteBuffer in = ByteBuffer.wrap("GET / HTTP/1.1\r\n\r\n"
+				.getBytes(StandardCharsets.ISO_8859_1));
+		Decoder.Result<Http2Frame> result = server.decode(in, null, false);
+		assertTrue(result.closeConnection());
+		Http2GoAwayFrame goAway = (Http2GoAwayFrame)result.response().get();
+		assertEquals(ErrorCode.PROTOCOL_ERROR, goAway.errorCode());
+		server.encode(goAway);
+		ByteBuffer out = ByteBuffer.allocate(1024);
+		assertTrue(server.encode(out).closeConnection());
+	}
+
+	@Test
+	public void testUpgrade() throws URISyntaxException, ProtocolException {
+		// Client requests upgrade
+		HttpRequest clntReq = new HttpRequest("GET", 
+				new URI("http://localhost/"), HttpProtocol.HTTP_1_1, false);
+		clntReq.setField(HttpField.UPGRADE, new StringList("h2c"));
+		ClientEngine<HttpRequest, HttpResponse> client = new ClientEngine<>(
+				new HttpRequestEncoder(), new HttpResponseDecoder());
+		client.encode(clntReq);
+		ByteBuffer msg = ByteBuffer.allocate(65536);
+		client.encode(msg);
+		String encoded = new String(msg.array(), 0, msg.position(),
+				StandardCharsets.ISO_8859_1);
+		assertTrue(encoded.contains("Connection: Upgrade, HTTP2-Settings"));
+		assertTrue(encoded.contains("HTTP2-Settings: "));
+		
+		// Server switches
+		msg.flip();
+		ServerEngine<HttpRequest, HttpResponse> server = new ServerEngine<>(
+				new HttpRequestDecoder(), new HttpResponseEncoder());
+		Decoder.Result<HttpResponse> srvDec 
+			= server.decode(msg, null, false);
+		assertTrue(srvDec.isHeaderCompleted());
+		HttpResponse srvResp 
+			= server.currentRequest().get().response().get();
+		srvResp.setStatus(HttpStatus.SWITCHING_PROTOCOLS);
+		srvResp.setField(HttpField.UPGRADE, new StringList("h2c"));
+		server.encode(srvResp);
+		msg.clear();
+		server.encode(msg);
+		assertEquals("h2c", server.switchedTo().get());
+		
+		// Client switches
+		msg.flip();
+		client.decode(msg, null, false);
+		assertEquals("h2c", client.switchedTo().get());
+		
+		// Client sends connection preface (and a ping)
+		@SuppressWarnings("unchecked")
+		ClientEngine<Http2Frame, Http2Frame> h2Client 
+			= (ClientEngine<Http2Frame, Http2Frame>)(ClientEngine<?, ?>)client;
+		@SuppressWarnings("unchecked")
+		ServerEngine<Http2Frame, Http2Frame> h2Server 
+			= (ServerEngine<Http2Frame, Http2Frame>)(ServerEngine<?, ?>)server;
+		h2Client.encode(new Http2PingFrame(1, false));
+		msg.clear();
+		h2Client.encode(msg);
+		assertEquals(3, ((Http2Encoder)h2Client.requestEncoder())
+				.nextStreamId());
+		msg.flip();
+		ByteBuffer srvOut = ByteBuffer.allocate(65536);
+		decodeAll(h2Server.requestDecoder(), 
+				(Http2Encoder)h2Server.responseEncoder(), msg, null, srvOut);
+		
+		// Server responds on stream 1
+		HttpResponse response = new HttpResponse(HttpProtocol.HTTP_1_1,
+				HttpStatus.OK, true);
+		h2Server.encode(new Http2HeadersFrame(1, response));
+		h2Server.encode(ByteBuffer.wrap("Upgraded".getBytes(
+				StandardCharsets.UTF_8)), srvOut, true);
+		srvOut.flip();
+		ByteBuffer body = ByteBuffer.allocate(1024);
+		msg.clear();
+		// The engine activates the new decoder when decode is invoked
+		h2Client.decode(Codec.EMPTY_IN, body, false);
+		List<Http2Frame> frames = decodeAll(h2Client.responseDecoder(), 
+				(Http2Encoder)h2Client.requestEncoder(), srvOut, body, msg);
+		HttpResponse clntResp = (HttpResponse)frames.stream()
+				.filter(f -> f instanceof Http2HeadersFrame).findFirst()
+				.map(f -> ((Http2HeadersFrame)f).messageHeader()).get();
+		assertEquals(200, clntResp.statusCode());
+		body.flip();
+		assertEquals("Upgraded", new String(body.array(), 0, body.limit(),
+				StandardCharsets.UTF_8));
+	}
+}
@@ -123,5 +123,20 @@ public class OutputStreamTests {
 		assertEquals(dataSource, sink);
 	}
 
-	
+	@Test
+	public void testWriteAscii() {
+		ByteBufferOutputStream os = new ByteBufferOutputStream();
+		ByteBuffer assignedBuf = ByteBuffer.allocate(8);
+		os.assignBuffer(assignedBuf);
+		os.writeAscii("Content-Type: t\u00e9xt");
+		assertEquals(18, os.bytesWritten());
+		assertEquals(-10, os.remaining());
+		assertEquals("Content-", new String(assignedBuf.array(), 
+				0, assignedBuf.position()));
+		assignedBuf = ByteBuffer.allocate(32);
+		os.assignBuffer(assignedBuf);
+		assertEquals("Type: t?xt", new String(assignedBuf.array(), 
+				0, assignedBuf.position()));
+	}
+
 }
@@ -19,13 +19,24 @@
 package org.jdrupes.httpcodec.test.ws;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.Buffer;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
 
+import org.jdrupes.httpcodec.Codec;
 import org.jdrupes.httpcodec.Decoder;
 import org.jdrupes.httpcodec.Encoder;
 import org.jdrupes.httpcodec.ProtocolException;
+import org.jdrupes.httpcodec.protocols.websocket.PerMessageDeflate;
+import org.jdrupes.httpcodec.protocols.websocket.WsBroadcastFrame;
 import org.jdrupes.httpcodec.protocols.websocket.WsCloseFrame;
 import org.jdrupes.httpcodec.protocols.websocket.WsDecoder;
 import org.jdrupes.httpcodec.protocols.websocket.WsEncoder;
@@ -33,6 +44,7 @@ import org.jdrupes.httpcodec.protocols.websocket.WsFrameHeader;
 import org.jdrupes.httpcodec.protocols.websocket.WsMessageHeader;
 import org.jdrupes.httpcodec.protocols.websocket.WsPingFrame;
 import org.jdrupes.httpcodec.protocols.websocket.WsPongFrame;
+import org.jdrupes.httpcodec.test.Common;
 
 import static org.junit.Assert.*;
 import org.junit.Test;
@@ -335,4 +347,461 @@ public class MiscTests {
 		assertFalse(encRes.closeConnection());
 	}
 
+	@Test
+	public void testMaskedBinary() throws ProtocolException {
+		byte[] data = new byte[1000];
+		new Random().nextBytes(data);
+		// Encode with odd buffer sizes
+		WsEncoder encoder = new WsEncoder(true);
+		encoder.encode(new WsMessageHeader(false, true));
+		ByteBuffer msg = ByteBuffer.allocate(2000);
+		Encoder.Result encRes = Common.tinyEncodeLoop(
+				encoder, ByteBuffer.wrap(data), data.length, msg, 13, true);
+		assertFalse(encRes.isOverflow());
+		assertFalse(encRes.isUnderflow());
+		msg.flip();
+		byte[] frame = new byte[msg.remaining()];
+		msg.get(frame);
+		// Header (2), extended length (2), mask (4)
+		assertEquals(1008, frame.length);
+		for (int i = 0; i < data.length; i++) {
+			assertEquals(data[i] ^ frame[4 + i % 4], frame[8 + i]);
+		}
+		// Decode with different byte orders and odd buffer sizes
+		for (ByteOrder order: new ByteOrder[] { 
+				ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN }) {
+			WsDecoder decoder = new WsDecoder();
+			ByteBuffer in = ByteBuffer.allocateDirect(frame.length);
+			in.order(order);
+			ByteBuffer decoded = ByteBuffer.allocate(2000);
+			ByteBuffer out = ByteBuffer.allocate(11);
+			out.order(order);
+			int offset = 0;
+			while (true) {
+				int chunk = Math.min(23, frame.length - offset);
+				in.clear();
+				in.put(frame, offset, chunk);
+				in.flip();
+				offset += chunk;
+				Decoder.Result<?> decRes;
+				while (true) {
+					decRes = decoder.decode(in, out, offset == frame.length);
+					out.flip();
+					decoded.put(out);
+					out.clear();
+					if (!decRes.isOverflow()) {
+						break;
+					}
+				}
+				if (!decRes.isUnderflow()) {
+					break;
+				}
+			}
+			decoded.flip();
+			assertEquals(ByteBuffer.wrap(data), decoded);
+		}
+	}
+
+	@Test
+	public void testMaskedText() throws ProtocolException {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; text.length() < 3000; i++) {
+			text.append("Gr\u00fc\u00dfe \u20ac").append(i).append(", ");
+		}
+		WsEncoder encoder = new WsEncoder(true);
+		encoder.encode(new WsMessageHeader(true, true));
+		ByteBuffer msg = ByteBuffer.allocate(10000);
+		Encoder.Result encRes = encoder.encode(
+				CharBuffer.wrap(text), msg, true);
+		assertFalse(encRes.isOverflow());
+		msg.flip();
+		// Decode with small buffers, splitting multi-byte characters
+		WsDecoder decoder = new WsDecoder();
+		CharBuffer decoded = CharBuffer.allocate(text.length());
+		CharBuffer out = CharBuffer.allocate(7);
+		ByteBuffer in = ByteBuffer.allocate(23);
+		while (true) {
+			in.clear();
+			while (in.hasRemaining() && msg.hasRemaining()) {
+				in.put(msg.get());
+			}
+			in.flip();
+			Decoder.Result<?> decRes;
+			while (true) {
+				decRes = decoder.decode(in, out, !msg.hasRemaining());
+				out.flip();
+				decoded.put(out);
+				out.clear();
+				if (!decRes.isOverflow()) {
+					break;
+				}
+			}
+			if (!decRes.isUnderflow()) {
+				break;
+			}
+		}
+		decoded.flip();
+		assertEquals(text.toString(), decoded.toString());
+	}
+
+	@Test
+	public void testTextFragments() throws ProtocolException {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; text.length() < 3000; i++) {
+			text.append("Gr\u00fc\u00dfe \u20ac\ud83d\ude00").append(i);
+		}
+		WsEncoder encoder = new WsEncoder(true);
+		encoder.setMaxTextFragmentSize(100);
+		encoder.encode(new WsMessageHeader(true, true));
+		// Encode with small out buffer
+		ByteBuffer msg = ByteBuffer.allocate(10000);
+		ByteBuffer out = ByteBuffer.allocate(17);
+		CharBuffer in = CharBuffer.wrap(text);
+		while (true) {
+			Encoder.Result encRes = encoder.encode(in, out, true);
+			out.flip();
+			msg.put(out);
+			out.clear();
+			if (!encRes.isOverflow()) {
+				break;
+			}
+		}
+		msg.flip();
+		// Check fragments
+		int frames = 0;
+		ByteBuffer frameCheck = msg.duplicate();
+		while (frameCheck.hasRemaining()) {
+			int head = frameCheck.get() & 0xff;
+			assertEquals(frames == 0 ? 1 : 0, head & 0xf);
+			int length = frameCheck.get() & 0x7f;
+			assertTrue(length <= 100);
+			frameCheck.position(frameCheck.position() + 4 + length);
+			frames += 1;
+			assertEquals(!frameCheck.hasRemaining(), (head & 0x80) != 0);
+		}
+		assertTrue(frames > 30);
+		// Decode
+		WsDecoder decoder = new WsDecoder();
+		CharBuffer decoded = CharBuffer.allocate(text.length());
+		Decoder.Result<?> decRes;
+		do {
+			decRes = decoder.decode(msg, decoded, true);
+		} while (decRes.isUnderflow() && msg.hasRemaining());
+		decoded.flip();
+		assertEquals(text.toString(), decoded.toString());
+	}
+
+	@Test
+	public void testMaxFrameSize() throws ProtocolException {
+		WsEncoder encoder = new WsEncoder(false);
+		encoder.setMaxFrameSize(4);
+		encoder.encode(new WsMessageHeader(false, true));
+		ByteBuffer in = ByteBuffer.wrap("abcdefghij".getBytes());
+		// First frame doesn't fit
+		ByteBuffer out = ByteBuffer.allocate(4);
+		Encoder.Result encRes = encoder.encode(in, out, true);
+		assertTrue(encRes.isOverflow());
+		// Ping must be sent before next fragment
+		encoder.encode(new WsPingFrame(null));
+		ByteBuffer msg = ByteBuffer.allocate(100);
+		out.flip();
+		msg.put(out);
+		out = ByteBuffer.allocate(100);
+		encRes = encoder.encode(in, out, true);
+		assertFalse(encRes.isOverflow());
+		assertFalse(encRes.isUnderflow());
+		out.flip();
+		msg.put(out);
+		msg.flip();
+		byte[] expected = new byte[] {
+				0x02, 4, 'a', 'b', 'c', 'd',
+				(byte)0x89, 0,
+				0x00, 4, 'e', 'f', 'g', 'h',
+				(byte)0x80, 2, 'i', 'j' };
+		assertEquals(ByteBuffer.wrap(expected), msg);
+	}
+
+	@Test
+	public void testGathering() throws ProtocolException {
+		byte[] data = new byte[1000];
+		new Random().nextBytes(data);
+		WsEncoder encoder = new WsEncoder(false);
+		encoder.encode(new WsMessageHeader(false, true));
+		ByteBuffer in = ByteBuffer.wrap(data);
+		in.limit(600);
+		ByteBuffer[] first = encoder.encodeGathering(in, false);
+		assertFalse(in.hasRemaining());
+		assertTrue(first[1].array() == data);
+		in.limit(data.length);
+		ByteBuffer[] second = encoder.encodeGathering(in, true);
+		// Headers
+		assertEquals(4, first[0].remaining());
+		assertEquals(0x02, first[0].get(0));
+		assertEquals(4, second[0].remaining());
+		assertEquals((byte)0x80, second[0].get(0));
+		ByteBuffer msg = ByteBuffer.allocate(2000);
+		for (ByteBuffer buf: new ByteBuffer[] { 
+				first[0], first[1], second[0], second[1] }) {
+			msg.put(buf);
+		}
+		msg.flip();
+		// Decode
+		WsDecoder decoder = new WsDecoder();
+		ByteBuffer decoded = ByteBuffer.allocate(data.length);
+		Decoder.Result<?> decRes = decoder.decode(msg, decoded, true);
+		assertFalse(decRes.isUnderflow());
+		assertArrayEquals(data, decoded.array());
+	}
+
+	@Test
+	public void testBroadcastFrame() throws ProtocolException {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			text.append("{\"price\": ").append(i).append("}, ");
+		}
+		WsBroadcastFrame frame = new WsBroadcastFrame(text, true);
+		PerMessageDeflate noTakeover = new PerMessageDeflate(true, false);
+		PerMessageDeflate takeover = new PerMessageDeflate(false, false);
+		WsEncoder[] encoders = new WsEncoder[] { new WsEncoder(false), 
+				new WsEncoder(false, noTakeover), 
+				new WsEncoder(false, takeover)};
+		for (int encIdx = 0; encIdx < encoders.length; encIdx++) {
+			WsEncoder encoder = encoders[encIdx];
+			// Only sent compressed without context takeover
+			boolean compressed = (encIdx == 1);
+			// Frames are sent twice to check that they are not consumed
+			for (int i = 0; i < 2; i++) {
+				encoder.encode(frame);
+				ByteBuffer msg = ByteBuffer.allocate(10000);
+				ByteBuffer out = ByteBuffer.allocate(100);
+				while (true) {
+					Encoder.Result encRes 
+						= encoder.encode(Codec.EMPTY_IN, out, true);
+					out.flip();
+					msg.put(out);
+					out.clear();
+					if (!encRes.isOverflow()) {
+						assertFalse(encRes.isUnderflow());
+						break;
+					}
+				}
+				msg.flip();
+				assertEquals(compressed ? 0xc1 : 0x81, msg.get(0) & 0xff);
+				WsDecoder decoder = new WsDecoder(noTakeover);
+				CharBuffer decoded = CharBuffer.allocate(text.length());
+				Decoder.Result<?> decRes = decoder.decode(msg, decoded, true);
+				assertFalse(decRes.isUnderflow());
+				decoded.flip();
+				assertEquals(text.toString(), decoded.toString());
+			}
+		}
+	}
+
+	@Test
+	public void testUtf8Validation() throws ProtocolException {
+		// Euro sign split between two frames
+		byte[] msgBytes = new byte[] {0x01, 0x03, 0x41, (byte)0xe2, 
+				(byte)0x82, (byte)0x80, 0x02, (byte)0xac, 0x42};
+		WsDecoder decoder = new WsDecoder();
+		CharBuffer decoded = CharBuffer.allocate(10);
+		Decoder.Result<?> decRes = decoder.decode(
+				ByteBuffer.wrap(msgBytes), decoded, false);
+		assertFalse(decRes.response().isPresent());
+		decoded.flip();
+		assertEquals("A\u20acB", decoded.toString());
+		
+		// Encoded surrogate, incomplete sequence at end of message,
+		// overlong encoding
+		for (byte[] invalid: new byte[][] {
+				{(byte)0x81, 0x03, (byte)0xed, (byte)0xa0, (byte)0x80},
+				{(byte)0x81, 0x02, 0x41, (byte)0xe2},
+				{(byte)0x81, 0x02, (byte)0xc0, (byte)0xaf}}) {
+			decoder = new WsDecoder();
+			decoded.clear();
+			decRes = decoder.decode(ByteBuffer.wrap(invalid), decoded, false);
+			assertTrue(decRes.closeConnection());
+			assertTrue(decRes.isResponseOnly());
+			assertEquals(1007, (int)((WsCloseFrame)decRes.response().get())
+					.statusCode().get());
+		}
+	}
+
+	@Test
+	public void testBatch() throws ProtocolException {
+		Queue<Buffer> messages = new ArrayDeque<>();
+		for (int i = 0; i < 100; i++) {
+			messages.add(CharBuffer.wrap("{\"event\": " + i + "}"));
+		}
+		byte[] large = new byte[700];
+		messages.add(ByteBuffer.wrap(large));
+		WsEncoder encoder = new WsEncoder(true);
+		WsDecoder decoder = new WsDecoder();
+		ByteBuffer out = ByteBuffer.allocate(500);
+		CharBuffer text = CharBuffer.allocate(100);
+		ByteBuffer binary = ByteBuffer.allocate(1000);
+		int received = 0;
+		int calls = 0;
+		while (!messages.isEmpty()) {
+			Encoder.Result encRes = encoder.encodeBatch(messages, out);
+			calls += 1;
+			assertEquals(!messages.isEmpty(), encRes.isOverflow());
+			out.flip();
+			// Decode, buffer contains complete frames only 
+			// unless the large message is being sent
+			while (out.hasRemaining()) {
+				Decoder.Result<?> decRes = decoder.decode(out, 
+						received < 100 ? text : binary, true);
+				if (decRes.isUnderflow()) {
+					assertEquals(100, received);
+					break;
+				}
+				if (received < 100) {
+					text.flip();
+					assertEquals("{\"event\": " + received + "}", 
+							text.toString());
+					text.clear();
+				}
+				received += 1;
+			}
+			out.clear();
+		}
+		assertEquals(101, received);
+		assertEquals(700, binary.position());
+		assertTrue(calls < 10);
+	}
+
+	@Test
+	public void testBatchFragmented() throws ProtocolException {
+		Queue<Buffer> messages = new ArrayDeque<>();
+		messages.add(ByteBuffer.wrap(new byte[25]));
+		messages.add(CharBuffer.wrap("ok"));
+		WsEncoder encoder = new WsEncoder(false);
+		encoder.setMaxFrameSize(10);
+		// Out buffer filled exactly by each fragment of the first message
+		ByteBuffer out = ByteBuffer.allocate(12);
+		ByteBuffer msg = ByteBuffer.allocate(100);
+		while (!messages.isEmpty()) {
+			encoder.encodeBatch(messages, out);
+			out.flip();
+			msg.put(out);
+			out.clear();
+		}
+		msg.flip();
+		List<Integer> heads = new ArrayList<>();
+		while (msg.hasRemaining()) {
+			heads.add(msg.get() & 0xff);
+			int length = msg.get() & 0x7f;
+			msg.position(msg.position() + length);
+		}
+		assertEquals(Arrays.asList(0x02, 0x00, 0x80, 0x81), heads);
+	}
+
+	@Test
+	public void testBatchTextFragmented() throws ProtocolException {
+		Queue<Buffer> messages = new ArrayDeque<>();
+		messages.add(CharBuffer.wrap("abcdefghijklmnopqrstuvwxy"));
+		WsEncoder encoder = new WsEncoder(false);
+		encoder.setMaxTextFragmentSize(10);
+		ByteBuffer out = ByteBuffer.allocate(12);
+		ByteBuffer msg = ByteBuffer.allocate(100);
+		while (!messages.isEmpty()) {
+			encoder.encodeBatch(messages, out);
+			out.flip();
+			msg.put(out);
+			out.clear();
+		}
+		msg.flip();
+		List<Integer> heads = new ArrayList<>();
+		StringBuilder payload = new StringBuilder();
+		while (msg.hasRemaining()) {
+			heads.add(msg.get() & 0xff);
+			int length = msg.get() & 0x7f;
+			for (int i = 0; i < length; i++) {
+				payload.append((char)msg.get());
+			}
+		}
+		assertEquals(Arrays.asList(0x01, 0x00, 0x80), heads);
+		assertEquals("abcdefghijklmnopqrstuvwxy", payload.toString());
+	}
+
+	@Test
+	public void testMaskingKeySource() {
+		WsEncoder encoder = new WsEncoder(true);
+		encoder.setMaskingKeySource(() -> 0x01020304);
+		encoder.encode(new WsMessageHeader(false, true));
+		ByteBuffer msg = ByteBuffer.allocate(100);
+		Encoder.Result encRes = encoder.encode(
+				ByteBuffer.wrap(new byte[5]), msg, true);
+		assertFalse(encRes.isOverflow());
+		msg.flip();
+		byte[] encoded = new byte[msg.remaining()];
+		msg.get(encoded);
+		assertArrayEquals(new byte[] { (byte)0x82, (byte)0x85, 
+				1, 2, 3, 4, 1, 2, 3, 4, 1 }, encoded);
+	}
+
+	@Test
+	public void testDeflatedText() throws ProtocolException {
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; text.length() < 3000; i++) {
+			text.append("{\"gr\u00fc\u00dfe\": \"\u20ac").append(i)
+				.append("\"}, ");
+		}
+		String part1 = text.substring(0, 1000);
+		String part2 = text.substring(1000);
+		PerMessageDeflate pmd = new PerMessageDeflate(false, false);
+		WsEncoder encoder = new WsEncoder(true, pmd);
+		ByteBuffer msg = ByteBuffer.allocate(10000);
+		// Two messages, the first one sent as two frames
+		encoder.encode(new WsMessageHeader(true, true));
+		Encoder.Result encRes = encoder.encode(
+				CharBuffer.wrap(part1), msg, false);
+		assertFalse(encRes.isOverflow());
+		// Text frame, RSV1 set
+		assertEquals(0x41, msg.get(0));
+		int firstFrameEnd = msg.position();
+		encRes = encoder.encode(CharBuffer.wrap(part2), msg, true);
+		assertFalse(encRes.isOverflow());
+		// Continuation frame, RSV1 not set
+		assertEquals((byte)0x80, msg.get(firstFrameEnd));
+		int firstMessageLength = msg.position();
+		assertTrue(firstMessageLength < text.length() / 3);
+		encoder.encode(new WsMessageHeader(true, true));
+		encRes = encoder.encode(CharBuffer.wrap(text), msg, true);
+		assertFalse(encRes.isOverflow());
+		// Context takeover makes second message much smaller
+		assertTrue(msg.position() - firstMessageLength 
+				< firstMessageLength / 2);
+		msg.flip();
+		// Decode with small buffers
+		WsDecoder decoder = new WsDecoder(pmd);
+		CharBuffer decoded = CharBuffer.allocate(2 * text.length());
+		CharBuffer out = CharBuffer.allocate(7);
+		ByteBuffer in = ByteBuffer.allocate(23);
+		int messages = 0;
+		while (messages < 2) {
+			in.clear();
+			while (in.hasRemaining() && msg.hasRemaining()) {
+				in.put(msg.get());
+			}
+			in.flip();
+			Decoder.Result<?> decRes;
+			while (true) {
+				decRes = decoder.decode(in, out, false);
+				out.flip();
+				decoded.put(out);
+				out.clear();
+				if (!decRes.isOverflow() && !decRes.isUnderflow()) {
+					messages += 1;
+					continue;
+				}
+				if (!decRes.isOverflow()) {
+					break;
+				}
+			}
+		}
+		decoded.flip();
+		assertEquals(text.toString() + text.toString(), decoded.toString());
+	}
+
 }
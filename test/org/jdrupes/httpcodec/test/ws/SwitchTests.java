@@ -10,6 +10,8 @@ import org.jdrupes.httpcodec.Codec;
 import org.jdrupes.httpcodec.Decoder;
 import org.jdrupes.httpcodec.ProtocolException;
 import org.jdrupes.httpcodec.ServerEngine;
+import org.jdrupes.httpcodec.plugin.UpgradeProvider;
+import org.jdrupes.httpcodec.plugin.UpgradeProviderRegistry;
 import org.jdrupes.httpcodec.protocols.http.HttpConstants.HttpProtocol;
 import org.jdrupes.httpcodec.protocols.http.HttpConstants.HttpStatus;
 import org.jdrupes.httpcodec.protocols.http.HttpField;
@@ -19,8 +21,11 @@ import org.jdrupes.httpcodec.protocols.http.client.HttpRequestEncoder;
 import org.jdrupes.httpcodec.protocols.http.client.HttpResponseDecoder;
 import org.jdrupes.httpcodec.protocols.http.server.HttpRequestDecoder;
 import org.jdrupes.httpcodec.protocols.http.server.HttpResponseEncoder;
+import org.jdrupes.httpcodec.protocols.websocket.PerMessageDeflate;
 import org.jdrupes.httpcodec.protocols.websocket.WsFrameHeader;
 import org.jdrupes.httpcodec.protocols.websocket.WsMessageHeader;
+import org.jdrupes.httpcodec.protocols.websocket.WsProtocolProvider;
+import org.jdrupes.httpcodec.types.Converters;
 import org.jdrupes.httpcodec.types.StringList;
 import static org.junit.Assert.*;
 import org.junit.Test;
@@ -113,4 +118,195 @@ public class SwitchTests {
 		assertEquals("Server2Client", charBody.toString());
 	}
 
+	@Test
+	public void testProviderRegistry() {
+		UpgradeProvider loaded 
+			= UpgradeProviderRegistry.lookup("websocket").get();
+		assertTrue(loaded instanceof WsProtocolProvider);
+		assertSame(loaded, UpgradeProviderRegistry.lookup("websocket").get());
+		assertFalse(UpgradeProviderRegistry.lookup("unknown").isPresent());
+		// Registered provider takes precedence
+		int loadedCount = UpgradeProviderRegistry.providers().size();
+		UpgradeProvider custom = new WsProtocolProvider();
+		UpgradeProviderRegistry.register(custom);
+		try {
+			assertSame(custom, 
+					UpgradeProviderRegistry.lookup("websocket").get());
+			assertEquals(loadedCount + 1, 
+					UpgradeProviderRegistry.providers().size());
+		} finally {
+			UpgradeProviderRegistry.unregister(custom);
+		}
+		assertSame(loaded, UpgradeProviderRegistry.lookup("websocket").get());
+	}
+
+	@Test
+	public void testAcceptKey() throws URISyntaxException, ProtocolException {
+		// Sample from RFC 6455, 1.3
+		HttpRequest clntReq = new HttpRequest("GET", new URI("http://localhost"),
+		        HttpProtocol.HTTP_1_1, false);
+		clntReq.setField(HttpField.UPGRADE, new StringList("websocket"));
+		clntReq.setField(new HttpField<>("Sec-WebSocket-Key", 
+				"dGhlIHNhbXBsZSBub25jZQ==", Converters.UNQUOTED_STRING));
+		ClientEngine<HttpRequest, HttpResponse> client = new ClientEngine<>(
+				new HttpRequestEncoder(), new HttpResponseDecoder());
+		client.encode(clntReq);
+		ByteBuffer msg = ByteBuffer.allocate(1024*1024);
+		client.encode(msg);
+		msg.flip();
+		ServerEngine<HttpRequest, HttpResponse> server = new ServerEngine<>(
+				new HttpRequestDecoder(), new HttpResponseEncoder());
+		ByteBuffer byteBody = ByteBuffer.allocate(1024*1024);
+		server.decode(msg, byteBody, false);
+		HttpResponse srvResp = server.currentRequest().get().response().get();
+		srvResp.setStatus(HttpStatus.SWITCHING_PROTOCOLS);
+		srvResp.setField(HttpField.UPGRADE, new StringList("websocket"));
+		msg.clear();
+		server.encode(srvResp);
+		server.encode(msg);
+		String encoded = new String(msg.array(), 0, msg.position());
+		assertTrue(encoded.contains(
+				"Sec-WebSocket-Accept: s3pPLMBiTxaQ9kYGzzhZRbK+xOo="));
+		// Client verifies the value
+		msg.flip();
+		byteBody.clear();
+		Decoder.Result<?> clntDec = client.decode(msg, byteBody, false);
+		assertTrue(clntDec.isHeaderCompleted());
+		assertEquals("websocket", client.switchedTo().get());
+	}
+
+	@Test
+	public void testPerMessageDeflate() 
+			throws URISyntaxException, ProtocolException {
+		// Request with offer
+		HttpRequest clntReq = new HttpRequest("GET", new URI("http://localhost"),
+		        HttpProtocol.HTTP_1_1, false);
+		clntReq.setField(HttpField.UPGRADE, new StringList("websocket"));
+		PerMessageDeflate.offer(clntReq);
+		ClientEngine<HttpRequest, HttpResponse> client = new ClientEngine<>(
+				new HttpRequestEncoder(), new HttpResponseDecoder());
+		client.encode(clntReq);
+		ByteBuffer msg = ByteBuffer.allocate(1024*1024);
+		client.encode(msg);
+		String encoded = new String(msg.array(), 0, msg.position());
+		assertTrue(encoded.contains("Sec-WebSocket-Extensions: "
+				+ "permessage-deflate; client_max_window_bits\r\n"));
+		
+		// Decode and accept
+		msg.flip();
+		ServerEngine<HttpRequest, HttpResponse> server = new ServerEngine<>(
+				new HttpRequestDecoder(), new HttpResponseEncoder());
+		ByteBuffer byteBody = ByteBuffer.allocate(1024*1024);
+		server.decode(msg, byteBody, false);
+		HttpResponse srvResp = server.currentRequest().get().response().get();
+		srvResp.setStatus(HttpStatus.SWITCHING_PROTOCOLS);
+		srvResp.setField(HttpField.UPGRADE, new StringList("websocket"));
+		msg.clear();
+		server.encode(srvResp);
+		server.encode(msg);
+		encoded = new String(msg.array(), 0, msg.position());
+		assertTrue(encoded.contains(
+				"Sec-WebSocket-Extensions: permessage-deflate\r\n"));
+		msg.flip();
+		byteBody.clear();
+		Decoder.Result<?> clntDec = client.decode(msg, byteBody, false);
+		assertTrue(clntDec.isHeaderCompleted());
+		assertEquals("websocket", client.switchedTo().get());
+
+		// Exchange compressed messages
+		StringBuilder text = new StringBuilder();
+		for (int i = 0; i < 100; i++) {
+			text.append("{\"id\": ").append(i).append("}, ");
+		}
+		@SuppressWarnings("unchecked")
+		ClientEngine<WsFrameHeader, WsFrameHeader> wsClient
+			= (ClientEngine<WsFrameHeader, WsFrameHeader>)(Object)client;
+		@SuppressWarnings("unchecked")
+		ServerEngine<WsFrameHeader, WsFrameHeader> wsServer
+			= (ServerEngine<WsFrameHeader, WsFrameHeader>)(Object)server;
+		CharBuffer charBody = CharBuffer.allocate(1024*1024);
+		msg.clear();
+		wsClient.encode(new WsMessageHeader(true, true));
+		wsClient.encode(CharBuffer.wrap(text), msg, true);
+		assertEquals(0xc1, msg.get(0) & 0xff);
+		assertTrue(msg.position() < text.length() / 2);
+		msg.flip();
+		Codec.Result codecRes = server.decode(msg, charBody, true);
+		assertFalse(codecRes.isOverflow());
+		assertFalse(codecRes.isUnderflow());
+		charBody.flip();
+		assertEquals(text.toString(), charBody.toString());
+		
+		msg.clear();
+		wsServer.encode(new WsMessageHeader(true, true));
+		wsServer.encode(CharBuffer.wrap(text), msg, true);
+		assertEquals(0xc1, msg.get(0) & 0xff);
+		msg.flip();
+		charBody.clear();
+		codecRes = wsClient.decode(msg, charBody, true);
+		assertFalse(codecRes.isOverflow());
+		assertFalse(codecRes.isUnderflow());
+		charBody.flip();
+		assertEquals(text.toString(), charBody.toString());
+	}
+
+	/**
+	 * Sends a websocket upgrade request with the given extension
+	 * offers and returns the server's switching protocols response
+	 * as text.
+	 */
+	private static String respondToOffer(String offers) 
+			throws URISyntaxException, ProtocolException {
+		HttpRequest clntReq = new HttpRequest("GET", new URI("http://localhost"),
+		        HttpProtocol.HTTP_1_1, false);
+		clntReq.setField(HttpField.UPGRADE, new StringList("websocket"));
+		clntReq.setField(new HttpField<>(PerMessageDeflate.EXTENSIONS_FIELD,
+				offers, Converters.UNQUOTED_STRING));
+		ClientEngine<HttpRequest, HttpResponse> client = new ClientEngine<>(
+				new HttpRequestEncoder(), new HttpResponseDecoder());
+		client.encode(clntReq);
+		ByteBuffer msg = ByteBuffer.allocate(1024*1024);
+		client.encode(msg);
+		msg.flip();
+		ServerEngine<HttpRequest, HttpResponse> server = new ServerEngine<>(
+				new HttpRequestDecoder(), new HttpResponseEncoder());
+		server.decode(msg, null, false);
+		HttpResponse srvResp = server.currentRequest().get().response().get();
+		srvResp.setStatus(HttpStatus.SWITCHING_PROTOCOLS);
+		srvResp.setField(HttpField.UPGRADE, new StringList("websocket"));
+		msg.clear();
+		server.encode(srvResp);
+		server.encode(msg);
+		return new String(msg.array(), 0, msg.position());
+	}
+
+	@Test
+	public void testPerMessageDeflateWindowBitsEcho() 
+			throws URISyntaxException, ProtocolException {
+		String response = respondToOffer("permessage-deflate; "
+				+ "server_max_window_bits=15; client_max_window_bits");
+		assertTrue(response.contains("Sec-WebSocket-Extensions: "
+				+ "permessage-deflate; server_max_window_bits=15\r\n"));
+		// Smaller windows cannot be used, next offer is accepted
+		response = respondToOffer("permessage-deflate; "
+				+ "server_max_window_bits=10, permessage-deflate");
+		assertTrue(response.contains(
+				"Sec-WebSocket-Extensions: permessage-deflate\r\n"));
+	}
+
+	@Test
+	public void testPerMessageDeflateRepeatedParameter() 
+			throws URISyntaxException, ProtocolException {
+		String response = respondToOffer("permessage-deflate; "
+				+ "client_max_window_bits; client_max_window_bits=10");
+		assertTrue(response.startsWith("HTTP/1.1 101 "));
+		assertFalse(response.contains("Sec-WebSocket-Extensions"));
+		// Repeated parameter in first offer only
+		response = respondToOffer("permessage-deflate; "
+				+ "client_no_context_takeover; client_no_context_takeover, "
+				+ "permessage-deflate; server_no_context_takeover");
+		assertTrue(response.contains("Sec-WebSocket-Extensions: "
+				+ "permessage-deflate; server_no_context_takeover\r\n"));
+	}
+
 }